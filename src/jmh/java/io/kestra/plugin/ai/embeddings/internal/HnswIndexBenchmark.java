@@ -0,0 +1,75 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches an HNSW index of 5000 clustered vectors with different parameters, to help choosing them.
+ * The benchmark only measures the latency of a search, the recall against a brute force search is checked by <code>HnswIndexTest</code>.
+ * <p>
+ * Run it with <code>./gradlew jmh -Pjmh.includes=HnswIndexBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HnswIndexBenchmark {
+    private static final int SIZE = 5_000;
+    private static final int DIMENSION = 64;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    @Param({"8", "16", "32"})
+    private int m;
+
+    @Param({"100", "200"})
+    private int efConstruction;
+
+    @Param({"10", "50", "100", "200"})
+    private int efSearch;
+
+    private float[][] queries;
+    private HnswIndex index;
+    private int next;
+
+    @Setup
+    public void setup() {
+        float[][] vectors = dataset(SIZE, new SplittableRandom(1));
+        queries = dataset(QUERIES, new SplittableRandom(2));
+
+        VectorStorage storage = new HeapVectors();
+        Arrays.stream(vectors).forEach(storage::add);
+        index = new HnswIndex(m, efConstruction, efSearch, storage);
+        for (int slot = 0; slot < SIZE; slot++) {
+            index.add(slot);
+        }
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) {
+        blackhole.consume(index.search(queries[next++ % QUERIES], K));
+    }
+
+    // vectors around a few random centroids, as real embeddings are clustered
+    private static float[][] dataset(int size, SplittableRandom random) {
+        SplittableRandom centroidsRandom = new SplittableRandom(0);
+        float[][] centroids = new float[20][DIMENSION];
+        for (float[] centroid : centroids) {
+            for (int i = 0; i < DIMENSION; i++) {
+                centroid[i] = (float) centroidsRandom.nextGaussian();
+            }
+        }
+
+        float[][] vectors = new float[size][DIMENSION];
+        for (float[] vector : vectors) {
+            float[] centroid = centroids[random.nextInt(centroids.length)];
+            for (int i = 0; i < DIMENSION; i++) {
+                vector[i] = centroid[i] + (float) random.nextGaussian() * 0.5f;
+            }
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,83 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores a query against 1000 vectors: with the previous implementation, which computed both norms for each comparison,
+ * then with a dot product of unit vectors normalized once, using the scalar kernel and the Vector API kernel.
+ * <p>
+ * Run it with <code>./gradlew jmh</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class VectorMathBenchmark {
+    private static final int SIZE = 1000;
+
+    @Param({"384", "768", "1536"})
+    private int dimension;
+
+    private float[] query;
+    private float[][] vectors;
+    private float[][] unitVectors;
+    private final VectorMath.Kernel scalar = new VectorMath.ScalarKernel();
+    private VectorMath.Kernel vector;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        vector = VectorMath.vectorApiKernel();
+        Random random = new Random(42);
+        query = randomVector(random);
+        vectors = new float[SIZE][];
+        unitVectors = new float[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            vectors[i] = randomVector(random);
+            unitVectors[i] = VectorMath.normalize(vectors[i]);
+        }
+    }
+
+    @Benchmark
+    public void previousCosineSimilarity(Blackhole blackhole) {
+        for (float[] other : vectors) {
+            double dot = 0;
+            double queryNorm = 0;
+            double otherNorm = 0;
+            for (int i = 0; i < query.length; i++) {
+                dot += query[i] * other[i];
+                queryNorm += query[i] * query[i];
+                otherNorm += other[i] * other[i];
+            }
+            blackhole.consume(dot / Math.max(Math.sqrt(queryNorm) * Math.sqrt(otherNorm), 1e-8));
+        }
+    }
+
+    @Benchmark
+    public void scalarKernel(Blackhole blackhole) {
+        score(scalar, blackhole);
+    }
+
+    @Benchmark
+    public void vectorApiKernel(Blackhole blackhole) {
+        score(vector, blackhole);
+    }
+
+    private void score(VectorMath.Kernel kernel, Blackhole blackhole) {
+        // the query is normalized once per search
+        float[] unitQuery = VectorMath.normalize(query);
+        for (float[] unitVector : unitVectors) {
+            blackhole.consume(kernel.dot(unitQuery, unitVector));
+        }
+    }
+
+    private float[] randomVector(Random random) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
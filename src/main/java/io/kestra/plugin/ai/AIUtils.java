@@ -2,16 +2,25 @@ package io.kestra.plugin.ai;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
 import dev.langchain4j.service.tool.ToolExecutor;
 import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.models.executions.metrics.Counter;
 import io.kestra.core.runners.RunContext;
 import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.plugin.ai.domain.ContentReranking;
+import io.kestra.plugin.ai.domain.RetrievalFusion;
 import io.kestra.plugin.ai.domain.TokenUsage;
 import io.kestra.plugin.ai.domain.ToolProvider;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +42,14 @@ public final class AIUtils {
         return tools;
     }
 
+    /**
+     * Builds the aggregator of the retrieved contents: all of them by default, fused when a fusion is set, then reranked when a reranking is set.
+     */
+    public static ContentAggregator buildContentAggregator(RunContext runContext, RetrievalFusion fusion, ContentReranking reranking) throws IOException, IllegalVariableEvaluationException {
+        ContentAggregator contentAggregator = fusion != null ? fusion.contentAggregator(runContext) : new DefaultContentAggregator();
+        return reranking != null ? reranking.contentAggregator(runContext, contentAggregator) : contentAggregator;
+    }
+
     public static void sendMetrics(RunContext runContext, TokenUsage tokenUsage) {
         if (tokenUsage != null) {
             runContext.metric(Counter.of("ai.token.usage.input.count", "Large Language Model (LLM) input token count", tokenUsage.getInputTokenCount()));
@@ -53,4 +70,17 @@ public final class AIUtils {
 
         return JacksonMapper.toMap(json);
     }
+
+    /**
+     * Returns the hexadecimal SHA-256 digest of the given text, encoded in UTF-8.
+     */
+    public static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory in every Java platform implementation
+            throw new IllegalStateException(e);
+        }
+    }
 }
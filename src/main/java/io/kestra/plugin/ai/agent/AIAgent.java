@@ -206,6 +206,20 @@ public class AIAgent extends Task implements RunnableTask<AIOutput> {
     )
     private Property<List<ContentRetrieverProvider>> contentRetrievers;
 
+    @Schema(
+        title = "Fusion of the retrieved contents",
+        description = "When set, the contents of all the content retrievers are merged with reciprocal rank fusion and only the best ones are kept, for example to combine keyword and vector search. Otherwise all the retrieved contents are used."
+    )
+    @PluginProperty
+    private RetrievalFusion fusion;
+
+    @Schema(
+        title = "Reranking of the retrieved contents",
+        description = "When set, the retrieved contents, after the `fusion` if any, are reranked by a local cross-encoder model and only the best ones are sent to the LLM. Retrieve more contents than you keep, so the reranking can find the relevant ones."
+    )
+    @PluginProperty
+    private ContentReranking reranking;
+
     @Schema(
         title = "Agent Memory",
         description = "Agent memory will store messages and add them as history inside the LLM context."
@@ -215,6 +229,7 @@ public class AIAgent extends Task implements RunnableTask<AIOutput> {
     @Override
     public AIOutput run(RunContext runContext) throws Exception {
         List<ToolProvider> toolProviders = runContext.render(tools).asList(ToolProvider.class);
+        List<ContentRetrieverProvider> contentRetrieverProviders = runContext.render(contentRetrievers).asList(ContentRetrieverProvider.class);
 
         try {
             AiServices<Agent> agent = AiServices.builder(Agent.class)
@@ -227,7 +242,7 @@ public class AIAgent extends Task implements RunnableTask<AIOutput> {
                 agent.chatMemory(memory.chatMemory(runContext));
             }
 
-            List<ContentRetriever> toolContentRetrievers = runContext.render(contentRetrievers).asList(ContentRetrieverProvider.class).stream()
+            List<ContentRetriever> toolContentRetrievers = contentRetrieverProviders.stream()
                 .map(throwFunction(provider -> provider.contentRetriever(runContext)))
                 .toList();
             if (!toolContentRetrievers.isEmpty()) {
@@ -236,6 +251,7 @@ public class AIAgent extends Task implements RunnableTask<AIOutput> {
                 // Create a query router that will route each query to the content retrievers
                 agent.retrievalAugmentor(DefaultRetrievalAugmentor.builder()
                     .queryRouter(queryRouter)
+                    .contentAggregator(AIUtils.buildContentAggregator(runContext, fusion, reranking))
                     .build());
             }
 
@@ -250,11 +266,16 @@ public class AIAgent extends Task implements RunnableTask<AIOutput> {
             return AIOutput.from(runContext, completion, configuration.computeResponseFormat(runContext).type());
         } finally {
             toolProviders.forEach(tool -> tool.close(runContext));
+            contentRetrieverProviders.forEach(retriever -> retriever.close(runContext));
 
             if (memory != null) {
                 memory.close(runContext);
             }
 
+            if (reranking != null) {
+                reranking.close(runContext);
+            }
+
             TimingChatModelListener.clear();
         }
     }
@@ -0,0 +1,149 @@
+package io.kestra.plugin.ai.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.storages.FileAttributes;
+import io.kestra.plugin.ai.internal.LruCache;
+import io.kestra.plugin.ai.rag.internal.OnnxCrossEncoder;
+import io.kestra.plugin.ai.rag.internal.RerankingContentAggregator;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Builder
+public class ContentReranking {
+    // models shared by all tasks of the worker, by the identity of the model and tokenizer files and the maximum input length,
+    // so the ONNX session is only created once for each model; an evicted model is closed once the tasks using it are done
+    private static final LruCache<String, OnnxCrossEncoder> MODEL_CACHE = new LruCache<>(4, OnnxCrossEncoder::close);
+
+    @Schema(
+        title = "The path of the cross-encoder ONNX model, a namespace file of the flow namespace",
+        description = "A cross-encoder exported to ONNX, for example `cross-encoder/ms-marco-MiniLM-L-6-v2`; it runs in-process on the worker CPU."
+    )
+    @NotNull
+    private Property<String> modelPath;
+
+    @Schema(
+        title = "The path of the model tokenizer, a namespace file of the flow namespace",
+        description = "The `tokenizer.json` file of the model."
+    )
+    @NotNull
+    private Property<String> tokenizerPath;
+
+    @Schema(title = "The maximum number of tokens of a query and content pair, longer pairs are truncated")
+    @NotNull
+    @Builder.Default
+    private Property<Integer> maxInputLength = Property.ofValue(512);
+
+    @Schema(
+        title = "The maximum number of contents kept after reranking",
+        description = "All the retrieved contents are reranked, so retrieve more contents than this, for example with `contentRetrieverConfiguration.maxResults`."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> maxResults = Property.ofValue(5);
+
+    @Schema(title = "The minimum reranked score, ranging from 0 to 1 (inclusive). Only contents with a reranked score >= minScore will be kept.")
+    @NotNull
+    @Builder.Default
+    private Property<Double> minScore = Property.ofValue(0.0D);
+
+    // the models retained by the task, they're released with the task
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    private final transient List<OnnxCrossEncoder> retainedModels = new ArrayList<>();
+
+    /**
+     * Creates the aggregator reranking the contents aggregated by <code>candidates</code>.
+     * The model is cached on the worker by the identity of its namespace files, so they're only copied to the working directory and loaded on a miss.
+     * The model is retained until {@link #close(RunContext)} is called.
+     */
+    public ContentAggregator contentAggregator(RunContext runContext, ContentAggregator candidates) throws IOException, IllegalVariableEvaluationException {
+        var rMaxInputLength = runContext.render(maxInputLength).as(Integer.class).orElseThrow();
+        var rModelPath = Path.of(runContext.render(modelPath).as(String.class).orElseThrow());
+        var rTokenizerPath = Path.of(runContext.render(tokenizerPath).as(String.class).orElseThrow());
+        String key = String.join(":",
+            namespaceFileIdentity(runContext, rModelPath),
+            namespaceFileIdentity(runContext, rTokenizerPath),
+            String.valueOf(rMaxInputLength)
+        );
+
+        // the model may be evicted and closed concurrently, so it's only used if it can be retained
+        OnnxCrossEncoder scoringModel = MODEL_CACHE.get(key);
+        if (scoringModel == null || !scoringModel.retain()) {
+            scoringModel = load(runContext, rModelPath, rTokenizerPath, rMaxInputLength);
+            // concurrent tasks may both load the model on a miss, the last one is cached and the other one is closed by its task
+            scoringModel.retain();
+            MODEL_CACHE.put(key, scoringModel);
+        }
+        synchronized (retainedModels) {
+            retainedModels.add(scoringModel);
+        }
+
+        return new RerankingContentAggregator(
+            candidates,
+            scoringModel,
+            runContext.render(maxResults).as(Integer.class).orElseThrow(),
+            runContext.render(minScore).as(Double.class).orElseThrow()
+        );
+    }
+
+    /**
+     * Releases the models retained by the task, it's called once the task doesn't rerank anymore, even if it failed.
+     */
+    public void close(RunContext runContext) {
+        List<OnnxCrossEncoder> released;
+        synchronized (retainedModels) {
+            released = List.copyOf(retainedModels);
+            retainedModels.clear();
+        }
+        for (OnnxCrossEncoder model : released) {
+            try {
+                model.close();
+            } catch (RuntimeException e) {
+                runContext.logger().warn("Unable to close the reranking model", e);
+            }
+        }
+    }
+
+    private static OnnxCrossEncoder load(RunContext runContext, Path modelPath, Path tokenizerPath, int maxInputLength) throws IOException {
+        Path model = runContext.workingDir().createTempFile(".onnx");
+        Path tokenizer = runContext.workingDir().createTempFile(".json");
+        try {
+            try (InputStream inputStream = runContext.storage().namespace().getFileContent(modelPath)) {
+                Files.copy(inputStream, model, StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (InputStream inputStream = runContext.storage().namespace().getFileContent(tokenizerPath)) {
+                Files.copy(inputStream, tokenizer, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new OnnxCrossEncoder(model, tokenizer, maxInputLength);
+        } finally {
+            // the model and tokenizer are in memory once loaded
+            Files.deleteIfExists(model);
+            Files.deleteIfExists(tokenizer);
+        }
+    }
+
+    /**
+     * The identity of a namespace file of the flow namespace: its path with its modification date and size, so an updated file is loaded again.
+     */
+    private static String namespaceFileIdentity(RunContext runContext, Path path) throws IOException {
+        FileAttributes attributes = runContext.storage().namespace().getFileMetadata(path);
+        return String.join("/", String.valueOf(runContext.flowInfo().tenantId()), runContext.flowInfo().namespace(), path.toString())
+            + "@" + attributes.getLastModifiedTime() + "+" + attributes.getSize();
+    }
+}
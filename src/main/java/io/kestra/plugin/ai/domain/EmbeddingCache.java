@@ -0,0 +1,134 @@
+package io.kestra.plugin.ai.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.ai.provider.CachingEmbeddingModel;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Builder
+public class EmbeddingCache {
+    @Schema(
+        title = "The maximum number of embeddings kept in memory",
+        description = "The in-memory cache is shared by all tasks of the worker, the least recently used embeddings are evicted first. Its size is the largest `maxSize` of the tasks that ran on the worker."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> maxSize = Property.ofValue(10_000);
+
+    @Schema(
+        title = "An optional durable cache, used when an embedding is not in the in-memory cache",
+        description = """
+            `KV` stores the embeddings of each model inside 16 K/V pairs of the flow namespace: each pair is read at most once by a task, and the embeddings computed by the task are written once it's done.
+            `REDIS` stores them in a Redis server. Durable cache entries expire after the `ttl`; with `KV`, a K/V pair expires when it's not written during the `ttl`."""
+    )
+    @NotNull
+    @Builder.Default
+    private Property<DurableCache> durableCache = Property.ofValue(DurableCache.NONE);
+
+    @Schema(title = "The duration after which embeddings expire from the durable cache - defaults to 7 days")
+    @NotNull
+    @Builder.Default
+    private Property<Duration> ttl = Property.ofValue(Duration.ofDays(7));
+
+    @Schema(
+        title = "The maximum number of embeddings of each model kept in the K/V store, when `durableCache` is `KV`",
+        description = "The least recently written embeddings are evicted first."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> kvMaxSize = Property.ofValue(10_000);
+
+    @Schema(title = "The Redis host, mandatory when `durableCache` is `REDIS`")
+    private Property<String> redisHost;
+
+    @Schema(title = "The Redis port")
+    @Builder.Default
+    private Property<Integer> redisPort = Property.ofValue(6379);
+
+    @Schema(title = "The Redis ACL username, to authenticate with a username and a password")
+    private Property<String> redisUsername;
+
+    @Schema(title = "The Redis password")
+    private Property<String> redisPassword;
+
+    @Schema(title = "Whether to connect to Redis with TLS")
+    @NotNull
+    @Builder.Default
+    private Property<Boolean> redisSsl = Property.ofValue(false);
+
+    // the embedding models decorated by this cache, their durable tier is closed with the task
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    private final transient List<CachingEmbeddingModel> cachingModels = new ArrayList<>();
+
+    /**
+     * Decorates an embedding model with this cache.
+     * Embeddings are cached by {@link ModelProvider#embeddingModelIdentity(RunContext) model identity} and text hash, so different models never share embeddings.
+     */
+    public EmbeddingModel wrap(RunContext runContext, ModelProvider provider, EmbeddingModel embeddingModel) throws IllegalVariableEvaluationException {
+        var rDurableCache = runContext.render(durableCache).as(DurableCache.class).orElse(DurableCache.NONE);
+        var rModel = provider.embeddingModelIdentity(runContext);
+        CachingEmbeddingModel.DurableTier durableTier = switch (rDurableCache) {
+            case NONE -> null;
+            case KV -> new CachingEmbeddingModel.KVTier(
+                runContext.namespaceKv(runContext.flowInfo().namespace()),
+                rModel,
+                runContext.render(kvMaxSize).as(Integer.class).orElseThrow(),
+                runContext.render(ttl).as(Duration.class).orElseThrow()
+            );
+            case REDIS -> new CachingEmbeddingModel.RedisTier(
+                runContext.render(redisHost).as(String.class).orElseThrow(() -> new IllegalArgumentException("`redisHost` is mandatory when `durableCache` is `REDIS`")),
+                runContext.render(redisPort).as(Integer.class).orElse(6379),
+                runContext.render(redisUsername).as(String.class).orElse(null),
+                runContext.render(redisPassword).as(String.class).orElse(null),
+                runContext.render(redisSsl).as(Boolean.class).orElse(false),
+                runContext.render(ttl).as(Duration.class).orElseThrow()
+            );
+        };
+
+        var cachingModel = new CachingEmbeddingModel(
+            runContext,
+            embeddingModel,
+            rModel,
+            runContext.render(maxSize).as(Integer.class).orElseThrow(),
+            durableTier
+        );
+        synchronized (cachingModels) {
+            cachingModels.add(cachingModel);
+        }
+        return cachingModel;
+    }
+
+    /**
+     * Writes the embeddings buffered by the durable cache and releases it, it's called once the task doesn't embed anymore, even if it failed.
+     * A durable cache failure doesn't fail the task, as the embeddings are already computed.
+     */
+    public void close(RunContext runContext) {
+        List<CachingEmbeddingModel> closed;
+        synchronized (cachingModels) {
+            closed = List.copyOf(cachingModels);
+            cachingModels.clear();
+        }
+        for (CachingEmbeddingModel cachingModel : closed) {
+            try {
+                cachingModel.close();
+            } catch (RuntimeException e) {
+                runContext.logger().warn("Unable to write the durable embedding cache", e);
+            }
+        }
+    }
+
+    public enum DurableCache { NONE, KV, REDIS }
+}
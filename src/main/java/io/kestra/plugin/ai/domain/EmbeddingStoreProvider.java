@@ -1,5 +1,6 @@
 package io.kestra.plugin.ai.domain;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.store.embedding.EmbeddingStore;
@@ -8,6 +9,7 @@ import io.kestra.core.models.annotations.Plugin;
 import io.kestra.core.plugins.AdditionalPlugin;
 import io.kestra.core.plugins.serdes.PluginDeserializer;
 import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.experimental.SuperBuilder;
@@ -25,7 +27,34 @@ import java.util.Map;
 public abstract class EmbeddingStoreProvider extends AdditionalPlugin {
     public abstract EmbeddingStore<TextSegment> embeddingStore(RunContext runContext, int dimension, boolean drop) throws IOException, IllegalVariableEvaluationException;
 
+    /**
+     * Makes the embeddings added so far durable, it's called before recording an ingestion checkpoint.
+     * Only stores that persist their embeddings when computing their outputs need to implement it.
+     */
+    public void flush(RunContext runContext) throws IOException, IllegalVariableEvaluationException {
+    }
+
     public Map<String, Object> outputs(RunContext runContext) throws IOException, IllegalVariableEvaluationException {
         return null;
     }
+
+    /**
+     * Identifies the store the embeddings are saved in, like its collection, so tasks using the same store share their cached search results
+     * and invalidate them when they change it, whatever their other properties like credentials or index parameters.
+     * By default, it's all the rendered properties of the provider.
+     */
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        try {
+            return runContext.render(JacksonMapper.ofJson().writeValueAsString(this));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to serialize " + getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Releases the resources of the embedding store, it's called once the task doesn't use the store anymore, even if it failed.
+     * Only stores keeping resources like open files need to implement it.
+     */
+    public void close(RunContext runContext) throws IOException {
+    }
 }
@@ -33,4 +33,20 @@ public abstract class ModelProvider extends AdditionalPlugin {
     public abstract ImageModel imageModel(RunContext runContext) throws IllegalVariableEvaluationException;
 
     public abstract EmbeddingModel embeddingModel(RunContext runContext) throws IllegalVariableEvaluationException;
+
+    /**
+     * Identifies the embedding model, so the embedding cache only shares embeddings between the tasks using the same model.
+     * By default, it's the provider type and the model name; providers override it with what else selects the model, like the endpoint serving it.
+     */
+    public String embeddingModelIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return getClass().getName() + '\u0000' + runContext.render(modelName).as(String.class).orElse("");
+    }
+
+    /**
+     * Creates the embedding model, decorated with the given embedding cache if not null.
+     */
+    public EmbeddingModel embeddingModel(RunContext runContext, EmbeddingCache embeddingCache) throws IllegalVariableEvaluationException {
+        EmbeddingModel embeddingModel = embeddingModel(runContext);
+        return embeddingCache == null ? embeddingModel : embeddingCache.wrap(runContext, this, embeddingModel);
+    }
 }
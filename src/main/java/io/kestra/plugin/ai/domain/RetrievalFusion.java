@@ -0,0 +1,38 @@
+package io.kestra.plugin.ai.domain;
+
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.ai.rag.internal.ReciprocalRankFusionAggregator;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.Builder;
+import lombok.Getter;
+
+@Getter
+@Builder
+public class RetrievalFusion {
+    @Schema(
+        title = "The reciprocal rank fusion constant",
+        description = "Each content scores `1 / (k + rank)` in the results of each content retriever. Higher values favour the contents found by several retrievers over the first results of a single one."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> k = Property.ofValue(60);
+
+    @Schema(title = "The maximum number of contents kept after the fusion")
+    @NotNull
+    @Builder.Default
+    private Property<Integer> maxResults = Property.ofValue(5);
+
+    /**
+     * Creates the aggregator merging the contents of all the content retrievers with reciprocal rank fusion.
+     */
+    public ContentAggregator contentAggregator(RunContext runContext) throws IllegalVariableEvaluationException {
+        return new ReciprocalRankFusionAggregator(
+            runContext.render(k).as(Integer.class).orElseThrow(),
+            runContext.render(maxResults).as(Integer.class).orElseThrow()
+        );
+    }
+}
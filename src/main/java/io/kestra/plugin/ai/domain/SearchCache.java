@@ -0,0 +1,44 @@
+package io.kestra.plugin.ai.domain;
+
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.ai.rag.internal.SearchResultCache;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+@Builder
+public class SearchCache {
+    @Schema(
+        title = "The maximum number of search results kept in memory",
+        description = "The in-memory cache is shared by all tasks of the worker, the least recently used results are evicted first. Its size is the largest `maxSize` of the tasks that ran on the worker."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> maxSize = Property.ofValue(1_000);
+
+    @Schema(
+        title = "The duration after which search results expire - defaults to 1 hour",
+        description = "Results are invalidated when `IngestDocument` changes the store on the same worker; on other workers, they're only refreshed once expired."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Duration> ttl = Property.ofValue(Duration.ofHours(1));
+
+    /**
+     * Creates the cache of the search results of an embedding store.
+     */
+    public SearchResultCache searchResultCache(RunContext runContext, EmbeddingStoreProvider embeddings) throws IllegalVariableEvaluationException {
+        return new SearchResultCache(
+            runContext,
+            SearchResultCache.storeKey(runContext, embeddings),
+            runContext.render(maxSize).as(Integer.class).orElseThrow(),
+            runContext.render(ttl).as(Duration.class).orElseThrow()
+        );
+    }
+}
@@ -78,4 +78,12 @@ public class Chroma extends EmbeddingStoreProvider {
 
         return store;
     }
+
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            runContext.render(baseUrl).as(String.class).orElseThrow(),
+            runContext.render(collectionName).as(String.class).orElseThrow()
+        );
+    }
 }
@@ -106,6 +106,14 @@ public class Elasticsearch extends EmbeddingStoreProvider {
             .build();
     }
 
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            String.valueOf(runContext.render(connection.getHosts())),
+            runContext.render(indexName).as(String.class).orElseThrow()
+        );
+    }
+
     @Override
     public Map<String, Object> outputs(RunContext runContext) throws IOException {
         if (restClient != null) {
@@ -4,24 +4,41 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.exceptions.ResourceExpiredException;
 import io.kestra.core.models.annotations.Example;
 import io.kestra.core.models.annotations.Plugin;
+import io.kestra.core.models.annotations.PluginProperty;
+import io.kestra.core.models.executions.metrics.Counter;
 import io.kestra.core.models.property.Property;
 import io.kestra.core.runners.RunContext;
 import io.kestra.core.storages.kv.KVEntry;
+import io.kestra.core.storages.kv.KVStore;
 import io.kestra.core.storages.kv.KVValue;
 import io.kestra.core.storages.kv.KVValueAndMetadata;
 import io.kestra.plugin.ai.domain.EmbeddingStoreProvider;
+import io.kestra.plugin.ai.embeddings.internal.CopyOnWriteEmbeddingStore;
+import io.kestra.plugin.ai.embeddings.internal.HeapVectors;
+import io.kestra.plugin.ai.embeddings.internal.LocalEmbeddingStore;
+import io.kestra.plugin.ai.embeddings.internal.LocalEmbeddingStoreCodec;
+import io.kestra.plugin.ai.embeddings.internal.MappedVectors;
+import io.kestra.plugin.ai.embeddings.internal.QuantizedVectors;
+import io.kestra.plugin.ai.embeddings.internal.SegmentedKVStorage;
+import io.kestra.plugin.ai.embeddings.internal.VectorStorage;
+import io.kestra.plugin.ai.internal.LruCache;
 import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.experimental.SuperBuilder;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -31,7 +48,10 @@ import java.util.Optional;
 @NoArgsConstructor
 @JsonDeserialize
 @Schema(
-    title = "In-memory Embedding Store that stores its serialization form as a Kestra K/V pair"
+    title = "In-memory Embedding Store that stores its serialization form as a Kestra K/V pair",
+    description = """
+        The store is saved in a compact and versioned binary format: packed vectors, length-prefixed texts and typed metadata.
+        By default, the whole store is saved inside a single K/V entry each time it changes; with `segmentedStorage`, only the changes are saved, as a new segment."""
 )
 @Plugin(
     examples = {
@@ -60,40 +80,371 @@ import java.util.Optional;
     aliases = "io.kestra.plugin.langchain4j.embeddings.KestraKVStore"
 )
 public class KestraKVStore extends EmbeddingStoreProvider {
+    // decoded stores shared by all tasks of the worker, by namespace, K/V key and the parameters of their index, quantized vectors and vector storage
+    // evicted stores are closed, the tasks still using them keep their own reference
+    private static final LruCache<String, CachedStore> STORE_CACHE = new LruCache<>(8, cached -> cached.store().close());
+
+    @JsonIgnore
+    private transient CopyOnWriteEmbeddingStore embeddingStore;
+
+    // the manifest the store was loaded from, if it was saved as segments
+    @JsonIgnore
+    private transient SegmentedKVStorage.Manifest manifest;
+
+    // the number of the first segments of the manifest that were not written by this task, the next ones are merged by the last save of the task
     @JsonIgnore
-    private transient InMemoryEmbeddingStore<TextSegment> embeddingStore;
+    private transient int baseSegments;
+
+    @JsonIgnore
+    private transient String cacheKey;
 
     @Schema(title = "The name of the K/V entry to use")
     @Builder.Default
     private Property<String> kvName = Property.ofExpression("{{flow.id}}-embedding-store");
 
+    @Schema(
+        title = "The encoding of the embedding vectors inside the K/V entry",
+        description = """
+            The store is saved in a compact binary format. `FLOAT32` keeps the vectors as computed by the embedding model, `FLOAT16` halves their size with a small loss of precision.
+            Stores saved in the previous JSON format are migrated to the binary format the first time they are loaded."""
+    )
+    @Builder.Default
+    private Property<LocalEmbeddingStoreCodec.VectorEncoding> vectorEncoding = Property.ofValue(LocalEmbeddingStoreCodec.VectorEncoding.FLOAT32);
+
+    @Schema(
+        title = "Approximate nearest neighbour index",
+        description = """
+            When set, an HNSW index is built as documents are ingested and saved with the store, so searches only compare the query with a small part of the embeddings instead of all of them.
+            Searches with a filter still compare the query with all the embeddings.
+            An index saved with the store is kept even if this property is not set.
+            It can't be used with `segmentedStorage`, as segments only contain the embeddings added or removed since the previous segment and not the index."""
+    )
+    @PluginProperty
+    private HnswConfiguration hnsw;
+
+    @Schema(
+        title = "Quantized vectors, to speed up searches",
+        description = """
+            When set, searches first scan quantized copies of the embeddings to find the best candidates, then only score these candidates with the original embeddings.
+            `INT8` quantized embeddings are 4 times smaller than the original ones and lose almost no recall; `BINARY` ones are 32 times smaller but need more candidates to be rescored.
+            Quantized embeddings are computed when the store is loaded, they're not saved with it. Searches without a filter use the `hnsw` index instead, if any."""
+    )
+    @PluginProperty
+    private Quantization quantization;
+
+    @Schema(
+        title = "Where the embeddings are kept in memory",
+        description = """
+            `HEAP` keeps them on the Java heap. `MEMORY_MAPPED` keeps them in a memory-mapped file inside the task working directory, so the heap usage and the garbage collection pauses of the worker don't grow with the store:
+            embeddings are scored in place, the operating system loads them in memory when needed.
+            Text segments, the `hnsw` index and quantized embeddings stay on the heap, quantized embeddings being 4 to 32 times smaller than the original ones."""
+    )
+    @Builder.Default
+    private Property<VectorStorageType> vectorStorage = Property.ofValue(VectorStorageType.HEAP);
+
+    @Schema(
+        title = "The maximum number of decoded embedding stores kept in memory",
+        description = """
+            Decoded stores are shared by all tasks of the worker, so tasks reading the same unchanged store, for example searches inside a `ForEach`, don't download and decode it again.
+            A cached store is only used if its K/V entry has not been updated since it was decoded, and with the same `hnsw`, `quantization` and `vectorStorage`; it's copied before being changed.
+            The least recently used stores are evicted first. The cache size is the largest `maxCachedStores` of the tasks that ran on the worker, `0` doesn't cache the store of this task."""
+    )
+    @Builder.Default
+    private Property<Integer> maxCachedStores = Property.ofValue(8);
+
+    @Schema(
+        title = "Save the store as a manifest and immutable segments instead of a single K/V entry",
+        description = """
+            Each time the store is saved, only the embeddings added or removed since it was last saved are written, as a new segment inside its own K/V entry, then the manifest listing the segments is updated.
+            It avoids rewriting a large store to add a few documents, and keeps each K/V entry small. The store is saved once the task is done, and before each ingestion checkpoint;
+            at the end of the task, if there are too many segments or removed embeddings, the segments written by the task are merged, then, if it's not enough, the store is compacted.
+            It can't be used with `hnsw`.
+            A store saved in a single K/V entry is converted the first time it's saved with this property set, and converted back if it's saved without it."""
+    )
+    @PluginProperty
+    private SegmentedStorage segmentedStorage;
+
     @Override
     public EmbeddingStore<TextSegment> embeddingStore(RunContext runContext, int dimension, boolean drop) throws IOException, IllegalVariableEvaluationException {
+        close(runContext);
+        if (hnsw != null && segmentedStorage != null) {
+            throw new IllegalArgumentException("`hnsw` can't be used with `segmentedStorage`, the index is not saved inside the segments");
+        }
+
         String key = runContext.render(kvName).as(String.class).orElseThrow();
-        Optional<KVEntry> kvEntry = runContext.namespaceKv(runContext.flowInfo().namespace()).get(key);
-        if (!drop && kvEntry.isPresent()) {
+        var rVectorStorage = runContext.render(vectorStorage).as(VectorStorageType.class).orElse(VectorStorageType.HEAP);
+        var rMaxCachedStores = runContext.render(maxCachedStores).as(Integer.class).orElse(8);
+        var rHnsw = hnsw != null ? new RenderedHnsw(
+            runContext.render(hnsw.getM()).as(Integer.class).orElseThrow(),
+            runContext.render(hnsw.getEfConstruction()).as(Integer.class).orElseThrow(),
+            runContext.render(hnsw.getEfSearch()).as(Integer.class).orElseThrow()
+        ) : null;
+        RenderedQuantization rQuantization = null;
+        if (quantization != null) {
+            var rType = runContext.render(quantization.getType()).as(QuantizedVectors.Quantization.class).orElseThrow();
+            var rRescoreDepth = runContext.render(quantization.getRescoreDepth()).as(Integer.class)
+                .orElse(rType == QuantizedVectors.Quantization.BINARY ? 10 : 4);
+            rQuantization = new RenderedQuantization(rType, rRescoreDepth);
+        }
+        // efSearch and rescoreDepth are not part of the key, they're only used by the searches and don't change the cached store
+        // the K/V store is scoped to the tenant and namespace, so both are part of the key
+        cacheKey = runContext.flowInfo().tenantId() + "/" + runContext.flowInfo().namespace() + "/" + key + "/" + rVectorStorage
+            + (rHnsw != null ? "/hnsw:" + rHnsw.m() + ":" + rHnsw.efConstruction() : "")
+            + (rQuantization != null ? "/quantization:" + rQuantization.type() : "");
+        STORE_CACHE.grow(rMaxCachedStores);
+
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+        Optional<KVEntry> kvEntry = kvStore.get(key);
+        CachedStore cached = STORE_CACHE.get(cacheKey);
+        manifest = null;
+        baseSegments = 0;
+        // the store may be evicted and closed concurrently, so it's only used if it can be retained
+        boolean cacheHit = !drop
+            && cached != null
+            && kvEntry.isPresent()
+            && Objects.equals(cached.updateDate(), kvEntry.get().updateDate())
+            && cached.store().retain();
+        if (cacheHit) {
+            runContext.logger().debug("Using the cached embedding store '{}'", key);
+            runContext.metric(Counter.of("ai.embedding.store.cache.hit.count", "Embedding store cache hit count", 1));
+            embeddingStore = CopyOnWriteEmbeddingStore.shared(cached.store());
+            manifest = cached.manifest();
+            baseSegments = manifest != null ? manifest.segments().size() : 0;
+        } else if (kvEntry.isPresent()) {
+            String value;
             try {
-                Optional<KVValue> value = runContext.namespaceKv(runContext.flowInfo().namespace()).getValue(kvEntry.get().key());
-                embeddingStore = InMemoryEmbeddingStore.fromJson(Objects.requireNonNull(value.orElseThrow().value()).toString());
+                Optional<KVValue> kvValue = kvStore.getValue(kvEntry.get().key());
+                value = Objects.requireNonNull(kvValue.orElseThrow().value()).toString();
             } catch (ResourceExpiredException ree) {
                 // Should not happen as we didn't set any expiry on the KV
                 throw new IOException(ree);
             }
+
+            if (SegmentedKVStorage.isManifest(value)) {
+                manifest = SegmentedKVStorage.readManifest(value);
+                baseSegments = manifest.segments().size();
+            }
+
+            if (drop) {
+                embeddingStore = CopyOnWriteEmbeddingStore.owned(new LocalEmbeddingStore(vectorStorage(runContext, rVectorStorage)));
+                // record the drop so the segments of the previous store are deleted when it's saved
+                embeddingStore.removeAll();
+            } else if (manifest != null) {
+                runContext.metric(Counter.of("ai.embedding.store.cache.miss.count", "Embedding store cache miss count", 1));
+                LocalEmbeddingStore loaded = load(vectorStorage(runContext, rVectorStorage), storage -> SegmentedKVStorage.load(kvStore, manifest, storage));
+                // the index and the quantized vectors are built before the store is cached, so the next tasks don't copy it to build them again
+                enableSearchStructures(loaded, rHnsw, rQuantization);
+                embeddingStore = cache(new CachedStore(kvEntry.get().updateDate(), loaded, manifest), rMaxCachedStores);
+            } else if (LocalEmbeddingStoreCodec.isLegacyJson(value)) {
+                runContext.logger().info("Migrating the embedding store '{}' from the JSON format to the binary format", key);
+                embeddingStore = CopyOnWriteEmbeddingStore.owned(LocalEmbeddingStoreCodec.decodeLegacyJson(value));
+                flush(runContext);
+            } else {
+                runContext.metric(Counter.of("ai.embedding.store.cache.miss.count", "Embedding store cache miss count", 1));
+                // the base64 value is decoded as it's read, so the decoded store is never fully copied on the heap, which matters for memory-mapped vectors
+                LocalEmbeddingStore decoded = load(vectorStorage(runContext, rVectorStorage), storage -> LocalEmbeddingStoreCodec.decode(
+                    Base64.getDecoder().wrap(new ByteArrayInputStream(value.getBytes(StandardCharsets.ISO_8859_1))),
+                    storage
+                ));
+                enableSearchStructures(decoded, rHnsw, rQuantization);
+                embeddingStore = cache(new CachedStore(kvEntry.get().updateDate(), decoded, null), rMaxCachedStores);
+            }
         } else {
-            embeddingStore = new InMemoryEmbeddingStore<>();
+            embeddingStore = CopyOnWriteEmbeddingStore.owned(new LocalEmbeddingStore(vectorStorage(runContext, rVectorStorage)));
+        }
+
+        // a no-op for a store that already has them, it only sets the search parameters of this task
+        if (rHnsw != null) {
+            embeddingStore.enableIndex(rHnsw.m(), rHnsw.efConstruction(), rHnsw.efSearch());
+        }
+        if (rQuantization != null) {
+            embeddingStore.enableQuantization(rQuantization.type(), rQuantization.rescoreDepth());
         }
 
         return embeddingStore;
     }
 
     @Override
-    public Map<String, Object> outputs(RunContext runContext) throws IOException, IllegalVariableEvaluationException {
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return runContext.render(kvName).as(String.class).orElseThrow();
+    }
+
+    @Override
+    public void flush(RunContext runContext) throws IOException, IllegalVariableEvaluationException {
+        save(runContext, false);
+    }
+
+    // only the last save merges or compacts the segments, so the saves before the ingestion checkpoints only append segments
+    private void save(RunContext runContext, boolean last) throws IOException, IllegalVariableEvaluationException {
         String key = runContext.render(kvName).as(String.class).orElseThrow();
-        String storeContent = embeddingStore.serializeToJson();
+        var rVectorEncoding = runContext.render(vectorEncoding).as(LocalEmbeddingStoreCodec.VectorEncoding.class).orElse(LocalEmbeddingStoreCodec.VectorEncoding.FLOAT32);
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+
+        if (segmentedStorage != null) {
+            SegmentedKVStorage.Saved saved = SegmentedKVStorage.save(
+                kvStore,
+                key,
+                manifest,
+                baseSegments,
+                embeddingStore,
+                runContext.render(segmentedStorage.getMaxSegmentSize()).as(Integer.class).orElseThrow(),
+                runContext.render(segmentedStorage.getMaxSegments()).as(Integer.class).orElseThrow(),
+                rVectorEncoding,
+                last
+            );
+            manifest = saved.manifest();
+            baseSegments = saved.baseSegments();
+        } else {
+            // K/V values are text, so the binary store is base64 encoded
+            String storeContent = Base64.getEncoder().encodeToString(LocalEmbeddingStoreCodec.encode(embeddingStore.current(), rVectorEncoding));
+
+            KVValueAndMetadata kvValueAndMetadata = new KVValueAndMetadata(null, storeContent);
+            kvStore.put(key, kvValueAndMetadata);
+            if (manifest != null) {
+                SegmentedKVStorage.deleteSegments(kvStore, manifest);
+                manifest = null;
+            }
+            embeddingStore.markPersisted();
+        }
+        // the cached store is now outdated, it would also be invalidated by the update date of the K/V entry but this frees the memory sooner
+        if (cacheKey != null) {
+            STORE_CACHE.remove(cacheKey);
+        }
+    }
+
+    @Override
+    public void close(RunContext runContext) {
+        if (embeddingStore != null) {
+            embeddingStore.close();
+            embeddingStore = null;
+        }
+    }
+
+    @Override
+    public Map<String, Object> outputs(RunContext runContext) throws IOException, IllegalVariableEvaluationException {
+        save(runContext, true);
+
+        return Map.of("kvName", runContext.render(kvName).as(String.class).orElseThrow());
+    }
+
+    // caches the store if enabled, the cache and the task then each hold a reference of the store
+    private CopyOnWriteEmbeddingStore cache(CachedStore cached, int maxCachedStores) {
+        if (maxCachedStores <= 0) {
+            return CopyOnWriteEmbeddingStore.owned(cached.store());
+        }
+        cached.store().retain();
+        STORE_CACHE.put(cacheKey, cached);
+        return CopyOnWriteEmbeddingStore.shared(cached.store());
+    }
+
+    // a memory-mapped storage keeps its file open, so it's closed if the store can't be loaded
+    private static LocalEmbeddingStore load(VectorStorage storage, StoreLoader loader) throws IOException {
+        try {
+            return loader.load(storage);
+        } catch (IOException | RuntimeException e) {
+            storage.close();
+            throw e;
+        }
+    }
+
+    private static void enableSearchStructures(LocalEmbeddingStore store, RenderedHnsw rHnsw, RenderedQuantization rQuantization) {
+        if (rHnsw != null) {
+            store.enableIndex(rHnsw.m(), rHnsw.efConstruction(), rHnsw.efSearch());
+        }
+        if (rQuantization != null) {
+            store.enableQuantization(rQuantization.type(), rQuantization.rescoreDepth());
+        }
+    }
+
+    private static VectorStorage vectorStorage(RunContext runContext, VectorStorageType type) throws IOException {
+        return switch (type) {
+            case HEAP -> new HeapVectors();
+            case MEMORY_MAPPED -> MappedVectors.create(runContext.workingDir().path());
+        };
+    }
+
+    public enum VectorStorageType {
+        HEAP,
+        MEMORY_MAPPED
+    }
+
+    @FunctionalInterface
+    private interface StoreLoader {
+        LocalEmbeddingStore load(VectorStorage storage) throws IOException;
+    }
+
+    private record CachedStore(Instant updateDate, LocalEmbeddingStore store, SegmentedKVStorage.Manifest manifest) {}
+
+    private record RenderedHnsw(int m, int efConstruction, int efSearch) {}
+
+    private record RenderedQuantization(QuantizedVectors.Quantization type, int rescoreDepth) {}
+
+    @Getter
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Quantization {
+        @NotNull
+        @Builder.Default
+        @Schema(title = "The quantization of the embeddings")
+        private Property<QuantizedVectors.Quantization> type = Property.ofValue(QuantizedVectors.Quantization.INT8);
+
+        @Schema(
+            title = "The number of candidates rescored with the original embeddings, for each requested result",
+            description = "Higher values give a better recall but slower searches - defaults to 4 for `INT8` and 10 for `BINARY`."
+        )
+        private Property<Integer> rescoreDepth;
+    }
+
+    @Getter
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SegmentedStorage {
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The maximum number of embeddings of a segment",
+            description = "Larger changes are split into several segments, so each K/V entry stays below the size limits of the K/V store."
+        )
+        private Property<Integer> maxSegmentSize = Property.ofValue(10_000);
+
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The maximum number of segments before the store is compacted",
+            description = "Once a task would leave more segments, the segments it wrote are merged; if it's not enough, compaction rewrites the store as new segments without the removed embeddings. Both also happen when removed embeddings would take more than a quarter of the store."
+        )
+        private Property<Integer> maxSegments = Property.ofValue(16);
+    }
+
+    @Getter
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HnswConfiguration {
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The maximum number of neighbours of each embedding in the graph",
+            description = "Higher values give a better recall, especially for high-dimensional embeddings, but use more memory and slow down ingestion."
+        )
+        private Property<Integer> m = Property.ofValue(16);
 
-        KVValueAndMetadata kvValueAndMetadata = new KVValueAndMetadata(null, storeContent);
-        runContext.namespaceKv(runContext.flowInfo().namespace()).put(key, kvValueAndMetadata);
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The number of candidate neighbours considered when adding an embedding to the graph",
+            description = "Higher values build a better graph but slow down ingestion. Changing it, or `m`, rebuilds the index."
+        )
+        private Property<Integer> efConstruction = Property.ofValue(200);
 
-        return Map.of("kvName", key);
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The number of candidate embeddings considered when searching",
+            description = "Higher values give a better recall but slower searches; it's at least the maximum number of results of the search."
+        )
+        private Property<Integer> efSearch = Property.ofValue(100);
     }
 }
@@ -0,0 +1,182 @@
+package io.kestra.plugin.ai.embeddings;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.annotations.Example;
+import io.kestra.core.models.annotations.Plugin;
+import io.kestra.core.models.annotations.PluginProperty;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.ai.domain.EmbeddingStoreProvider;
+import io.kestra.plugin.ai.embeddings.internal.LuceneEmbeddingStore;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+@Getter
+@SuperBuilder
+@NoArgsConstructor
+@JsonDeserialize
+@Schema(
+    title = "Embedded Lucene Embedding Store saved in Kestra internal storage",
+    description = """
+        The embeddings are indexed in an on-disk Lucene HNSW index inside the task working directory, so searches are approximate nearest neighbour searches and can filter on metadata, without any server to run.
+        The index is saved as a snapshot, a namespace file of the flow namespace, each time it changes; tasks restore the snapshot and memory-map the index files, so the store doesn't need to fit in the worker heap.
+        It's a good fit for corpora too large for the `KestraKVStore` but not worth a dedicated vector database. Tasks changing the same store concurrently overwrite each other's snapshot."""
+)
+@Plugin(
+    examples = {
+        @Example(
+            full = true,
+            title = "Ingest documents into a Lucene embedding store.",
+            code = """
+                id: document-ingestion
+                namespace: company.team
+
+                tasks:
+                  - id: ingest
+                    type: io.kestra.plugin.ai.rag.IngestDocument
+                    provider:
+                      type: io.kestra.plugin.ai.provider.GoogleGemini
+                      modelName: gemini-embedding-exp-03-07
+                      apiKey: "{{ secret('GEMINI_API_KEY') }}"
+                    embeddings:
+                      type: io.kestra.plugin.ai.embeddings.Lucene
+                      snapshotPath: embeddings/kestra-docs.zip
+                    fromExternalURLs:
+                      - https://raw.githubusercontent.com/kestra-io/docs/refs/heads/main/content/blogs/release-0-22.md
+                """
+        ),
+    }
+)
+public class Lucene extends EmbeddingStoreProvider {
+    @JsonIgnore
+    private transient LuceneEmbeddingStore embeddingStore;
+
+    @Schema(
+        title = "The path of the index snapshot, a namespace file of the flow namespace",
+        description = "The snapshot is a zip archive of the Lucene index files, it's replaced each time the store changes."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<String> snapshotPath = Property.ofExpression("embeddings/{{flow.id}}-embedding-store.zip");
+
+    @Schema(title = "The HNSW index parameters")
+    @PluginProperty
+    @Builder.Default
+    private HnswConfiguration hnsw = HnswConfiguration.builder().build();
+
+    @Override
+    public EmbeddingStore<TextSegment> embeddingStore(RunContext runContext, int dimension, boolean drop) throws IOException, IllegalVariableEvaluationException {
+        if (embeddingStore != null) {
+            embeddingStore.close();
+        }
+
+        var rSnapshotPath = Path.of(runContext.render(snapshotPath).as(String.class).orElseThrow());
+        var rM = runContext.render(hnsw.getM()).as(Integer.class).orElseThrow();
+        var rEfConstruction = runContext.render(hnsw.getEfConstruction()).as(Integer.class).orElseThrow();
+        var rEfSearch = runContext.render(hnsw.getEfSearch()).as(Integer.class).orElseThrow();
+        Path directory = Files.createTempDirectory(runContext.workingDir().path(), "lucene-");
+
+        if (drop) {
+            embeddingStore = new LuceneEmbeddingStore(directory, rM, rEfConstruction, rEfSearch);
+            // record the drop so the previous snapshot is replaced even if nothing is added
+            embeddingStore.removeAll();
+            return embeddingStore;
+        }
+
+        try (InputStream snapshot = runContext.storage().namespace().getFileContent(rSnapshotPath)) {
+            embeddingStore = LuceneEmbeddingStore.restore(snapshot, directory, rM, rEfConstruction, rEfSearch);
+        } catch (FileNotFoundException e) {
+            runContext.logger().debug("The embedding store snapshot '{}' doesn't exist, creating a new store", rSnapshotPath);
+            embeddingStore = new LuceneEmbeddingStore(directory, rM, rEfConstruction, rEfSearch);
+        }
+        return embeddingStore;
+    }
+
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return runContext.render(snapshotPath).as(String.class).orElseThrow();
+    }
+
+    @Override
+    public void flush(RunContext runContext) throws IOException, IllegalVariableEvaluationException {
+        if (embeddingStore == null || !embeddingStore.commit()) {
+            return;
+        }
+
+        var rSnapshotPath = Path.of(runContext.render(snapshotPath).as(String.class).orElseThrow());
+        Path snapshot = runContext.workingDir().createTempFile(".zip");
+        try (OutputStream outputStream = Files.newOutputStream(snapshot)) {
+            embeddingStore.writeSnapshot(outputStream);
+        }
+        try (InputStream inputStream = Files.newInputStream(snapshot)) {
+            runContext.storage().namespace().putFile(rSnapshotPath, inputStream);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
+
+    @Override
+    public Map<String, Object> outputs(RunContext runContext) throws IOException, IllegalVariableEvaluationException {
+        flush(runContext);
+
+        return Map.of("snapshotPath", runContext.render(snapshotPath).as(String.class).orElseThrow());
+    }
+
+    @Override
+    public void close(RunContext runContext) throws IOException {
+        if (embeddingStore != null) {
+            embeddingStore.close();
+            embeddingStore = null;
+        }
+    }
+
+    @Getter
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HnswConfiguration {
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The maximum number of neighbours of each embedding in the graph",
+            description = "Higher values give a better recall, especially for high-dimensional embeddings, but use more memory and slow down ingestion."
+        )
+        private Property<Integer> m = Property.ofValue(16);
+
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The number of candidate neighbours considered when adding an embedding to the graph",
+            description = "Higher values build a better graph but slow down ingestion; it only applies to the embeddings added with it."
+        )
+        private Property<Integer> efConstruction = Property.ofValue(100);
+
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The number of candidate embeddings considered when searching",
+            description = "Higher values give a better recall but slower searches; it's at least the maximum number of results of the search."
+        )
+        private Property<Integer> efSearch = Property.ofValue(100);
+    }
+}
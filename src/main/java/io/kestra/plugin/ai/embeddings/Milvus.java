@@ -152,4 +152,15 @@ public class Milvus extends EmbeddingStoreProvider {
 
         return store;
     }
+
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            String.valueOf(runContext.render(uri).as(String.class).orElse(null)),
+            String.valueOf(runContext.render(host).as(String.class).orElse(null)),
+            String.valueOf(runContext.render(port).as(Integer.class).orElse(null)),
+            String.valueOf(runContext.render(databaseName).as(String.class).orElse(null)),
+            String.valueOf(runContext.render(collectionName).as(String.class).orElse(null))
+        );
+    }
 }
@@ -152,6 +152,15 @@ public class MongoDBAtlas extends EmbeddingStoreProvider {
         return store;
     }
 
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            runContext.render(host).as(String.class).orElseThrow(),
+            runContext.render(database).as(String.class).orElseThrow(),
+            runContext.render(collectionName).as(String.class).orElseThrow()
+        );
+    }
+
     private String buildUri(RunContext runContext) throws IllegalVariableEvaluationException {
 
         // Format: mongodb+srv://[username:password@]host[/[database][?options]]
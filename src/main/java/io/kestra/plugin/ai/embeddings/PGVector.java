@@ -101,4 +101,14 @@ public class PGVector extends EmbeddingStoreProvider {
             .useIndex(runContext.render(useIndex).as(Boolean.class).orElseThrow())
             .build();
     }
+
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            runContext.render(host).as(String.class).orElseThrow(),
+            String.valueOf(runContext.render(port).as(Integer.class).orElseThrow()),
+            runContext.render(database).as(String.class).orElseThrow(),
+            runContext.render(table).as(String.class).orElseThrow()
+        );
+    }
 }
@@ -95,4 +95,12 @@ public class Pinecone extends EmbeddingStoreProvider {
 
         return store;
     }
+
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            runContext.render(index).as(String.class).orElseThrow(),
+            runContext.render(namespace).as(String.class).orElse("default")
+        );
+    }
 }
@@ -99,4 +99,13 @@ public class Qdrant extends EmbeddingStoreProvider {
 
         return store;
     }
+
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            runContext.render(host).as(String.class).orElseThrow(),
+            String.valueOf(runContext.render(port).as(Integer.class).orElseThrow()),
+            runContext.render(collectionName).as(String.class).orElseThrow()
+        );
+    }
 }
@@ -94,4 +94,13 @@ public class Redis extends EmbeddingStoreProvider {
 
         return store;
     }
+
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            runContext.render(host).as(String.class).orElseThrow(),
+            String.valueOf(runContext.render(port).as(Integer.class).orElseThrow()),
+            runContext.render(indexName).as(String.class).orElse("embedding-index")
+        );
+    }
 }
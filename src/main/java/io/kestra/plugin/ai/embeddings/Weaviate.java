@@ -152,6 +152,15 @@ public class Weaviate extends EmbeddingStoreProvider {
         return store;
     }
 
+    @Override
+    public String storeIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            runContext.render(host).as(String.class).orElseThrow(),
+            String.valueOf(runContext.render(port).as(Integer.class).orElseThrow()),
+            runContext.render(objectClass).as(String.class).orElseThrow()
+        );
+    }
+
     enum ConsistencyLevel {
         ONE,
         QUORUM,
@@ -0,0 +1,222 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An embedding store that can wrap a {@link LocalEmbeddingStore} shared with other tasks.
+ * <p>
+ * Searches use the shared store directly; the first change copies it, so the shared store is never modified and concurrent readers are not affected.
+ * <p>
+ * Changes are tracked until {@link #markPersisted()} is called, so they can be saved without rewriting the whole store.
+ * Changes saved without rewriting the whole store, see {@link #markAppended()}, are still tracked as {@link #unmergedChanges()} until the store is rewritten,
+ * so the segments they were appended to can be merged.
+ * <p>
+ * The wrapper holds a reference of the wrapped store, closing it closes the wrapped store and its copy, if any.
+ */
+public class CopyOnWriteEmbeddingStore implements EmbeddingStore<TextSegment>, Closeable {
+    private final LocalEmbeddingStore wrapped;
+    private volatile LocalEmbeddingStore store;
+    private boolean owned;
+
+    private final Set<String> added = new LinkedHashSet<>();
+    private final Set<String> removed = new LinkedHashSet<>();
+    private boolean cleared;
+
+    // the changes since the store was loaded or last rewritten as a whole
+    private final Set<String> unmergedAdded = new LinkedHashSet<>();
+    private final Set<String> unmergedRemoved = new LinkedHashSet<>();
+
+    private volatile LocalEmbeddingStore.SearchParameters searchParameters = LocalEmbeddingStore.SearchParameters.DEFAULT;
+
+    private CopyOnWriteEmbeddingStore(LocalEmbeddingStore store, boolean owned) {
+        this.wrapped = store;
+        this.store = store;
+        this.owned = owned;
+    }
+
+    /**
+     * Wraps a store that may be used by other tasks, it's copied before being changed.
+     * The store must have been {@link LocalEmbeddingStore#retain() retained} for this wrapper.
+     */
+    public static CopyOnWriteEmbeddingStore shared(LocalEmbeddingStore store) {
+        return new CopyOnWriteEmbeddingStore(store, false);
+    }
+
+    /**
+     * Wraps a store used only by this task, it's changed in place.
+     */
+    public static CopyOnWriteEmbeddingStore owned(LocalEmbeddingStore store) {
+        return new CopyOnWriteEmbeddingStore(store, true);
+    }
+
+    /**
+     * The current store, the shared one until the first change.
+     */
+    public LocalEmbeddingStore current() {
+        return store;
+    }
+
+    public synchronized boolean isShared() {
+        return !owned;
+    }
+
+    /**
+     * The changes since the store was loaded or last persisted.
+     */
+    public synchronized Changes changes() {
+        return new Changes(cleared, List.copyOf(added), List.copyOf(removed));
+    }
+
+    /**
+     * The changes since the store was loaded or last rewritten as a whole, including the ones already appended.
+     */
+    public synchronized Changes unmergedChanges() {
+        return new Changes(cleared, List.copyOf(unmergedAdded), List.copyOf(unmergedRemoved));
+    }
+
+    /**
+     * Tells that the whole store was saved.
+     */
+    public synchronized void markPersisted() {
+        markAppended();
+        unmergedAdded.clear();
+        unmergedRemoved.clear();
+    }
+
+    /**
+     * Tells that the changes were saved after the previously saved ones, without rewriting the whole store.
+     */
+    public synchronized void markAppended() {
+        added.clear();
+        removed.clear();
+        cleared = false;
+    }
+
+    /**
+     * Enables the HNSW index of the store, the store is copied first if it's shared and doesn't have an index with the same graph parameters.
+     * <code>efSearch</code> is used by the searches of this store only.
+     */
+    public void enableIndex(int m, int efConstruction, int efSearch) {
+        if (!store.hasIndex(m, efConstruction)) {
+            writable().enableIndex(m, efConstruction, efSearch);
+        }
+        searchParameters = new LocalEmbeddingStore.SearchParameters(efSearch, searchParameters.rescoreDepth());
+    }
+
+    /**
+     * Enables the quantized vectors of the store, the store is copied first if it's shared and doesn't have quantized vectors with the same quantization.
+     * <code>rescoreDepth</code> is used by the searches of this store only.
+     */
+    public void enableQuantization(QuantizedVectors.Quantization quantization, int rescoreDepth) {
+        if (!store.hasQuantization(quantization)) {
+            writable().enableQuantization(quantization, rescoreDepth);
+        }
+        searchParameters = new LocalEmbeddingStore.SearchParameters(searchParameters.efSearch(), rescoreDepth);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return add(embedding, null);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        return addAll(List.of(embedding), textSegment != null ? List.of(textSegment) : null).getFirst();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public synchronized List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+        List<String> ids = writable().addAll(embeddings, textSegments);
+        added.addAll(ids);
+        unmergedAdded.addAll(ids);
+        return ids;
+    }
+
+    @Override
+    public synchronized void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> textSegments) {
+        writable().addAll(ids, embeddings, textSegments);
+        added.addAll(ids);
+        unmergedAdded.addAll(ids);
+    }
+
+    @Override
+    public synchronized void removeAll(Collection<String> ids) {
+        writable().removeAll(ids);
+        // removals are replayed before additions, so an identifier removed then added again is still recorded as added
+        added.removeAll(ids);
+        removed.addAll(ids);
+        unmergedAdded.removeAll(ids);
+        unmergedRemoved.addAll(ids);
+    }
+
+    @Override
+    public synchronized void removeAll(Filter filter) {
+        List<String> ids = store.entries().stream()
+            .filter(entry -> entry.segment() != null && filter.test(entry.segment().metadata()))
+            .map(LocalEmbeddingStore.Entry::id)
+            .toList();
+        removeAll(ids);
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        writable().removeAll();
+        added.clear();
+        removed.clear();
+        unmergedAdded.clear();
+        unmergedRemoved.clear();
+        cleared = true;
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        return store.search(request, searchParameters);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (store != wrapped) {
+            store.close();
+        }
+        wrapped.close();
+    }
+
+    /**
+     * Changes of the store: whether all its entries were removed, the identifiers of the added or replaced entries and of the removed entries.
+     * Removals must be applied before additions.
+     */
+    public record Changes(boolean cleared, List<String> added, List<String> removed) {
+        public boolean isEmpty() {
+            return !cleared && added.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private synchronized LocalEmbeddingStore writable() {
+        if (!owned) {
+            store = store.copy();
+            owned = true;
+        }
+        return store;
+    }
+}
@@ -0,0 +1,71 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the unit vectors as arrays on the Java heap, released vectors are garbage collected.
+ * <p>
+ * This class is not thread-safe, it's guarded by the lock of its store.
+ */
+public class HeapVectors implements VectorStorage {
+    private final List<float[]> vectors;
+    private float[] norms;
+
+    public HeapVectors() {
+        this(new ArrayList<>(), new float[16]);
+    }
+
+    private HeapVectors(List<float[]> vectors, float[] norms) {
+        this.vectors = vectors;
+        this.norms = norms;
+    }
+
+    @Override
+    public int add(float[] vector) {
+        int slot = vectors.size();
+        vectors.add(VectorMath.normalize(vector));
+        if (slot == norms.length) {
+            norms = Arrays.copyOf(norms, norms.length + (norms.length >> 1));
+        }
+        norms[slot] = VectorMath.norm(vector);
+        return slot;
+    }
+
+    @Override
+    public float[] get(int slot) {
+        return VectorMath.denormalize(vectors.get(slot), norms[slot]);
+    }
+
+    @Override
+    public float[] unitVector(int slot) {
+        return vectors.get(slot);
+    }
+
+    @Override
+    public float dot(float[] query, int slot) {
+        return VectorMath.dot(query, vectors.get(slot));
+    }
+
+    @Override
+    public void release(int slot) {
+        vectors.set(slot, null);
+    }
+
+    @Override
+    public boolean keepsReleasedSlots() {
+        return false;
+    }
+
+    @Override
+    public VectorStorage copy() {
+        // vectors are never modified, so both storages can share them
+        return new HeapVectors(new ArrayList<>(vectors), norms.clone());
+    }
+
+    @Override
+    public void close() {
+        // the vectors are garbage collected with the storage
+    }
+}
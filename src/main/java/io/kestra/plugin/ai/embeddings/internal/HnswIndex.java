@@ -0,0 +1,327 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A Hierarchical Navigable Small World (HNSW) graph for approximate nearest neighbour search with the cosine similarity.
+ * <p>
+ * Each node of the graph is the vector of a slot of a {@link VectorStorage}, nodes are identified by their insertion order. Nodes are connected to at most <code>m</code> neighbours on the upper layers
+ * and <code>2 * m</code> on the bottom layer; <code>efConstruction</code> is the number of candidates considered when connecting a new node,
+ * and <code>efSearch</code> the number of candidates considered when searching: higher values give a better recall but are slower.
+ * <code>efSearch</code> is only a default, each search can use its own.
+ * <p>
+ * Vectors are not copied: similarities are dot products with the unit vectors of the storage, so the index only adds its links to the memory usage
+ * and memory-mapped vectors stay off the heap.
+ * Removed nodes are only marked as deleted: they are still used to navigate the graph but never returned, so the slots of their vectors must stay readable.
+ * <p>
+ * This class is not thread-safe, concurrent searches are safe as long as no node is added or deleted.
+ */
+public class HnswIndex {
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final VectorStorage vectors;
+
+    // the slot of the vector of each node
+    private int[] slots = new int[16];
+    // for each node, its neighbours on each of its layers
+    private final List<int[][]> neighbors = new ArrayList<>();
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    private final int efSearch;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int m, int efConstruction, int efSearch, VectorStorage vectors) {
+        if (m < 2) {
+            throw new IllegalArgumentException("M must be at least 2");
+        }
+        if (efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("efConstruction and efSearch must be at least 1");
+        }
+
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.vectors = vectors;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * The number of nodes, including the deleted ones.
+     */
+    public int size() {
+        return neighbors.size();
+    }
+
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * The slot of the vector of a node.
+     */
+    public int slot(int node) {
+        return slots[node];
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    /**
+     * Adds the vector of a slot of the storage and returns its node.
+     */
+    public int add(int slot) {
+        float[] vector = vectors.unitVector(slot);
+        int node = neighbors.size();
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        int[][] links = new int[level + 1][];
+        Arrays.fill(links, new int[0]);
+        if (node == slots.length) {
+            slots = Arrays.copyOf(slots, slots.length + (slots.length >> 1));
+        }
+        slots[node] = slot;
+        neighbors.add(links);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = searchLayer(vector, current, 1, layer).getFirst().node();
+        }
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            List<Candidate> candidates = searchLayer(vector, current, efConstruction, layer);
+            int[] selected = selectNeighbors(candidates, m);
+            links[layer] = selected;
+            for (int neighbor : selected) {
+                link(neighbor, node, layer);
+            }
+            current = candidates.getFirst().node();
+        }
+
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+        return node;
+    }
+
+    public void delete(int node) {
+        if (!deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    /**
+     * Returns the nodes of the <code>k</code> nearest vectors of the query, by decreasing similarity.
+     */
+    public List<Candidate> search(float[] query, int k) {
+        return search(query, k, efSearch);
+    }
+
+    /**
+     * Returns the nodes of the <code>k</code> nearest vectors of the query, by decreasing similarity, considering <code>efSearch</code> candidates.
+     */
+    public List<Candidate> search(float[] query, int k, int efSearch) {
+        if (efSearch < 1) {
+            throw new IllegalArgumentException("efSearch must be at least 1");
+        }
+        if (entryPoint < 0) {
+            return List.of();
+        }
+
+        float[] unitQuery = VectorMath.normalize(query);
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > 0; layer--) {
+            current = searchLayer(unitQuery, current, 1, layer).getFirst().node();
+        }
+
+        // deleted nodes are skipped, so more candidates are needed to still find k nodes
+        int ef = Math.max(efSearch, k) + Math.min(deletedCount, k);
+        return searchLayer(unitQuery, current, ef, 0).stream()
+            .filter(candidate -> !deleted.get(candidate.node()))
+            .limit(k)
+            .toList();
+    }
+
+    private void link(int node, int neighbor, int layer) {
+        int[] links = neighbors.get(node)[layer];
+        int maxLinks = layer == 0 ? 2 * m : m;
+        int[] updated = Arrays.copyOf(links, links.length + 1);
+        updated[links.length] = neighbor;
+
+        if (updated.length > maxLinks) {
+            float[] vector = vectors.unitVector(slots[node]);
+            List<Candidate> candidates = Arrays.stream(updated)
+                .mapToObj(other -> new Candidate(other, similarity(vector, other)))
+                .sorted(Comparator.comparingDouble(Candidate::similarity).reversed())
+                .toList();
+            updated = selectNeighbors(candidates, maxLinks);
+        }
+        neighbors.get(node)[layer] = updated;
+    }
+
+    // the neighbour selection heuristic of the HNSW paper: a candidate is selected only if it's closer to the node than to the already selected neighbours,
+    // so the neighbours point to different directions and clusters stay connected; the remaining slots are filled with the closest discarded candidates
+    private int[] selectNeighbors(List<Candidate> candidates, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> discarded = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+
+            float[] vector = vectors.unitVector(slots[candidate.node()]);
+            boolean diverse = selected.stream().allMatch(other -> similarity(vector, other.node()) < candidate.similarity());
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                discarded.add(candidate);
+            }
+        }
+        for (int i = 0; i < discarded.size() && selected.size() < max; i++) {
+            selected.add(discarded.get(i));
+        }
+        return selected.stream().mapToInt(Candidate::node).toArray();
+    }
+
+    // returns the ef closest nodes found from the entry point on the layer, by decreasing similarity
+    private List<Candidate> searchLayer(float[] query, int entry, int ef, int layer) {
+        BitSet visited = new BitSet(neighbors.size());
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity).reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity));
+
+        Candidate first = new Candidate(entry, similarity(query, entry));
+        visited.set(entry);
+        candidates.add(first);
+        results.add(first);
+
+        while (!candidates.isEmpty()) {
+            Candidate candidate = candidates.poll();
+            if (results.size() >= ef && candidate.similarity() < results.peek().similarity()) {
+                break;
+            }
+
+            for (int neighbor : neighbors.get(candidate.node())[layer]) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+
+                double similarity = similarity(query, neighbor);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Candidate next = new Candidate(neighbor, similarity);
+                    candidates.add(next);
+                    results.add(next);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        return sorted;
+    }
+
+    /**
+     * Returns an independent copy of the graph over the given storage, which must have the same slots.
+     * Nodes can be added to or deleted from the copy without changing this index.
+     */
+    public HnswIndex copy(VectorStorage vectors) {
+        HnswIndex copy = new HnswIndex(m, efConstruction, efSearch, vectors);
+        // neighbour lists are replaced, never modified in place, so only the per-node layer arrays need to be copied
+        copy.slots = slots.clone();
+        neighbors.forEach(links -> copy.neighbors.add(links.clone()));
+        copy.deleted.or(deleted);
+        copy.deletedCount = deletedCount;
+        copy.entryPoint = entryPoint;
+        copy.maxLevel = maxLevel;
+        return copy;
+    }
+
+    /**
+     * Writes the graph, the vectors are not written as they are stored with the embedding store.
+     */
+    public void write(DataOutputStream output) throws IOException {
+        output.writeInt(m);
+        output.writeInt(efConstruction);
+        output.writeInt(efSearch);
+        output.writeInt(entryPoint);
+        output.writeInt(maxLevel);
+        output.writeInt(neighbors.size());
+        for (int node = 0; node < neighbors.size(); node++) {
+            output.writeBoolean(deleted.get(node));
+            int[][] links = neighbors.get(node);
+            output.writeByte(links.length);
+            for (int[] layer : links) {
+                output.writeShort(layer.length);
+                for (int neighbor : layer) {
+                    output.writeInt(neighbor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a graph written by {@link #write(DataOutputStream)}, <code>slots</code> are the slots of the vectors of its nodes, in the insertion order.
+     */
+    public static HnswIndex read(DataInputStream input, VectorStorage vectors, int[] slots) throws IOException {
+        HnswIndex index = new HnswIndex(input.readInt(), input.readInt(), input.readInt(), vectors);
+        index.entryPoint = input.readInt();
+        index.maxLevel = input.readInt();
+        int size = input.readInt();
+        if (size != slots.length) {
+            throw new IOException("Invalid HNSW index, it has " + size + " nodes for " + slots.length + " vectors");
+        }
+        index.slots = Arrays.copyOf(slots, Math.max(slots.length, 16));
+
+        for (int node = 0; node < size; node++) {
+            if (input.readBoolean()) {
+                index.delete(node);
+            }
+            int[][] links = new int[input.readUnsignedByte()][];
+            for (int layer = 0; layer < links.length; layer++) {
+                links[layer] = new int[input.readUnsignedShort()];
+                for (int i = 0; i < links[layer].length; i++) {
+                    links[layer][i] = input.readInt();
+                }
+            }
+            index.neighbors.add(links);
+        }
+        return index;
+    }
+
+    // the cosine similarity of a unit vector with the vector of a node, read through the storage so it's not copied
+    private double similarity(float[] unitVector, int node) {
+        return vectors.dot(unitVector, slots[node]);
+    }
+
+    /**
+     * A node and its cosine similarity with the query.
+     */
+    public record Candidate(int node, double similarity) {}
+}
@@ -0,0 +1,570 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.*;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory embedding store that keeps its entries in insertion order so it can be serialized with {@link LocalEmbeddingStoreCodec}.
+ * <p>
+ * Searches score all the entries with the cosine similarity, like the <code>InMemoryEmbeddingStore</code>,
+ * unless an {@link HnswIndex} is enabled: searches without a filter then only score the candidates found by the index.
+ * When {@link QuantizedVectors} are enabled, other searches first scan the quantized vectors, then only score the best candidates with the original vectors.
+ * Searches with a filter first look up the entries that may match it in a {@link MetadataIndex}, then only test the filter on these entries and score the matching ones;
+ * filters the index can't narrow down, like negations, are tested on all the entries.
+ * It's safe to search concurrently while entries are added or removed.
+ * <p>
+ * Vectors are kept in a {@link VectorStorage}: on the heap by default, or in a memory-mapped file with {@link MappedVectors}; they are normalized once added, so entries are scored with a plain dot product.
+ * The index scores its nodes through the same storage; the vectors of removed entries stay in the storage while the index still has their deleted nodes,
+ * until the index is compacted once deleted nodes are a quarter of its nodes.
+ * <p>
+ * A store shared by several users is closed by the last of them: each user other than the creator calls {@link #retain()} first, then {@link #close()}.
+ */
+public class LocalEmbeddingStore implements EmbeddingStore<TextSegment>, Closeable {
+    private static final double MAX_DELETED_NODES_RATIO = 0.25;
+
+    private final Map<String, Stored> entries = new LinkedHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final VectorStorage vectors;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    // the identifiers of the index nodes, deleted nodes keep the identifier of their removed or replaced entry
+    private HnswIndex index;
+    private final Map<String, Integer> nodes = new HashMap<>();
+    private final List<String> nodeIds = new ArrayList<>();
+
+    private QuantizedVectors quantized;
+
+    private MetadataIndex metadataIndex = new MetadataIndex();
+
+    public LocalEmbeddingStore() {
+        this(new HeapVectors());
+    }
+
+    public LocalEmbeddingStore(VectorStorage vectors) {
+        this.vectors = vectors;
+    }
+
+    public VectorStorage vectorStorage() {
+        return vectors;
+    }
+
+    /**
+     * Adds a user of the store, it must close the store once done; returns false if the store is already closed.
+     */
+    public boolean retain() {
+        return references.getAndUpdate(count -> count > 0 ? count + 1 : count) > 0;
+    }
+
+    /**
+     * Removes a user of the store, the vector storage is closed with the last one.
+     */
+    @Override
+    public void close() {
+        if (references.decrementAndGet() == 0) {
+            vectors.close();
+        }
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return add(embedding, null);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        return addAll(List.of(embedding), textSegment != null ? List.of(textSegment) : null).getFirst();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+        List<String> ids = embeddings.stream().map(embedding -> UUID.randomUUID().toString()).toList();
+        addAll(ids, embeddings, textSegments);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> textSegments) {
+        if (ids.size() != embeddings.size() || (textSegments != null && textSegments.size() != embeddings.size())) {
+            throw new IllegalArgumentException("The number of identifiers, embeddings and text segments must be the same");
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                String id = ids.get(i);
+                float[] vector = embeddings.get(i).vector();
+                int slot = vectors.add(vector);
+                Stored previous = entries.put(id, new Stored(id, slot, textSegments != null ? textSegments.get(i) : null));
+                if (previous != null) {
+                    release(previous);
+                }
+                if (textSegments != null && textSegments.get(i) != null) {
+                    metadataIndex.add(id, textSegments.get(i).metadata());
+                }
+                if (index != null) {
+                    addNode(id, slot);
+                }
+                if (quantized != null) {
+                    quantized.add(id, vector);
+                }
+            }
+            compactIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            ids.forEach(id -> {
+                Stored removed = entries.remove(id);
+                if (removed != null) {
+                    release(removed);
+                }
+                deleteQuantized(id);
+            });
+            compactIndex();
+            compactQuantized();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (Stored entry : filterCandidates(filter).orElseGet(() -> List.copyOf(entries.values()))) {
+                if (entry.segment() != null && filter.test(entry.segment().metadata())) {
+                    entries.remove(entry.id());
+                    release(entry);
+                    deleteQuantized(entry.id());
+                }
+            }
+            compactIndex();
+            compactQuantized();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            releaseDeletedNodes();
+            entries.values().forEach(entry -> vectors.release(entry.slot()));
+            entries.clear();
+            metadataIndex.clear();
+            if (index != null) {
+                index = new HnswIndex(index.getM(), index.getEfConstruction(), index.getEfSearch(), vectors);
+                nodes.clear();
+                nodeIds.clear();
+            }
+            if (quantized != null) {
+                quantized = new QuantizedVectors(quantized.getQuantization(), quantized.getRescoreDepth());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        return search(request, SearchParameters.DEFAULT);
+    }
+
+    /**
+     * Searches with parameters of the index or of the quantized vectors other than the ones they were enabled with.
+     */
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request, SearchParameters parameters) {
+        float[] query = request.queryEmbedding().vector();
+        float[] unitQuery = VectorMath.normalize(query);
+        // a min-heap of the best matches, so the worst of them is evicted first
+        PriorityQueue<EmbeddingMatch<TextSegment>> best = new PriorityQueue<>(Comparator.comparingDouble(EmbeddingMatch::score));
+
+        lock.readLock().lock();
+        try {
+            // the HNSW index can't apply filters, so filtered searches score all the entries the metadata index can't rule out, to never miss a match
+            Optional<List<Stored>> filtered = request.filter() != null ? filterCandidates(request.filter()) : Optional.empty();
+            Collection<Stored> candidates;
+            if (filtered.isPresent()) {
+                candidates = filtered.get();
+            } else if (index != null && request.filter() == null) {
+                candidates = indexCandidates(query, request.maxResults(), parameters);
+            } else if (quantized != null) {
+                candidates = quantizedCandidates(query, request.maxResults(), request.filter(), parameters);
+            } else {
+                candidates = entries.values();
+            }
+            for (Stored entry : candidates) {
+                if (request.filter() != null && (entry.segment() == null || !request.filter().test(entry.segment().metadata()))) {
+                    continue;
+                }
+
+                double score = RelevanceScore.fromCosineSimilarity(vectors.dot(unitQuery, entry.slot()));
+                if (score >= request.minScore() && (best.size() < request.maxResults() || score > best.peek().score())) {
+                    best.add(new EmbeddingMatch<>(score, entry.id(), Embedding.from(vectors.get(entry.slot())), entry.segment()));
+                    if (best.size() > request.maxResults()) {
+                        best.poll();
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(best);
+        matches.sort(Comparator.comparingDouble((EmbeddingMatch<TextSegment> match) -> match.score()).reversed());
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    /**
+     * Enables an HNSW index with these parameters, it's built from the current entries if there is no index or if it has a different graph.
+     * <code>efSearch</code> is only the default of the searches, it doesn't change the graph.
+     */
+    public void enableIndex(int m, int efConstruction, int efSearch) {
+        lock.writeLock().lock();
+        try {
+            if (hasIndex(m, efConstruction)) {
+                return;
+            }
+
+            rebuildIndex(new HnswIndex(m, efConstruction, efSearch, vectors));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the store has an index built with these parameters.
+     */
+    public boolean hasIndex(int m, int efConstruction) {
+        lock.readLock().lock();
+        try {
+            return index != null && index.getM() == m && index.getEfConstruction() == efConstruction;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns an independent copy of the store, including its index.
+     */
+    public LocalEmbeddingStore copy() {
+        LocalEmbeddingStore copy = new LocalEmbeddingStore(vectors.copy());
+        lock.readLock().lock();
+        try {
+            // entries and vectors are immutable, they can be shared between both stores
+            copy.entries.putAll(entries);
+            copy.metadataIndex = metadataIndex.copy();
+            if (index != null) {
+                copy.index = index.copy(copy.vectors);
+                copy.nodes.putAll(nodes);
+                copy.nodeIds.addAll(nodeIds);
+            }
+            if (quantized != null) {
+                copy.quantized = quantized.copy();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return copy;
+    }
+
+    /**
+     * Enables the quantized vectors, they're computed from the current entries if there are none or if they have a different quantization.
+     * <code>rescoreDepth</code> is only the default of the searches.
+     */
+    public void enableQuantization(QuantizedVectors.Quantization quantization, int rescoreDepth) {
+        lock.writeLock().lock();
+        try {
+            if (hasQuantization(quantization)) {
+                return;
+            }
+
+            quantized = new QuantizedVectors(quantization, rescoreDepth);
+            entries.values().forEach(entry -> quantized.add(entry.id(), vectors.unitVector(entry.slot())));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the store has quantized vectors with this quantization.
+     */
+    public boolean hasQuantization(QuantizedVectors.Quantization quantization) {
+        lock.readLock().lock();
+        try {
+            return quantized != null && quantized.getQuantization() == quantization;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A consistent snapshot of the entries and of a copy of the index, if any, to write the store.
+     */
+    Snapshot snapshot() {
+        lock.readLock().lock();
+        try {
+            List<Entry> snapshotEntries = entriesSnapshot();
+            if (index == null) {
+                return new Snapshot(snapshotEntries, null, null, Map.of());
+            }
+
+            Map<String, Integer> positions = new HashMap<>();
+            entries.keySet().forEach(id -> positions.put(id, positions.size()));
+            int[] nodeEntries = new int[index.size()];
+            Map<Integer, float[]> deletedVectors = new HashMap<>();
+            for (int node = 0; node < nodeEntries.length; node++) {
+                if (index.isDeleted(node)) {
+                    nodeEntries[node] = -1;
+                    deletedVectors.put(node, vectors.get(index.slot(node)));
+                } else {
+                    nodeEntries[node] = positions.get(nodeIds.get(node));
+                }
+            }
+            return new Snapshot(snapshotEntries, index.copy(vectors), nodeEntries, deletedVectors);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restores an index read along the entries, see {@link #snapshot()}.
+     *
+     * @param nodeEntries for each node, the position of its entry, or -1 if the node is deleted
+     * @param deletedVectors the vectors of the deleted nodes, by node
+     * @param reader reads the graph, given the slots of the vectors of its nodes
+     */
+    void restoreIndex(int[] nodeEntries, Map<Integer, float[]> deletedVectors, IndexReader reader) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<Stored> stored = new ArrayList<>(entries.values());
+            int[] slots = new int[nodeEntries.length];
+            String[] ids = new String[nodeEntries.length];
+            int liveNodes = 0;
+            for (int node = 0; node < nodeEntries.length; node++) {
+                if (nodeEntries[node] < 0) {
+                    slots[node] = vectors.add(deletedVectors.get(node));
+                    continue;
+                }
+                if (nodeEntries[node] >= stored.size()) {
+                    throw new IOException("Invalid HNSW index, the node " + node + " references the entry " + nodeEntries[node] + " of a store of " + stored.size() + " entries");
+                }
+                slots[node] = stored.get(nodeEntries[node]).slot();
+                ids[node] = stored.get(nodeEntries[node]).id();
+                liveNodes++;
+            }
+            if (liveNodes != stored.size()) {
+                throw new IOException("Invalid HNSW index, it has " + liveNodes + " nodes for " + stored.size() + " entries");
+            }
+
+            releaseDeletedNodes();
+            index = reader.read(vectors, slots);
+            nodes.clear();
+            nodeIds.clear();
+            for (int node = 0; node < ids.length; node++) {
+                nodeIds.add(ids[node]);
+                if (ids[node] != null) {
+                    nodes.put(ids[node], node);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rebuildIndex(HnswIndex rebuilt) {
+        releaseDeletedNodes();
+        index = rebuilt;
+        nodes.clear();
+        nodeIds.clear();
+        entries.values().forEach(entry -> addNode(entry.id(), entry.slot()));
+    }
+
+    // deleted nodes slow the searches down and keep the vectors of removed entries, so the index is rebuilt once they're too many
+    private void compactIndex() {
+        if (index != null && index.deletedCount() > index.size() * MAX_DELETED_NODES_RATIO) {
+            rebuildIndex(new HnswIndex(index.getM(), index.getEfConstruction(), index.getEfSearch(), vectors));
+        }
+    }
+
+    private void releaseDeletedNodes() {
+        if (index == null) {
+            return;
+        }
+        for (int node = 0; node < index.size(); node++) {
+            if (index.isDeleted(node)) {
+                vectors.release(index.slot(node));
+            }
+        }
+    }
+
+    private void addNode(String id, int slot) {
+        int node = index.add(slot);
+        nodes.put(id, node);
+        nodeIds.add(id);
+    }
+
+    // releases the vector and the metadata of a removed or replaced entry;
+    // an indexed vector is only released when the index is compacted, as its deleted node is still used to navigate the graph
+    private void release(Stored entry) {
+        removeMetadata(entry);
+        Integer node = nodes.remove(entry.id());
+        if (node != null) {
+            index.delete(node);
+        } else {
+            vectors.release(entry.slot());
+        }
+    }
+
+    // the entries that may match the filter, copied so they can be removed while iterating
+    private Optional<List<Stored>> filterCandidates(Filter filter) {
+        return metadataIndex.candidates(filter).map(ids -> ids.stream().map(entries::get).toList());
+    }
+
+    private void removeMetadata(Stored entry) {
+        if (entry.segment() != null) {
+            metadataIndex.remove(entry.id(), entry.segment().metadata());
+        }
+    }
+
+    private void deleteQuantized(String id) {
+        if (quantized != null) {
+            quantized.delete(id);
+        }
+    }
+
+    // deleted vectors are still scanned, so they are dropped once they're as many as the live ones
+    private void compactQuantized() {
+        if (quantized != null && quantized.deletedCount() > entries.size()) {
+            quantized.compact(entries.keySet());
+        }
+    }
+
+    private List<Stored> quantizedCandidates(float[] query, int maxResults, Filter filter, SearchParameters parameters) {
+        int rescoreDepth = parameters.rescoreDepth() != null ? parameters.rescoreDepth() : quantized.getRescoreDepth();
+        return quantized.search(query, maxResults, rescoreDepth, id -> {
+                Stored entry = entries.get(id);
+                return filter == null || (entry.segment() != null && filter.test(entry.segment().metadata()));
+            }).stream()
+            .map(entries::get)
+            .toList();
+    }
+
+    private List<Stored> indexCandidates(float[] query, int maxResults, SearchParameters parameters) {
+        int efSearch = parameters.efSearch() != null ? parameters.efSearch() : index.getEfSearch();
+        return index.search(query, maxResults, efSearch).stream()
+            .map(candidate -> entries.get(nodeIds.get(candidate.node())))
+            .toList();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Optional<Entry> get(String id) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(entries.get(id)).map(this::toEntry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A snapshot of the entries, in insertion order.
+     * When the vector storage keeps released slots, vectors are only read when an entry is accessed, so the snapshot doesn't copy all of them to the heap.
+     */
+    public List<Entry> entries() {
+        lock.readLock().lock();
+        try {
+            return entriesSnapshot();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Entry> entriesSnapshot() {
+        if (!vectors.keepsReleasedSlots()) {
+            return entries.values().stream().map(this::toEntry).toList();
+        }
+
+        List<Stored> snapshot = new ArrayList<>(entries.values());
+        return new AbstractList<>() {
+            @Override
+            public Entry get(int index) {
+                return toEntry(snapshot.get(index));
+            }
+
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+        };
+    }
+
+    private Entry toEntry(Stored stored) {
+        return new Entry(stored.id(), vectors.get(stored.slot()), stored.segment());
+    }
+
+    static double cosineSimilarity(float[] first, float[] second) {
+        return VectorMath.dot(VectorMath.normalize(first), VectorMath.normalize(second));
+    }
+
+    /**
+     * An entry of the store, the segment may be null if only an embedding was added.
+     */
+    public record Entry(String id, float[] vector, TextSegment segment) {}
+
+    /**
+     * The parameters of a search, null to use the ones the index or the quantized vectors were enabled with.
+     */
+    public record SearchParameters(Integer efSearch, Integer rescoreDepth) {
+        public static final SearchParameters DEFAULT = new SearchParameters(null, null);
+    }
+
+    /**
+     * The entries of the store and a copy of its index, if any.
+     *
+     * @param nodeEntries for each node of the index, the position of its entry, or -1 if the node is deleted
+     * @param deletedVectors the vectors of the deleted nodes, by node, still needed to navigate the graph
+     */
+    record Snapshot(List<Entry> entries, HnswIndex index, int[] nodeEntries, Map<Integer, float[]> deletedVectors) {}
+
+    @FunctionalInterface
+    interface IndexReader {
+        HnswIndex read(VectorStorage vectors, int[] slots) throws IOException;
+    }
+
+    // an entry with the slot of its vector inside the vector storage
+    private record Stored(String id, int slot, TextSegment segment) {}
+}
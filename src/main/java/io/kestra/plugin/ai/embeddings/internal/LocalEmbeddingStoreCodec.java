@@ -0,0 +1,308 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import io.kestra.core.serializers.JacksonMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A compact and versioned binary format for the {@link LocalEmbeddingStore}.
+ * <p>
+ * The format is: the magic bytes <code>KVES</code>, the format version, the vector encoding (float32 or float16), the dimension, the number of entries,
+ * then for each entry its identifier, its vector, its optional text and its typed metadata. Strings are UTF-8 encoded and prefixed by their length.
+ * Since version 2, the entries are followed by the optional {@link HnswIndex} graph of the store, so it's not rebuilt each time the store is read.
+ * Since version 3, the graph may have deleted nodes, so it's not rebuilt each time the store is written either:
+ * the graph is preceded by the position of the entry of each node, and by the vectors of the deleted nodes as they're still used to navigate the graph.
+ * It is written and read sequentially, in a single pass.
+ * <p>
+ * The legacy JSON format of the <code>InMemoryEmbeddingStore</code> can also be read, to migrate existing stores.
+ */
+public final class LocalEmbeddingStoreCodec {
+    private static final byte[] MAGIC = {'K', 'V', 'E', 'S'};
+    private static final byte VERSION = 3;
+
+    private static final byte NO_TEXT = 0;
+    private static final byte TEXT = 1;
+
+    private static final byte STRING = 0;
+    private static final byte UUID_TYPE = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte FLOAT = 4;
+    private static final byte DOUBLE = 5;
+
+    // entries are added to the store by batches, so a large store is never fully decoded on the heap
+    private static final int BATCH_SIZE = 1024;
+
+    private LocalEmbeddingStoreCodec() {
+        // utility class pattern
+    }
+
+    public enum VectorEncoding {
+        FLOAT32,
+        FLOAT16
+    }
+
+    public static void encode(LocalEmbeddingStore store, VectorEncoding vectorEncoding, OutputStream outputStream) throws IOException {
+        // the entries and the index must be consistent, so the nodes reference the right entries
+        LocalEmbeddingStore.Snapshot snapshot = store.snapshot();
+        List<LocalEmbeddingStore.Entry> entries = snapshot.entries();
+        int dimension = !entries.isEmpty() ? entries.getFirst().vector().length
+            : !snapshot.deletedVectors().isEmpty() ? snapshot.deletedVectors().values().iterator().next().length
+            : 0;
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        output.write(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(vectorEncoding.ordinal());
+        output.writeInt(dimension);
+        output.writeInt(entries.size());
+
+        for (LocalEmbeddingStore.Entry entry : entries) {
+            if (entry.vector().length != dimension) {
+                throw new IllegalArgumentException("All the embeddings of the store must have the same dimension, found " + entry.vector().length + " instead of " + dimension);
+            }
+
+            writeString(output, entry.id());
+            writeVector(output, entry.vector(), vectorEncoding);
+
+            if (entry.segment() == null) {
+                output.writeByte(NO_TEXT);
+            } else {
+                output.writeByte(TEXT);
+                writeString(output, entry.segment().text());
+                writeMetadata(output, entry.segment().metadata());
+            }
+        }
+
+        output.writeBoolean(snapshot.index() != null);
+        if (snapshot.index() != null) {
+            int[] nodeEntries = snapshot.nodeEntries();
+            output.writeInt(nodeEntries.length);
+            for (int node = 0; node < nodeEntries.length; node++) {
+                output.writeInt(nodeEntries[node]);
+                if (nodeEntries[node] < 0) {
+                    writeVector(output, snapshot.deletedVectors().get(node), vectorEncoding);
+                }
+            }
+            snapshot.index().write(output);
+        }
+        output.flush();
+    }
+
+    public static byte[] encode(LocalEmbeddingStore store, VectorEncoding vectorEncoding) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encode(store, vectorEncoding, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    public static LocalEmbeddingStore decode(InputStream inputStream) throws IOException {
+        return decode(inputStream, new HeapVectors());
+    }
+
+    /**
+     * Decodes a store whose vectors are kept in the given storage.
+     */
+    public static LocalEmbeddingStore decode(InputStream inputStream, VectorStorage vectorStorage) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Invalid embedding store, it doesn't start with the expected magic bytes");
+        }
+        byte version = input.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported embedding store format version " + version + ", the maximum supported version is " + VERSION);
+        }
+        byte encoding = input.readByte();
+        if (encoding < 0 || encoding >= VectorEncoding.values().length) {
+            throw new IOException("Unsupported embedding store vector encoding " + encoding + ", the supported encodings are " + Arrays.toString(VectorEncoding.values()));
+        }
+        VectorEncoding vectorEncoding = VectorEncoding.values()[encoding];
+        int dimension = input.readInt();
+        int size = input.readInt();
+
+        LocalEmbeddingStore store = new LocalEmbeddingStore(vectorStorage);
+        List<String> ids = new ArrayList<>(BATCH_SIZE);
+        List<Embedding> embeddings = new ArrayList<>(BATCH_SIZE);
+        List<TextSegment> segments = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < size; i++) {
+            ids.add(readString(input));
+
+            embeddings.add(Embedding.from(readVector(input, dimension, vectorEncoding)));
+
+            segments.add(input.readByte() == TEXT ? TextSegment.from(readString(input), readMetadata(input)) : null);
+
+            if (ids.size() == BATCH_SIZE || i == size - 1) {
+                store.addAll(ids, embeddings, segments);
+                ids.clear();
+                embeddings.clear();
+                segments.clear();
+            }
+        }
+
+        if (version >= 2 && input.readBoolean()) {
+            int[] nodeEntries;
+            Map<Integer, float[]> deletedVectors = new HashMap<>();
+            if (version >= 3) {
+                nodeEntries = new int[input.readInt()];
+                for (int node = 0; node < nodeEntries.length; node++) {
+                    nodeEntries[node] = input.readInt();
+                    if (nodeEntries[node] < 0) {
+                        deletedVectors.put(node, readVector(input, dimension, vectorEncoding));
+                    }
+                }
+            } else {
+                // before version 3, the graph was rebuilt before being written, so its nodes are the entries in order
+                nodeEntries = new int[size];
+                Arrays.setAll(nodeEntries, node -> node);
+            }
+            store.restoreIndex(nodeEntries, deletedVectors, (vectors, slots) -> HnswIndex.read(input, vectors, slots));
+        }
+        return store;
+    }
+
+    public static LocalEmbeddingStore decode(byte[] bytes) throws IOException {
+        return decode(new ByteArrayInputStream(bytes));
+    }
+
+    public static LocalEmbeddingStore decode(byte[] bytes, VectorStorage vectorStorage) throws IOException {
+        return decode(new ByteArrayInputStream(bytes), vectorStorage);
+    }
+
+    /**
+     * Whether the value is in the legacy JSON format of the <code>InMemoryEmbeddingStore</code>.
+     */
+    public static boolean isLegacyJson(String value) {
+        return value.stripLeading().startsWith("{");
+    }
+
+    /**
+     * Reads a store serialized by the <code>InMemoryEmbeddingStore</code>, as JSON, to migrate it.
+     */
+    public static LocalEmbeddingStore decodeLegacyJson(String json) throws IOException {
+        LocalEmbeddingStore store = new LocalEmbeddingStore();
+        for (JsonNode entry : JacksonMapper.ofJson().readTree(json).path("entries")) {
+            String id = entry.path("id").asText();
+            JsonNode vectorNode = entry.path("embedding").path("vector");
+            float[] vector = new float[vectorNode.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = (float) vectorNode.get(i).asDouble();
+            }
+
+            JsonNode embedded = entry.path("embedded");
+            if (embedded.isMissingNode() || embedded.isNull()) {
+                store.add(id, Embedding.from(vector));
+                continue;
+            }
+
+            // the metadata map may be wrapped inside a metadata field depending on the langchain4j version
+            JsonNode metadataNode = embedded.path("metadata").has("metadata") ? embedded.path("metadata").path("metadata") : embedded.path("metadata");
+            Map<String, Object> metadata = new HashMap<>();
+            metadataNode.fields().forEachRemaining(field -> {
+                JsonNode value = field.getValue();
+                if (value.isInt()) {
+                    metadata.put(field.getKey(), value.intValue());
+                } else if (value.isIntegralNumber()) {
+                    metadata.put(field.getKey(), value.longValue());
+                } else if (value.isNumber()) {
+                    metadata.put(field.getKey(), value.doubleValue());
+                } else if (!value.isNull()) {
+                    metadata.put(field.getKey(), value.asText());
+                }
+            });
+            store.addAll(List.of(id), List.of(Embedding.from(vector)), List.of(TextSegment.from(embedded.path("text").asText(), Metadata.from(metadata))));
+        }
+        return store;
+    }
+
+    private static void writeMetadata(DataOutputStream output, Metadata metadata) throws IOException {
+        Map<String, Object> values = metadata.toMap();
+        output.writeInt(values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            writeString(output, entry.getKey());
+            switch (entry.getValue()) {
+                case UUID uuid -> {
+                    output.writeByte(UUID_TYPE);
+                    output.writeLong(uuid.getMostSignificantBits());
+                    output.writeLong(uuid.getLeastSignificantBits());
+                }
+                case Integer value -> {
+                    output.writeByte(INTEGER);
+                    output.writeInt(value);
+                }
+                case Long value -> {
+                    output.writeByte(LONG);
+                    output.writeLong(value);
+                }
+                case Float value -> {
+                    output.writeByte(FLOAT);
+                    output.writeFloat(value);
+                }
+                case Double value -> {
+                    output.writeByte(DOUBLE);
+                    output.writeDouble(value);
+                }
+                default -> {
+                    output.writeByte(STRING);
+                    writeString(output, entry.getValue().toString());
+                }
+            }
+        }
+    }
+
+    private static Metadata readMetadata(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        Map<String, Object> values = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            String key = readString(input);
+            byte type = input.readByte();
+            Object value = switch (type) {
+                case STRING -> readString(input);
+                case UUID_TYPE -> new UUID(input.readLong(), input.readLong());
+                case INTEGER -> input.readInt();
+                case LONG -> input.readLong();
+                case FLOAT -> input.readFloat();
+                case DOUBLE -> input.readDouble();
+                default -> throw new IOException("Invalid embedding store, unknown metadata type " + type);
+            };
+            values.put(key, value);
+        }
+        return Metadata.from(values);
+    }
+
+    private static void writeVector(DataOutputStream output, float[] vector, VectorEncoding vectorEncoding) throws IOException {
+        for (float value : vector) {
+            if (vectorEncoding == VectorEncoding.FLOAT16) {
+                output.writeShort(Float.floatToFloat16(value));
+            } else {
+                output.writeFloat(value);
+            }
+        }
+    }
+
+    private static float[] readVector(DataInputStream input, int dimension, VectorEncoding vectorEncoding) throws IOException {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = vectorEncoding == VectorEncoding.FLOAT16 ? Float.float16ToFloat(input.readShort()) : input.readFloat();
+        }
+        return vector;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
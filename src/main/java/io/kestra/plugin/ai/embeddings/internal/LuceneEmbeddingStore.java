@@ -0,0 +1,421 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.FilterCodec;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.KnnVectorsReader;
+import org.apache.lucene.codecs.KnnVectorsWriter;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswVectorsFormat;
+import org.apache.lucene.codecs.perfield.PerFieldKnnVectorsFormat;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * An embedding store backed by a Lucene index inside a local directory: embeddings are indexed in an HNSW graph and their metadata can be filtered on,
+ * see {@link LuceneFilters}.
+ * <p>
+ * The index files are memory-mapped, so the operating system loads them in memory when needed, and an index writer is only opened once the store is changed:
+ * a store that is only searched opens the index read-only. Searches see the changes that are not committed yet.
+ * <p>
+ * The whole index is saved as a snapshot, a zip archive of its files, and restored from it into a new directory with {@link #restore(InputStream, Path, int, int, int)}.
+ * Lucene relevance scores of cosine similarities are the same as the langchain4j ones.
+ * Texts are also indexed for full-text search, so the store can be searched by keywords with {@link #keywordSearch(String, int)}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LuceneEmbeddingStore implements EmbeddingStore<TextSegment>, Closeable {
+    private static final String ID = "id";
+    private static final String VECTOR = "vector";
+    private static final String TEXT = "text";
+    private static final String METADATA = "metadata.";
+    // Lucene limits the dimension of the vectors to 1024 by default, lower than the dimension of many embedding models
+    private static final int MAX_DIMENSIONS = 4096;
+    private static final Analyzer ANALYZER = new StandardAnalyzer();
+
+    private final Path path;
+    private final Directory directory;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+
+    private IndexWriter writer;
+    private DirectoryReader reader;
+    private boolean changed;
+
+    /**
+     * Opens the index inside the directory, or creates it on the first change if the directory is empty.
+     *
+     * @param m the maximum number of neighbours of each embedding in the HNSW graph
+     * @param efConstruction the number of candidate neighbours considered when adding an embedding to the graph
+     * @param efSearch the minimum number of candidate embeddings considered when searching
+     */
+    public LuceneEmbeddingStore(Path path, int m, int efConstruction, int efSearch) throws IOException {
+        this.path = Files.createDirectories(path);
+        this.directory = new MMapDirectory(path);
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+    }
+
+    /**
+     * Extracts a snapshot into the directory, then opens the index.
+     */
+    public static LuceneEmbeddingStore restore(InputStream snapshot, Path path, int m, int efConstruction, int efSearch) throws IOException {
+        Path directory = Files.createDirectories(path).toAbsolutePath().normalize();
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(snapshot));
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            Path file = directory.resolve(entry.getName()).normalize();
+            // index files are all at the root of the archive
+            if (entry.isDirectory() || !directory.equals(file.getParent())) {
+                throw new IOException("Invalid embedding store snapshot entry '" + entry.getName() + "'");
+            }
+            Files.copy(zip, file);
+        }
+        return new LuceneEmbeddingStore(directory, m, efConstruction, efSearch);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return add(embedding, null);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        return addAll(List.of(embedding), textSegment != null ? List.of(textSegment) : null).getFirst();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+        List<String> ids = embeddings.stream().map(embedding -> UUID.randomUUID().toString()).toList();
+        addAll(ids, embeddings, textSegments);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> textSegments) {
+        if (ids.size() != embeddings.size() || (textSegments != null && textSegments.size() != embeddings.size())) {
+            throw new IllegalArgumentException("The number of identifiers, embeddings and text segments must be the same");
+        }
+
+        change(writer -> {
+            for (int i = 0; i < ids.size(); i++) {
+                writer.updateDocument(new Term(ID, ids.get(i)), document(ids.get(i), embeddings.get(i).vector(), textSegments != null ? textSegments.get(i) : null));
+            }
+        });
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        change(writer -> writer.deleteDocuments(ids.stream().map(id -> new Term(ID, id)).toArray(Term[]::new)));
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        change(writer -> writer.deleteDocuments(LuceneFilters.toQuery(filter)));
+    }
+
+    @Override
+    public void removeAll() {
+        change(IndexWriter::deleteAll);
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        Query filter = request.filter() != null ? LuceneFilters.toQuery(request.filter()) : null;
+        Query query = new KnnFloatVectorQuery(VECTOR, request.queryEmbedding().vector(), Math.max(request.maxResults(), efSearch), filter);
+        // the score of a cosine similarity is already a relevance score
+        return new EmbeddingSearchResult<>(search(query, request.maxResults(), request.minScore()));
+    }
+
+    /**
+     * Searches the texts matching the keywords of the query, ranked by their BM25 score.
+     * Scores are not bounded, they can only be compared between the matches of the same query.
+     */
+    public List<EmbeddingMatch<TextSegment>> keywordSearch(String text, int maxResults) {
+        Query query = new QueryBuilder(ANALYZER).createBooleanQuery(TEXT, text);
+        // null when the text has no keywords
+        if (query == null) {
+            return List.of();
+        }
+        return search(query, maxResults, Double.NEGATIVE_INFINITY);
+    }
+
+    private List<EmbeddingMatch<TextSegment>> search(Query query, int maxResults, double minScore) {
+        try {
+            DirectoryReader current = acquireReader();
+            if (current == null) {
+                return List.of();
+            }
+
+            try {
+                IndexSearcher searcher = new IndexSearcher(current);
+                TopDocs topDocs = searcher.search(query, maxResults);
+
+                StoredFields storedFields = searcher.storedFields();
+                List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(topDocs.scoreDocs.length);
+                for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    // hits are sorted by decreasing score
+                    if (scoreDoc.score < minScore) {
+                        break;
+                    }
+                    Document document = storedFields.document(scoreDoc.doc);
+                    matches.add(new EmbeddingMatch<>((double) scoreDoc.score, document.get(ID), Embedding.from(vector(current, scoreDoc.doc)), segment(document)));
+                }
+                return matches;
+            } finally {
+                current.decRef();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to search the embedding store", e);
+        }
+    }
+
+    /**
+     * Commits the changes and closes the index writer, if any.
+     *
+     * @return whether the store was changed since the previous commit
+     */
+    public synchronized boolean commit() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            // a near real-time reader can't be refreshed once its writer is closed
+            releaseReader();
+        }
+        boolean wasChanged = changed;
+        changed = false;
+        return wasChanged;
+    }
+
+    /**
+     * Commits the changes, then writes the index files as a zip archive.
+     */
+    public synchronized void writeSnapshot(OutputStream outputStream) throws IOException {
+        commit();
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(outputStream));
+        // vectors don't compress well, so it's not worth spending time on it
+        zip.setLevel(Deflater.BEST_SPEED);
+        for (String file : directory.listAll()) {
+            if (file.equals(IndexWriter.WRITE_LOCK_NAME)) {
+                continue;
+            }
+            zip.putNextEntry(new ZipEntry(file));
+            Files.copy(path.resolve(file), zip);
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * Commits the changes, then closes the index.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        commit();
+        releaseReader();
+        directory.close();
+    }
+
+    private synchronized void change(IndexChange change) {
+        try {
+            if (writer == null) {
+                IndexWriterConfig config = new IndexWriterConfig(ANALYZER)
+                    .setCodec(new HnswCodec(m, efConstruction))
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+                writer = new IndexWriter(directory, config);
+            }
+            change.apply(writer);
+            changed = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to update the embedding store", e);
+        }
+    }
+
+    // returns the up-to-date reader with a reference the caller must release, or null if the index doesn't exist yet
+    private synchronized DirectoryReader acquireReader() throws IOException {
+        if (reader == null) {
+            if (writer != null) {
+                reader = DirectoryReader.open(writer);
+            } else if (DirectoryReader.indexExists(directory)) {
+                reader = DirectoryReader.open(directory);
+            } else {
+                return null;
+            }
+        } else {
+            DirectoryReader refreshed = writer != null ? DirectoryReader.openIfChanged(reader, writer) : DirectoryReader.openIfChanged(reader);
+            if (refreshed != null) {
+                // the previous reader is closed once the searches using it are done
+                reader.decRef();
+                reader = refreshed;
+            }
+        }
+        reader.incRef();
+        return reader;
+    }
+
+    private void releaseReader() throws IOException {
+        if (reader != null) {
+            reader.decRef();
+            reader = null;
+        }
+    }
+
+    private static Document document(String id, float[] vector, TextSegment segment) {
+        Document document = new Document();
+        document.add(new StringField(ID, id, Field.Store.YES));
+        document.add(new KnnFloatVectorField(VECTOR, vector, VectorSimilarityFunction.COSINE));
+        if (segment != null) {
+            document.add(new TextField(TEXT, segment.text(), Field.Store.YES));
+            segment.metadata().toMap().forEach((key, value) -> {
+                document.add(storedMetadata(key, value));
+                LuceneFilters.index(document, key, value);
+            });
+        }
+        return document;
+    }
+
+    // metadata are stored with their type, UUIDs as 16 bytes
+    private static StoredField storedMetadata(String key, Object value) {
+        return switch (value) {
+            case Integer integer -> new StoredField(METADATA + key, integer);
+            case Long longValue -> new StoredField(METADATA + key, longValue);
+            case Float floatValue -> new StoredField(METADATA + key, floatValue);
+            case Double doubleValue -> new StoredField(METADATA + key, doubleValue);
+            case UUID uuid -> new StoredField(METADATA + key, ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array());
+            default -> new StoredField(METADATA + key, value.toString());
+        };
+    }
+
+    private static TextSegment segment(Document document) {
+        String text = document.get(TEXT);
+        if (text == null) {
+            return null;
+        }
+
+        Map<String, Object> metadata = new HashMap<>();
+        for (IndexableField field : document.getFields()) {
+            if (!field.name().startsWith(METADATA)) {
+                continue;
+            }
+
+            String key = field.name().substring(METADATA.length());
+            BytesRef bytes = field.binaryValue();
+            if (field.numericValue() != null) {
+                metadata.put(key, field.numericValue());
+            } else if (bytes != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.bytes, bytes.offset, bytes.length);
+                metadata.put(key, new UUID(buffer.getLong(), buffer.getLong()));
+            } else {
+                metadata.put(key, field.stringValue());
+            }
+        }
+        return TextSegment.from(text, Metadata.from(metadata));
+    }
+
+    // vectors are not stored fields, they're read from the vector values of the segment of the document
+    private static float[] vector(DirectoryReader reader, int doc) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        int leafDoc = doc - leaf.docBase;
+        FloatVectorValues values = leaf.reader().getFloatVectorValues(VECTOR);
+        KnnVectorValues.DocIndexIterator iterator = values.iterator();
+        if (iterator.advance(leafDoc) != leafDoc) {
+            throw new IllegalStateException("The document " + doc + " has no embedding");
+        }
+        return values.vectorValue(iterator.index()).clone();
+    }
+
+    @FunctionalInterface
+    private interface IndexChange {
+        void apply(IndexWriter writer) throws IOException;
+    }
+
+    /**
+     * The default codec, with the HNSW parameters of the store and a higher maximum dimension.
+     * The maximum dimension is only checked when indexing, so the index is still read with the default codec.
+     */
+    private static final class HnswCodec extends FilterCodec {
+        private final KnnVectorsFormat knnVectorsFormat;
+
+        HnswCodec(int m, int efConstruction) {
+            super(Codec.getDefault().getName(), Codec.getDefault());
+            KnnVectorsFormat format = new HighDimensionFormat(new Lucene99HnswVectorsFormat(m, efConstruction));
+            this.knnVectorsFormat = new PerFieldKnnVectorsFormat() {
+                @Override
+                public KnnVectorsFormat getKnnVectorsFormatForField(String field) {
+                    return format;
+                }
+            };
+        }
+
+        @Override
+        public KnnVectorsFormat knnVectorsFormat() {
+            return knnVectorsFormat;
+        }
+    }
+
+    // keeps the name of the delegate so the vectors are read back by it
+    private static final class HighDimensionFormat extends KnnVectorsFormat {
+        private final KnnVectorsFormat delegate;
+
+        HighDimensionFormat(KnnVectorsFormat delegate) {
+            super(delegate.getName());
+            this.delegate = delegate;
+        }
+
+        @Override
+        public KnnVectorsWriter fieldsWriter(SegmentWriteState state) throws IOException {
+            return delegate.fieldsWriter(state);
+        }
+
+        @Override
+        public KnnVectorsReader fieldsReader(SegmentReadState state) throws IOException {
+            return delegate.fieldsReader(state);
+        }
+
+        @Override
+        public int getMaxDimensions(String fieldName) {
+            return MAX_DIMENSIONS;
+        }
+    }
+}
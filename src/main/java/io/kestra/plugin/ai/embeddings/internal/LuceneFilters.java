@@ -0,0 +1,133 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.*;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.BytesRef;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Indexes the metadata of the {@link LuceneEmbeddingStore} entries and translates the langchain4j metadata filters to Lucene queries.
+ * <p>
+ * String and UUID values are indexed as keywords in the <code>s.</code> field of their key, numbers as double points in its <code>n.</code> field,
+ * so a key can hold values of both kinds; numbers are compared as doubles.
+ * Like the langchain4j in-memory store, negative filters match the entries without the key.
+ */
+public final class LuceneFilters {
+    private LuceneFilters() {
+        // utility class pattern
+    }
+
+    static void index(Document document, String key, Object value) {
+        if (value instanceof Number number) {
+            document.add(new DoublePoint(numberField(key), number.doubleValue()));
+        } else {
+            document.add(new StringField(stringField(key), value.toString(), Field.Store.NO));
+        }
+    }
+
+    /**
+     * Translates a filter to the query of the entries it matches.
+     *
+     * @throws IllegalArgumentException if the filter is not supported
+     */
+    public static Query toQuery(Filter filter) {
+        return switch (filter) {
+            case And and -> new BooleanQuery.Builder()
+                .add(toQuery(and.left()), BooleanClause.Occur.MUST)
+                .add(toQuery(and.right()), BooleanClause.Occur.MUST)
+                .build();
+            case Or or -> new BooleanQuery.Builder()
+                .add(toQuery(or.left()), BooleanClause.Occur.SHOULD)
+                .add(toQuery(or.right()), BooleanClause.Occur.SHOULD)
+                .build();
+            case Not not -> negate(toQuery(not.expression()));
+            case IsEqualTo isEqualTo -> equalTo(isEqualTo.key(), isEqualTo.comparisonValue());
+            case IsNotEqualTo isNotEqualTo -> negate(equalTo(isNotEqualTo.key(), isNotEqualTo.comparisonValue()));
+            case IsGreaterThan isGreaterThan -> range(isGreaterThan.key(), isGreaterThan.comparisonValue(), false, null, false);
+            case IsGreaterThanOrEqualTo isGreaterThanOrEqualTo -> range(isGreaterThanOrEqualTo.key(), isGreaterThanOrEqualTo.comparisonValue(), true, null, false);
+            case IsLessThan isLessThan -> range(isLessThan.key(), null, false, isLessThan.comparisonValue(), false);
+            case IsLessThanOrEqualTo isLessThanOrEqualTo -> range(isLessThanOrEqualTo.key(), null, false, isLessThanOrEqualTo.comparisonValue(), true);
+            case IsIn isIn -> in(isIn.key(), isIn.comparisonValues());
+            case IsNotIn isNotIn -> negate(in(isNotIn.key(), isNotIn.comparisonValues()));
+            default -> throw new IllegalArgumentException("Unsupported metadata filter: " + filter.getClass().getSimpleName());
+        };
+    }
+
+    private static Query equalTo(String key, Object value) {
+        if (value instanceof Number number) {
+            return DoublePoint.newExactQuery(numberField(key), number.doubleValue());
+        }
+        return new TermQuery(new Term(stringField(key), value.toString()));
+    }
+
+    private static Query range(String key, Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        if (lower instanceof Number || upper instanceof Number) {
+            double min = Double.NEGATIVE_INFINITY;
+            if (lower != null) {
+                double value = ((Number) lower).doubleValue();
+                min = lowerInclusive ? value : Math.nextUp(value);
+            }
+            double max = Double.POSITIVE_INFINITY;
+            if (upper != null) {
+                double value = ((Number) upper).doubleValue();
+                max = upperInclusive ? value : Math.nextDown(value);
+            }
+            return DoublePoint.newRangeQuery(numberField(key), min, max);
+        }
+        return TermRangeQuery.newStringRange(
+            stringField(key),
+            lower != null ? lower.toString() : null,
+            upper != null ? upper.toString() : null,
+            lowerInclusive,
+            upperInclusive
+        );
+    }
+
+    private static Query in(String key, Collection<?> values) {
+        List<Double> numbers = new ArrayList<>();
+        List<BytesRef> strings = new ArrayList<>();
+        for (Object value : values) {
+            if (value instanceof Number number) {
+                numbers.add(number.doubleValue());
+            } else {
+                strings.add(new BytesRef(value.toString()));
+            }
+        }
+
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        if (!numbers.isEmpty()) {
+            query.add(DoublePoint.newSetQuery(numberField(key), numbers), BooleanClause.Occur.SHOULD);
+        }
+        if (!strings.isEmpty()) {
+            query.add(new TermInSetQuery(stringField(key), strings), BooleanClause.Occur.SHOULD);
+        }
+        return query.build();
+    }
+
+    private static Query negate(Query query) {
+        return new BooleanQuery.Builder()
+            .add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST)
+            .add(query, BooleanClause.Occur.MUST_NOT)
+            .build();
+    }
+
+    private static String stringField(String key) {
+        return "s." + key;
+    }
+
+    private static String numberField(String key) {
+        return "n." + key;
+    }
+}
@@ -0,0 +1,136 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the unit vectors outside the Java heap, inside a memory-mapped file, so they don't add to the heap usage nor to the garbage collection pauses.
+ * <p>
+ * Vectors are appended to the file, which is mapped by chunks of about 64MB as it grows; the operating system pages them in and out as needed.
+ * They are scored in place, from the mapped memory; only the vectors of the matches are copied to new arrays.
+ * <p>
+ * The file is append-only and slots are never reused, so copies of a store share the same file: released slots are only reclaimed when the file is discarded.
+ * The file is deleted as soon as it's opened, so it disappears once it's no more mapped, even if the worker stops abruptly.
+ * Its channel is closed once the storage and all its copies are closed; mapped chunks stay readable until they're garbage collected.
+ * Adding vectors is thread-safe.
+ */
+public class MappedVectors implements VectorStorage {
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    // the storage and its copies, the channel is closed with the last of them
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final List<FloatBuffer> chunks = new CopyOnWriteArrayList<>();
+    // norms are small, they're kept on the heap
+    private volatile float[] norms = new float[1024];
+    private volatile int dimension = -1;
+    private int vectorsPerChunk;
+    private int size;
+
+    private MappedVectors(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Creates a storage backed by a new file inside the directory.
+     */
+    public static MappedVectors create(Path directory) throws IOException {
+        Path file = Files.createTempFile(directory, "embeddings-", ".vectors");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            // some file systems don't allow deleting an open file
+            file.toFile().deleteOnExit();
+        }
+        return new MappedVectors(channel);
+    }
+
+    @Override
+    public synchronized int add(float[] vector) {
+        if (dimension < 0) {
+            vectorsPerChunk = (int) Math.max(1, CHUNK_SIZE / (vector.length * (long) Float.BYTES));
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("The vectors have different dimensions: " + vector.length + " and " + dimension);
+        }
+
+        int slot = size;
+        int chunk = slot / vectorsPerChunk;
+        if (chunk == chunks.size()) {
+            long chunkBytes = (long) vectorsPerChunk * dimension * Float.BYTES;
+            try {
+                // mapping a region after the end of the file grows it
+                chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, chunk * chunkBytes, chunkBytes).asFloatBuffer());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to map the embedding vectors file", e);
+            }
+        }
+        chunks.get(chunk).put((slot % vectorsPerChunk) * dimension, VectorMath.normalize(vector));
+        if (slot == norms.length) {
+            norms = Arrays.copyOf(norms, norms.length + (norms.length >> 1));
+        }
+        norms[slot] = VectorMath.norm(vector);
+        size++;
+        return slot;
+    }
+
+    @Override
+    public float[] get(int slot) {
+        return VectorMath.denormalize(unitVector(slot), norms[slot]);
+    }
+
+    @Override
+    public float[] unitVector(int slot) {
+        float[] vector = new float[dimension];
+        chunks.get(slot / vectorsPerChunk).get((slot % vectorsPerChunk) * dimension, vector);
+        return vector;
+    }
+
+    @Override
+    public float dot(float[] query, int slot) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("The vectors have different dimensions: " + query.length + " and " + dimension);
+        }
+
+        return VectorMath.dot(query, chunks.get(slot / vectorsPerChunk), (slot % vectorsPerChunk) * dimension);
+    }
+
+    @Override
+    public void release(int slot) {
+        // slots are never reused as they may still be used by a copy of the store
+    }
+
+    @Override
+    public boolean keepsReleasedSlots() {
+        return true;
+    }
+
+    @Override
+    public VectorStorage copy() {
+        if (references.getAndUpdate(count -> count > 0 ? count + 1 : count) <= 0) {
+            throw new IllegalStateException("The embedding vectors file is closed");
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to close the embedding vectors file", e);
+            }
+        }
+    }
+}
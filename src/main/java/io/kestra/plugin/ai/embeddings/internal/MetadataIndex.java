@@ -0,0 +1,185 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.*;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * An inverted index of the metadata of a store: for each key, the identifiers of the entries by value, sorted so ranges are read without scanning all the values.
+ * <p>
+ * String and UUID values are indexed by their string form, numbers by their decimal value so values of different number types are comparable, like in the langchain4j filters.
+ * {@link #candidates(Filter)} returns the entries that may match a filter, in time proportional to their number, so the filter is only tested on these entries.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class MetadataIndex {
+    private final Map<String, TreeMap<String, Set<String>>> strings = new HashMap<>();
+    private final Map<String, TreeMap<BigDecimal, Set<String>>> numbers = new HashMap<>();
+
+    public void add(String id, Metadata metadata) {
+        metadata.toMap().forEach((key, value) -> {
+            if (value instanceof Number number) {
+                BigDecimal decimal = decimal(number);
+                if (decimal != null) {
+                    numbers.computeIfAbsent(key, k -> new TreeMap<>()).computeIfAbsent(decimal, v -> new HashSet<>()).add(id);
+                }
+            } else {
+                strings.computeIfAbsent(key, k -> new TreeMap<>()).computeIfAbsent(value.toString(), v -> new HashSet<>()).add(id);
+            }
+        });
+    }
+
+    /**
+     * Removes an entry, <code>metadata</code> must be the metadata it was added with.
+     */
+    public void remove(String id, Metadata metadata) {
+        metadata.toMap().forEach((key, value) -> {
+            if (value instanceof Number number) {
+                remove(numbers, key, decimal(number), id);
+            } else {
+                remove(strings, key, value.toString(), id);
+            }
+        });
+    }
+
+    public void clear() {
+        strings.clear();
+        numbers.clear();
+    }
+
+    /**
+     * Returns an independent copy.
+     */
+    public MetadataIndex copy() {
+        MetadataIndex copy = new MetadataIndex();
+        strings.forEach((key, postings) -> copy.strings.put(key, copyPostings(postings)));
+        numbers.forEach((key, postings) -> copy.numbers.put(key, copyPostings(postings)));
+        return copy;
+    }
+
+    /**
+     * Returns the identifiers of the entries that may match the filter, or empty if the index can't narrow them down, for example for negations.
+     * The filter must still be tested on the returned entries.
+     */
+    public Optional<Set<String>> candidates(Filter filter) {
+        return switch (filter) {
+            case And and -> {
+                Optional<Set<String>> left = candidates(and.left());
+                Optional<Set<String>> right = candidates(and.right());
+                // a conjunction can be narrowed down by any of its sides
+                if (left.isEmpty() || right.isEmpty()) {
+                    yield left.isPresent() ? left : right;
+                }
+                yield Optional.of(intersection(left.get(), right.get()));
+            }
+            case Or or -> {
+                Optional<Set<String>> left = candidates(or.left());
+                Optional<Set<String>> right = candidates(or.right());
+                if (left.isEmpty() || right.isEmpty()) {
+                    yield Optional.empty();
+                }
+                Set<String> union = new HashSet<>(left.get());
+                union.addAll(right.get());
+                yield Optional.of(union);
+            }
+            case IsEqualTo isEqualTo -> equalTo(isEqualTo.key(), isEqualTo.comparisonValue());
+            case IsIn isIn -> {
+                Set<String> union = new HashSet<>();
+                for (Object value : isIn.comparisonValues()) {
+                    Optional<Set<String>> matching = equalTo(isIn.key(), value);
+                    if (matching.isEmpty()) {
+                        yield Optional.empty();
+                    }
+                    union.addAll(matching.get());
+                }
+                yield Optional.of(union);
+            }
+            case IsGreaterThan isGreaterThan -> range(isGreaterThan.key(), isGreaterThan.comparisonValue(), false, null, false);
+            case IsGreaterThanOrEqualTo isGreaterThanOrEqualTo -> range(isGreaterThanOrEqualTo.key(), isGreaterThanOrEqualTo.comparisonValue(), true, null, false);
+            case IsLessThan isLessThan -> range(isLessThan.key(), null, false, isLessThan.comparisonValue(), false);
+            case IsLessThanOrEqualTo isLessThanOrEqualTo -> range(isLessThanOrEqualTo.key(), null, false, isLessThanOrEqualTo.comparisonValue(), true);
+            default -> Optional.empty();
+        };
+    }
+
+    private Optional<Set<String>> equalTo(String key, Object value) {
+        if (value instanceof Number number) {
+            BigDecimal decimal = decimal(number);
+            if (decimal == null) {
+                return Optional.empty();
+            }
+            return Optional.of(numbers.getOrDefault(key, new TreeMap<>()).getOrDefault(decimal, Set.of()));
+        }
+        return Optional.of(strings.getOrDefault(key, new TreeMap<>()).getOrDefault(value.toString(), Set.of()));
+    }
+
+    private Optional<Set<String>> range(String key, Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        Object bound = lower != null ? lower : upper;
+        if (bound instanceof Number number) {
+            BigDecimal decimal = decimal(number);
+            if (decimal == null) {
+                return Optional.empty();
+            }
+            NavigableMap<BigDecimal, Set<String>> postings = numbers.getOrDefault(key, new TreeMap<>());
+            return Optional.of(union(lower != null ? postings.tailMap(decimal, lowerInclusive) : postings.headMap(decimal, upperInclusive)));
+        }
+
+        NavigableMap<String, Set<String>> postings = strings.getOrDefault(key, new TreeMap<>());
+        return Optional.of(union(lower != null ? postings.tailMap(bound.toString(), lowerInclusive) : postings.headMap(bound.toString(), upperInclusive)));
+    }
+
+    private static Set<String> union(NavigableMap<?, Set<String>> postings) {
+        if (postings.size() == 1) {
+            return postings.firstEntry().getValue();
+        }
+        Set<String> union = new HashSet<>();
+        postings.values().forEach(union::addAll);
+        return union;
+    }
+
+    private static Set<String> intersection(Set<String> first, Set<String> second) {
+        Set<String> smaller = first.size() <= second.size() ? first : second;
+        Set<String> larger = smaller == first ? second : first;
+        Set<String> intersection = new HashSet<>();
+        for (String id : smaller) {
+            if (larger.contains(id)) {
+                intersection.add(id);
+            }
+        }
+        return intersection;
+    }
+
+    private static <V> void remove(Map<String, TreeMap<V, Set<String>>> index, String key, V value, String id) {
+        TreeMap<V, Set<String>> postings = index.get(key);
+        if (postings == null || value == null) {
+            return;
+        }
+        Set<String> ids = postings.get(value);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            postings.remove(value);
+            if (postings.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static <V> TreeMap<V, Set<String>> copyPostings(TreeMap<V, Set<String>> postings) {
+        TreeMap<V, Set<String>> copy = new TreeMap<>();
+        postings.forEach((value, ids) -> copy.put(value, new HashSet<>(ids)));
+        return copy;
+    }
+
+    // null for NaN and infinite values, which are never indexed
+    private static BigDecimal decimal(Number number) {
+        try {
+            return new BigDecimal(number.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Quantized copies of the vectors of a store, scanned to quickly find the candidates of a search before scoring them with the original vectors.
+ * <p>
+ * Vectors are normalized then quantized:
+ * <ul>
+ *     <li><code>INT8</code>: each value is scaled to a byte with a per-vector scale, the query is not quantized, so the cosine similarity is estimated with a single rounding error (4x smaller than float32).</li>
+ *     <li><code>BINARY</code>: only the sign of each value is kept as a bit, candidates are ranked by Hamming distance (32x smaller than float32).
+ *     It's much less precise, so more candidates must be rescored.</li>
+ * </ul>
+ * Codes are stored in flat arrays, in insertion order. Removed vectors are only marked as deleted until {@link #compact(Set)} is called.
+ * <p>
+ * This class is not thread-safe, concurrent searches are safe as long as no vector is added or deleted.
+ */
+public class QuantizedVectors {
+    private final Quantization quantization;
+    private final int rescoreDepth;
+    private int dimension = -1;
+    private int words;
+
+    private final List<String> ids = new ArrayList<>();
+    private final Map<String, Integer> nodes = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+
+    // INT8 codes and scales
+    private byte[] bytes = new byte[0];
+    private float[] scales = new float[0];
+    // BINARY codes, words longs per vector
+    private long[] bits = new long[0];
+
+    public QuantizedVectors(Quantization quantization, int rescoreDepth) {
+        if (rescoreDepth < 1) {
+            throw new IllegalArgumentException("The rescore depth must be at least 1");
+        }
+        this.quantization = Objects.requireNonNull(quantization);
+        this.rescoreDepth = rescoreDepth;
+    }
+
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    public int getRescoreDepth() {
+        return rescoreDepth;
+    }
+
+    /**
+     * The number of vectors, including the deleted ones.
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * Adds the vector of an identifier, replacing its previous vector if any.
+     */
+    public void add(String id, float[] vector) {
+        if (dimension < 0) {
+            dimension = vector.length;
+            words = (dimension + 63) / 64;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("The vectors have different dimensions: " + vector.length + " and " + dimension);
+        }
+        delete(id);
+
+        int node = ids.size();
+        ids.add(id);
+        nodes.put(id, node);
+
+        float[] normalized = VectorMath.normalize(vector);
+        if (quantization == Quantization.INT8) {
+            ensureCapacity(node + 1);
+            float max = 0;
+            for (float value : normalized) {
+                max = Math.max(max, Math.abs(value));
+            }
+            float scale = max > 0 ? max / 127 : 1;
+            for (int i = 0; i < dimension; i++) {
+                bytes[node * dimension + i] = (byte) Math.round(normalized[i] / scale);
+            }
+            scales[node] = scale;
+        } else {
+            ensureCapacity(node + 1);
+            encodeBits(normalized, bits, node * words);
+        }
+    }
+
+    public void delete(String id) {
+        Integer node = nodes.remove(id);
+        if (node != null) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    /**
+     * Returns the identifiers of the <code>rescoreDepth * k</code> best candidates for the query, by decreasing estimated similarity.
+     *
+     * @param accept whether an identifier can be returned, to apply the filter of the search while scanning
+     */
+    public List<String> search(float[] query, int k, Predicate<String> accept) {
+        return search(query, k, rescoreDepth, accept);
+    }
+
+    /**
+     * Same as {@link #search(float[], int, Predicate)}, with another rescore depth than the default one of these vectors.
+     */
+    public List<String> search(float[] query, int k, int rescoreDepth, Predicate<String> accept) {
+        if (rescoreDepth < 1) {
+            throw new IllegalArgumentException("The rescore depth must be at least 1");
+        }
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("The vectors have different dimensions: " + query.length + " and " + dimension);
+        }
+
+        int candidates = (int) Math.min(Integer.MAX_VALUE, (long) k * rescoreDepth);
+        float[] normalized = VectorMath.normalize(query);
+        long[] queryBits = new long[words];
+        if (quantization == Quantization.BINARY) {
+            encodeBits(normalized, queryBits, 0);
+        }
+
+        // a min-heap of the best candidates, as (score, node) pairs, so the worst of them is evicted first
+        PriorityQueue<double[]> best = new PriorityQueue<>(Comparator.comparingDouble(candidate -> candidate[0]));
+        for (int node = 0; node < ids.size(); node++) {
+            if (deleted.get(node)) {
+                continue;
+            }
+
+            double score = quantization == Quantization.INT8 ? int8Similarity(normalized, node) : -hammingDistance(queryBits, node);
+            if (best.size() < candidates || score > best.peek()[0]) {
+                if (!accept.test(ids.get(node))) {
+                    continue;
+                }
+                best.add(new double[]{score, node});
+                if (best.size() > candidates) {
+                    best.poll();
+                }
+            }
+        }
+
+        List<double[]> sorted = new ArrayList<>(best);
+        sorted.sort(Comparator.comparingDouble((double[] candidate) -> candidate[0]).reversed());
+        return sorted.stream().map(candidate -> ids.get((int) candidate[1])).toList();
+    }
+
+    /**
+     * Drops the deleted vectors, <code>live</code> are the identifiers still in the store.
+     */
+    public void compact(Set<String> live) {
+        List<String> previousIds = new ArrayList<>(ids);
+        byte[] previousBytes = bytes;
+        float[] previousScales = scales;
+        long[] previousBits = bits;
+        BitSet previousDeleted = (BitSet) deleted.clone();
+
+        ids.clear();
+        nodes.clear();
+        deleted.clear();
+        deletedCount = 0;
+        bytes = new byte[0];
+        scales = new float[0];
+        bits = new long[0];
+        for (int previous = 0; previous < previousIds.size(); previous++) {
+            // a replaced vector keeps its identifier, only the last one of the identifier is not deleted
+            String id = previousIds.get(previous);
+            if (previousDeleted.get(previous) || !live.contains(id)) {
+                continue;
+            }
+
+            int node = ids.size();
+            ids.add(id);
+            nodes.put(id, node);
+            ensureCapacity(node + 1);
+            if (quantization == Quantization.INT8) {
+                System.arraycopy(previousBytes, previous * dimension, bytes, node * dimension, dimension);
+                scales[node] = previousScales[previous];
+            } else {
+                System.arraycopy(previousBits, previous * words, bits, node * words, words);
+            }
+        }
+    }
+
+    /**
+     * Returns an independent copy.
+     */
+    public QuantizedVectors copy() {
+        QuantizedVectors copy = new QuantizedVectors(quantization, rescoreDepth);
+        copy.dimension = dimension;
+        copy.words = words;
+        copy.ids.addAll(ids);
+        copy.nodes.putAll(nodes);
+        copy.deleted.or(deleted);
+        copy.deletedCount = deletedCount;
+        copy.bytes = bytes.clone();
+        copy.scales = scales.clone();
+        copy.bits = bits.clone();
+        return copy;
+    }
+
+    private double int8Similarity(float[] query, int node) {
+        int offset = node * dimension;
+        double dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * bytes[offset + i];
+        }
+        return dot * scales[node];
+    }
+
+    private int hammingDistance(long[] query, int node) {
+        int offset = node * words;
+        int distance = 0;
+        for (int i = 0; i < words; i++) {
+            distance += Long.bitCount(query[i] ^ bits[offset + i]);
+        }
+        return distance;
+    }
+
+    private void encodeBits(float[] vector, long[] target, int offset) {
+        for (int i = 0; i < words; i++) {
+            target[offset + i] = 0;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0) {
+                target[offset + i / 64] |= 1L << (i % 64);
+            }
+        }
+    }
+
+    // grow the arrays by half of their size, like an ArrayList
+    private void ensureCapacity(int vectors) {
+        if (quantization == Quantization.INT8) {
+            if (scales.length < vectors) {
+                int capacity = Math.max(vectors, scales.length + (scales.length >> 1));
+                bytes = Arrays.copyOf(bytes, capacity * dimension);
+                scales = Arrays.copyOf(scales, capacity);
+            }
+        } else if (bits.length < vectors * words) {
+            int capacity = Math.max(vectors, bits.length / Math.max(words, 1) * 3 / 2);
+            bits = Arrays.copyOf(bits, capacity * words);
+        }
+    }
+
+    public enum Quantization {
+        INT8,
+        BINARY
+    }
+}
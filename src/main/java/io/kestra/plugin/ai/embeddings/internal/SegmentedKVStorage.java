@@ -0,0 +1,282 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import io.kestra.core.exceptions.ResourceExpiredException;
+import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.core.storages.kv.KVStore;
+import io.kestra.core.storages.kv.KVValue;
+import io.kestra.core.storages.kv.KVValueAndMetadata;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Stores a {@link LocalEmbeddingStore} as a manifest and immutable segments, all inside K/V entries.
+ * <p>
+ * The manifest is a JSON document saved under the store K/V key, it lists the segments in the order they were written.
+ * Each segment is saved under its own K/V key with the {@link LocalEmbeddingStoreCodec} binary format, and records the identifiers it removes from the previous segments.
+ * Saving the store only writes a segment with the changes since it was last saved, then the manifest.
+ * Intermediate saves, like the ones made before an ingestion checkpoint, only append segments.
+ * The last save of a task checks the number of segments and of removed identifiers: if there are too many, the segments written by the task are first merged,
+ * then, if there are still too many, the store is compacted: it's rewritten as new segments and the previous ones are deleted.
+ */
+public final class SegmentedKVStorage {
+    private static final int VERSION = 1;
+
+    private SegmentedKVStorage() {
+        // utility class pattern
+    }
+
+    /**
+     * Whether the K/V value is a manifest.
+     */
+    public static boolean isManifest(String value) throws IOException {
+        if (!value.stripLeading().startsWith("{")) {
+            return false;
+        }
+        JsonNode json = JacksonMapper.ofJson().readTree(value);
+        return json.has("segments");
+    }
+
+    public static Manifest readManifest(String value) throws IOException {
+        Manifest manifest = JacksonMapper.ofJson().readValue(value, Manifest.class);
+        if (manifest.version() > VERSION) {
+            throw new IOException("Unsupported embedding store manifest version " + manifest.version() + ", the maximum supported version is " + VERSION);
+        }
+        return manifest;
+    }
+
+    /**
+     * Reads all the segments of the manifest, applying their removals then their additions in order.
+     */
+    public static LocalEmbeddingStore load(KVStore kvStore, Manifest manifest) throws IOException {
+        return load(kvStore, manifest, new HeapVectors());
+    }
+
+    /**
+     * Reads all the segments of the manifest into a store whose vectors are kept in the given storage.
+     */
+    public static LocalEmbeddingStore load(KVStore kvStore, Manifest manifest, VectorStorage vectorStorage) throws IOException {
+        LocalEmbeddingStore store = new LocalEmbeddingStore(vectorStorage);
+        for (Segment segment : manifest.segments()) {
+            store.removeAll(segment.removedIds());
+            if (segment.size() == 0) {
+                continue;
+            }
+
+            LocalEmbeddingStore entries = LocalEmbeddingStoreCodec.decode(Base64.getDecoder().decode(value(kvStore, segment.key())));
+            List<String> ids = new ArrayList<>(entries.size());
+            List<Embedding> embeddings = new ArrayList<>(entries.size());
+            List<TextSegment> textSegments = new ArrayList<>(entries.size());
+            for (LocalEmbeddingStore.Entry entry : entries.entries()) {
+                ids.add(entry.id());
+                embeddings.add(Embedding.from(entry.vector()));
+                textSegments.add(entry.segment());
+            }
+            store.addAll(ids, embeddings, textSegments);
+        }
+        return store;
+    }
+
+    /**
+     * Saves the changes of the store since it was last saved as new segments, or merges the segments written since it was loaded, or compacts it, then writes the manifest.
+     *
+     * @param previous the manifest the store was last saved with or loaded from, null if it was not stored as segments
+     * @param baseSegments the number of the first segments of the previous manifest that were not written since the store was loaded or last compacted
+     * @param last whether it's the last save of the task, only the last save merges or compacts the segments
+     * @return the new manifest, with the number of its segments not written since the store was loaded or last compacted
+     */
+    public static Saved save(
+        KVStore kvStore,
+        String key,
+        Manifest previous,
+        int baseSegments,
+        CopyOnWriteEmbeddingStore store,
+        int maxSegmentSize,
+        int maxSegments,
+        LocalEmbeddingStoreCodec.VectorEncoding vectorEncoding,
+        boolean last
+    ) throws IOException {
+        CopyOnWriteEmbeddingStore.Changes changes = store.changes();
+        LocalEmbeddingStore current = store.current();
+        if (previous == null || changes.cleared()) {
+            return compact(kvStore, key, previous, current, maxSegmentSize, vectorEncoding, store);
+        }
+
+        List<Segment> appended = previous.segments();
+        if (changes.isEmpty() && baseSegments == appended.size()) {
+            return new Saved(previous, baseSegments);
+        }
+        int newSegments = changes.isEmpty() ? 0 : segmentCount(changes.added().size(), maxSegmentSize);
+        if (!last || !mustMerge(appended.size() + newSegments, removedIds(appended) + changes.removed().size(), current.size(), maxSegments)) {
+            if (changes.isEmpty()) {
+                return new Saved(previous, baseSegments);
+            }
+
+            List<Segment> segments = new ArrayList<>(appended);
+            long nextSegment = previous.nextSegment();
+            for (Segment segment : writeSegments(kvStore, key, nextSegment, current, changes, maxSegmentSize, vectorEncoding)) {
+                segments.add(segment);
+                nextSegment++;
+            }
+            Manifest manifest = writeManifest(kvStore, key, nextSegment, segments);
+            store.markAppended();
+            return new Saved(manifest, baseSegments);
+        }
+
+        // the segments written since the store was loaded are replaced by segments with all the changes since then, so each task adds at most a few segments
+        List<Segment> base = appended.subList(0, baseSegments);
+        CopyOnWriteEmbeddingStore.Changes unmerged = store.unmergedChanges();
+        int mergedSegments = segmentCount(unmerged.added().size(), maxSegmentSize);
+        if (baseSegments == 0 || mustMerge(base.size() + mergedSegments, removedIds(base) + unmerged.removed().size(), current.size(), maxSegments)) {
+            return compact(kvStore, key, previous, current, maxSegmentSize, vectorEncoding, store);
+        }
+
+        List<Segment> segments = new ArrayList<>(base);
+        long nextSegment = previous.nextSegment();
+        for (Segment segment : writeSegments(kvStore, key, nextSegment, current, unmerged, maxSegmentSize, vectorEncoding)) {
+            segments.add(segment);
+            nextSegment++;
+        }
+        Manifest manifest = writeManifest(kvStore, key, nextSegment, segments);
+        // the merged segments are only deleted once the new manifest no longer references them
+        deleteSegments(kvStore, appended.subList(baseSegments, appended.size()));
+        store.markAppended();
+        return new Saved(manifest, baseSegments);
+    }
+
+    private static Saved compact(
+        KVStore kvStore,
+        String key,
+        Manifest previous,
+        LocalEmbeddingStore current,
+        int maxSegmentSize,
+        LocalEmbeddingStoreCodec.VectorEncoding vectorEncoding,
+        CopyOnWriteEmbeddingStore store
+    ) throws IOException {
+        long nextSegment = previous != null ? previous.nextSegment() : 0;
+        List<Segment> segments = new ArrayList<>();
+        for (List<LocalEmbeddingStore.Entry> chunk : chunks(current.entries(), maxSegmentSize)) {
+            segments.add(writeSegment(kvStore, key, nextSegment++, chunk, List.of(), vectorEncoding));
+        }
+
+        Manifest manifest = writeManifest(kvStore, key, nextSegment, segments);
+        // previous segments are only deleted once the new manifest no longer references them
+        if (previous != null) {
+            deleteSegments(kvStore, previous);
+        }
+        store.markPersisted();
+        return new Saved(manifest, segments.size());
+    }
+
+    // the removals are recorded in the first segment, even if no entry was added
+    private static List<Segment> writeSegments(
+        KVStore kvStore,
+        String key,
+        long nextSegment,
+        LocalEmbeddingStore current,
+        CopyOnWriteEmbeddingStore.Changes changes,
+        int maxSegmentSize,
+        LocalEmbeddingStoreCodec.VectorEncoding vectorEncoding
+    ) throws IOException {
+        List<LocalEmbeddingStore.Entry> added = changes.added().stream()
+            .map(id -> current.get(id).orElse(null))
+            .filter(Objects::nonNull)
+            .toList();
+        List<List<LocalEmbeddingStore.Entry>> chunks = chunks(added, maxSegmentSize);
+        List<Segment> segments = new ArrayList<>();
+        segments.add(writeSegment(kvStore, key, nextSegment++, chunks.isEmpty() ? List.of() : chunks.getFirst(), changes.removed(), vectorEncoding));
+        for (List<LocalEmbeddingStore.Entry> chunk : chunks.stream().skip(1).toList()) {
+            segments.add(writeSegment(kvStore, key, nextSegment++, chunk, List.of(), vectorEncoding));
+        }
+        return segments;
+    }
+
+    private static Manifest writeManifest(KVStore kvStore, String key, long nextSegment, List<Segment> segments) throws IOException {
+        Manifest manifest = new Manifest(VERSION, nextSegment, segments);
+        kvStore.put(key, new KVValueAndMetadata(null, JacksonMapper.ofJson().writeValueAsString(manifest)));
+        return manifest;
+    }
+
+    public static void deleteSegments(KVStore kvStore, Manifest manifest) throws IOException {
+        deleteSegments(kvStore, manifest.segments());
+    }
+
+    private static void deleteSegments(KVStore kvStore, List<Segment> segments) throws IOException {
+        for (Segment segment : segments) {
+            if (segment.size() > 0) {
+                kvStore.delete(segment.key());
+            }
+        }
+    }
+
+    // removed entries are still stored in the previous segments, so they are compacted once they would take a quarter of the storage
+    private static boolean mustMerge(int segments, long removedIds, int size, int maxSegments) {
+        return segments > maxSegments || removedIds * 4 > size;
+    }
+
+    private static long removedIds(List<Segment> segments) {
+        return segments.stream().mapToLong(segment -> segment.removedIds().size()).sum();
+    }
+
+    private static int segmentCount(int entries, int maxSegmentSize) {
+        return Math.max(1, (entries + maxSegmentSize - 1) / maxSegmentSize);
+    }
+
+    private static Segment writeSegment(
+        KVStore kvStore,
+        String key,
+        long number,
+        List<LocalEmbeddingStore.Entry> entries,
+        List<String> removedIds,
+        LocalEmbeddingStoreCodec.VectorEncoding vectorEncoding
+    ) throws IOException {
+        String segmentKey = key + "-segment-" + number;
+        if (!entries.isEmpty()) {
+            LocalEmbeddingStore segment = new LocalEmbeddingStore();
+            segment.addAll(
+                entries.stream().map(LocalEmbeddingStore.Entry::id).toList(),
+                entries.stream().map(entry -> Embedding.from(entry.vector())).toList(),
+                entries.stream().map(LocalEmbeddingStore.Entry::segment).toList()
+            );
+            String value = Base64.getEncoder().encodeToString(LocalEmbeddingStoreCodec.encode(segment, vectorEncoding));
+            kvStore.put(segmentKey, new KVValueAndMetadata(null, value));
+        }
+        return new Segment(segmentKey, entries.size(), List.copyOf(removedIds));
+    }
+
+    private static <T> List<List<T>> chunks(List<T> values, int size) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < values.size(); i += size) {
+            chunks.add(values.subList(i, Math.min(values.size(), i + size)));
+        }
+        return chunks;
+    }
+
+    private static String value(KVStore kvStore, String key) throws IOException {
+        try {
+            Optional<KVValue> kvValue = kvStore.getValue(key);
+            return Objects.requireNonNull(kvValue.orElseThrow(() -> new IOException("The embedding store segment '" + key + "' doesn't exist")).value()).toString();
+        } catch (ResourceExpiredException ree) {
+            // Should not happen as we didn't set any expiry on the KV
+            throw new IOException(ree);
+        }
+    }
+
+    /**
+     * The segments of a store, in the order they were written; <code>nextSegment</code> is the number of the next segment, used in its K/V key.
+     */
+    public record Manifest(int version, long nextSegment, List<Segment> segments) {}
+
+    /**
+     * The manifest a store was saved with, and the number of its first segments that were not written since the store was loaded or last compacted.
+     */
+    public record Saved(Manifest manifest, int baseSegments) {}
+
+    /**
+     * A segment, <code>size</code> is its number of entries: segments without entries only remove identifiers and have no K/V entry.
+     */
+    public record Segment(String key, int size, List<String> removedIds) {}
+}
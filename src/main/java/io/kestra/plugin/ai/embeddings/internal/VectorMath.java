@@ -0,0 +1,137 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Dot products of float vectors, the kernel of the similarity scoring of the local embedding store.
+ * <p>
+ * When the <code>jdk.incubator.vector</code> module is available, for example when the worker is started with <code>--add-modules jdk.incubator.vector</code>,
+ * dot products use the SIMD instructions of the CPU through the JDK Vector API; otherwise, an unrolled scalar loop is used.
+ * Dot products with a vector of a buffer always use the scalar loop, the Vector API can't read buffers on Java 21 without preview features.
+ */
+public final class VectorMath {
+    private static final String VECTOR_API_KERNEL = "io.kestra.plugin.ai.embeddings.internal.VectorApiKernel";
+    private static final Kernel KERNEL = kernel();
+
+    private VectorMath() {
+        // utility class pattern
+    }
+
+    public static float dot(float[] first, float[] second) {
+        if (first.length != second.length) {
+            throw new IllegalArgumentException("The vectors have different dimensions: " + first.length + " and " + second.length);
+        }
+        return KERNEL.dot(first, second);
+    }
+
+    /**
+     * The dot product of a vector and the vector starting at an index of a buffer, read in place, for example from a memory-mapped file.
+     */
+    public static float dot(float[] first, FloatBuffer second, int offset) {
+        if (offset < 0 || offset > second.limit() - first.length) {
+            throw new IndexOutOfBoundsException("The buffer has no vector of " + first.length + " dimensions at " + offset);
+        }
+
+        // absolute reads, so the buffer can be read by several threads
+        float sum0 = 0;
+        float sum1 = 0;
+        float sum2 = 0;
+        float sum3 = 0;
+        int i = 0;
+        int bound = first.length & ~3;
+        for (; i < bound; i += 4) {
+            sum0 += first[i] * second.get(offset + i);
+            sum1 += first[i + 1] * second.get(offset + i + 1);
+            sum2 += first[i + 2] * second.get(offset + i + 2);
+            sum3 += first[i + 3] * second.get(offset + i + 3);
+        }
+        for (; i < first.length; i++) {
+            sum0 += first[i] * second.get(offset + i);
+        }
+        return sum0 + sum1 + sum2 + sum3;
+    }
+
+    public static float norm(float[] vector) {
+        return (float) Math.sqrt(KERNEL.dot(vector, vector));
+    }
+
+    /**
+     * Returns the unit vector of a vector: a copy with the same direction and a norm of 1, so dot products of unit vectors are cosine similarities.
+     * A zero vector stays a zero vector, so its similarity with any vector is 0, like with the CosineSimilarity of langchain4j.
+     */
+    public static float[] normalize(float[] vector) {
+        float norm = norm(vector);
+        float[] normalized = new float[vector.length];
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                normalized[i] = vector[i] / norm;
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Returns a copy of a unit vector scaled by a norm, the reverse of {@link #normalize(float[])}.
+     */
+    public static float[] denormalize(float[] unitVector, float norm) {
+        float[] vector = new float[unitVector.length];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = unitVector[i] * norm;
+        }
+        return vector;
+    }
+
+    /**
+     * The name of the kernel in use, for logs and benchmarks.
+     */
+    public static String kernelName() {
+        return KERNEL.getClass().getSimpleName();
+    }
+
+    /**
+     * The kernel using the Vector API, it fails if the <code>jdk.incubator.vector</code> module is not available.
+     */
+    static Kernel vectorApiKernel() throws ReflectiveOperationException {
+        // the kernel is compiled in its own source set with the incubator module, so it's loaded by name
+        return (Kernel) Class.forName(VECTOR_API_KERNEL).getDeclaredConstructor().newInstance();
+    }
+
+    private static Kernel kernel() {
+        // the incubator module is only resolved when explicitly added, the kernel using it must not be loaded otherwise
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return vectorApiKernel();
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                return new ScalarKernel();
+            }
+        }
+        return new ScalarKernel();
+    }
+
+    interface Kernel {
+        float dot(float[] first, float[] second);
+    }
+
+    static final class ScalarKernel implements Kernel {
+        @Override
+        public float dot(float[] first, float[] second) {
+            // independent accumulators so the CPU can pipeline the multiplications
+            float sum0 = 0;
+            float sum1 = 0;
+            float sum2 = 0;
+            float sum3 = 0;
+            int i = 0;
+            int bound = first.length & ~3;
+            for (; i < bound; i += 4) {
+                sum0 += first[i] * second[i];
+                sum1 += first[i + 1] * second[i + 1];
+                sum2 += first[i + 2] * second[i + 2];
+                sum3 += first[i + 3] * second[i + 3];
+            }
+            for (; i < first.length; i++) {
+                sum0 += first[i] * second[i];
+            }
+            return sum0 + sum1 + sum2 + sum3;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import java.io.Closeable;
+
+/**
+ * Where a {@link LocalEmbeddingStore} keeps its vectors: each vector is written once in a slot and never changed.
+ * <p>
+ * A vector is kept as its unit vector, normalized to a norm of 1, and its norm: the dot product of two unit vectors is their cosine similarity,
+ * so comparisons don't divide by the norms.
+ * <p>
+ * A storage and each of its copies must be closed once their store is no more used.
+ */
+public interface VectorStorage extends Closeable {
+    /**
+     * Writes a vector and returns its slot, the vector is normalized with {@link VectorMath#normalize(float[])}.
+     */
+    int add(float[] vector);
+
+    /**
+     * Returns a copy of the vector of a slot, its unit vector scaled by its norm: it may differ from the added vector by a rounding error.
+     */
+    float[] get(int slot);
+
+    /**
+     * Returns the unit vector of a slot, it must not be modified.
+     */
+    float[] unitVector(int slot);
+
+    /**
+     * The dot product of the query and the unit vector of a slot, computed with {@link VectorMath}: it's their cosine similarity if the query is a unit vector.
+     */
+    float dot(float[] query, int slot);
+
+    /**
+     * Tells the storage that a slot is no more used by the store.
+     */
+    void release(int slot);
+
+    /**
+     * Whether released slots stay readable, so a snapshot of the store can read its vectors lazily, even after the store has changed.
+     */
+    boolean keepsReleasedSlots();
+
+    /**
+     * Returns a storage for a copy of the store: the slots used by the store must stay readable, but slots released by one of the stores must not affect the other.
+     */
+    VectorStorage copy();
+
+    /**
+     * Releases the resources of the storage, vectors already read stay valid.
+     */
+    @Override
+    void close();
+}
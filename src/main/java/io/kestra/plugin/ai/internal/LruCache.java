@@ -0,0 +1,69 @@
+package io.kestra.plugin.ai.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A thread-safe, size-bounded cache that evicts the least recently used entries first.
+ * It's meant to be used as a process-wide cache shared by all tasks running on the same worker.
+ */
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Consumer<V> onRemoval;
+    private int maxSize;
+
+    public LruCache(int maxSize) {
+        this(maxSize, value -> {});
+    }
+
+    /**
+     * @param onRemoval called with the values evicted, removed or replaced, to release their resources
+     */
+    public LruCache(int maxSize, Consumer<V> onRemoval) {
+        this.maxSize = maxSize;
+        this.onRemoval = onRemoval;
+    }
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        V previous = entries.put(key, value);
+        if (previous != null && previous != value) {
+            onRemoval.accept(previous);
+        }
+        evict();
+    }
+
+    public synchronized V remove(K key) {
+        V removed = entries.remove(key);
+        if (removed != null) {
+            onRemoval.accept(removed);
+        }
+        return removed;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Raises the maximum size of the cache if it's lower than the given size.
+     * The cache is never shrunk, so a task configured with a small size doesn't evict the entries of the other tasks of the worker.
+     */
+    public synchronized void grow(int maxSize) {
+        this.maxSize = Math.max(this.maxSize, maxSize);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            V evicted = iterator.next().getValue();
+            iterator.remove();
+            onRemoval.accept(evicted);
+        }
+    }
+}
@@ -153,6 +153,14 @@ public class AmazonBedrock extends ModelProvider {
         }
     }
 
+    @Override
+    public String embeddingModelIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            super.embeddingModelIdentity(runContext),
+            String.valueOf(runContext.render(modelType).as(AmazonBedrockEmbeddingModelType.class).orElse(null))
+        );
+    }
+
     enum AmazonBedrockEmbeddingModelType {
         COHERE,
         TITAN,
@@ -187,6 +187,15 @@ public class AzureOpenAI extends ModelProvider {
         }
     }
 
+    @Override
+    public String embeddingModelIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            super.embeddingModelIdentity(runContext),
+            String.valueOf(runContext.render(endpoint).as(String.class).orElse(null)),
+            String.valueOf(runContext.render(serviceVersion).as(String.class).orElse(null))
+        );
+    }
+
     private TokenCredential credentials(RunContext runContext, String tenantId, String clientId, String clientSecret) {
 
         if (StringUtils.isNotBlank(clientSecret)) {
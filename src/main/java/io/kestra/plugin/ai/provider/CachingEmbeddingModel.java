@@ -0,0 +1,303 @@
+package io.kestra.plugin.ai.provider;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import io.kestra.core.exceptions.ResourceExpiredException;
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.core.storages.kv.KVMetadata;
+import io.kestra.core.storages.kv.KVStore;
+import io.kestra.core.storages.kv.KVValue;
+import io.kestra.core.storages.kv.KVValueAndMetadata;
+import io.kestra.plugin.ai.AIUtils;
+import io.kestra.plugin.ai.internal.LruCache;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPool;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link EmbeddingModel} decorator that caches embeddings by model and text hash.
+ * <p>
+ * Embeddings are first looked up in an in-memory LRU cache shared by all tasks of the worker,
+ * then in an optional durable tier (K/V store or Redis), and only the remaining texts are sent to the embedding model.
+ * Cache hits and misses are reported as task metrics.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+    private static final LruCache<String, float[]> LOCAL_CACHE = new LruCache<>(10_000);
+    private static final Map<String, Integer> DIMENSIONS = new ConcurrentHashMap<>();
+
+    private final RunContext runContext;
+    private final EmbeddingModel delegate;
+    private final String model;
+    private final DurableTier durableTier;
+
+    /**
+     * @param durableTier the optional durable tier, it must be closed with {@link #close()} once the task doesn't embed anymore
+     */
+    public CachingEmbeddingModel(RunContext runContext, EmbeddingModel delegate, String model, int maxSize, DurableTier durableTier) {
+        this.runContext = runContext;
+        this.delegate = delegate;
+        this.model = model;
+        this.durableTier = durableTier;
+
+        LOCAL_CACHE.grow(maxSize);
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        Embedding[] embeddings = new Embedding[textSegments.size()];
+
+        // positions of the segments not found in the in-memory cache, by cache key, so identical texts are embedded only once
+        Map<String, List<Integer>> missing = new LinkedHashMap<>();
+        for (int i = 0; i < textSegments.size(); i++) {
+            String key = key(textSegments.get(i).text());
+            float[] vector = LOCAL_CACHE.get(key);
+            if (vector != null) {
+                embeddings[i] = Embedding.from(vector.clone());
+            } else {
+                missing.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        if (!missing.isEmpty() && durableTier != null) {
+            durableTier.getAll(missing.keySet()).forEach((key, vector) -> {
+                LOCAL_CACHE.put(key, vector);
+                missing.remove(key).forEach(i -> embeddings[i] = Embedding.from(vector.clone()));
+            });
+        }
+
+        TokenUsage tokenUsage = null;
+        if (!missing.isEmpty()) {
+            List<String> keys = new ArrayList<>(missing.keySet());
+            List<TextSegment> toEmbed = keys.stream().map(key -> textSegments.get(missing.get(key).getFirst())).toList();
+            Response<List<Embedding>> response = delegate.embedAll(toEmbed);
+            tokenUsage = response.tokenUsage();
+
+            Map<String, float[]> computed = new HashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                Embedding embedding = response.content().get(i);
+                computed.put(keys.get(i), embedding.vector().clone());
+                missing.get(keys.get(i)).forEach(position -> embeddings[position] = embedding);
+            }
+            computed.forEach(LOCAL_CACHE::put);
+            if (durableTier != null) {
+                durableTier.putAll(computed);
+            }
+        }
+
+        int misses = missing.size();
+        sendMetrics(textSegments.size() - misses, misses);
+
+        return Response.from(Arrays.asList(embeddings), tokenUsage);
+    }
+
+    @Override
+    public int dimension() {
+        // the default implementation of some models embeds a text to find the dimension, so we cache it
+        return DIMENSIONS.computeIfAbsent(model, k -> delegate.dimension());
+    }
+
+    /**
+     * Closes the durable tier, if any.
+     */
+    public void close() {
+        if (durableTier != null) {
+            durableTier.close();
+        }
+    }
+
+    private String key(String text) {
+        return AIUtils.sha256(model + '\u0000' + text);
+    }
+
+    private void sendMetrics(int hits, int misses) {
+        // embeddings may be computed concurrently, and the run context metrics are not thread-safe
+        synchronized (runContext) {
+            runContext.metric(Counter.of("ai.embedding.cache.hit.count", "Embedding cache hit count", hits));
+            runContext.metric(Counter.of("ai.embedding.cache.miss.count", "Embedding cache miss count", misses));
+        }
+    }
+
+    private static String encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    private static float[] decode(String value) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value));
+        float[] vector = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * A durable cache tier, embeddings are stored as base64 encoded float32 vectors.
+     */
+    public interface DurableTier {
+        Map<String, float[]> getAll(Collection<String> keys);
+
+        void putAll(Map<String, float[]> vectors);
+
+        /**
+         * Writes the buffered embeddings, if any, and releases the resources of the tier, it's called once the task doesn't embed anymore.
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * Stores the embeddings of a model inside a few K/V entries of the namespace, instead of one entry per embedding.
+     * <p>
+     * Embeddings are spread by the first character of their key among 16 buckets, each bucket being a K/V entry holding a JSON map of encoded vectors.
+     * A bucket is read at most once by a task, on its first lookup, and the embeddings added by the task are buffered then written on {@link #close()},
+     * so a task makes at most 16 reads and 16 writes whatever the number of embeddings. Each bucket keeps its most recently written embeddings, up to a 16th of <code>maxSize</code>.
+     */
+    public static class KVTier implements DurableTier {
+        private static final String KEY_PREFIX = "embedding-cache-";
+        private static final TypeReference<LinkedHashMap<String, String>> TYPE_REFERENCE = new TypeReference<>() {};
+        // keys are hexadecimal hashes, so their first character spreads them evenly
+        private static final int BUCKETS = 16;
+
+        private final KVStore kvStore;
+        private final String keyPrefix;
+        private final int maxBucketSize;
+        private final Duration ttl;
+        private final Map<String, Map<String, String>> buckets = new HashMap<>();
+        private final Map<String, Map<String, String>> added = new HashMap<>();
+
+        /**
+         * @param maxSize the maximum number of embeddings of the model
+         */
+        public KVTier(KVStore kvStore, String model, int maxSize, Duration ttl) {
+            this.kvStore = kvStore;
+            this.keyPrefix = KEY_PREFIX + AIUtils.sha256(model).substring(0, 16) + "-";
+            this.maxBucketSize = Math.max(1, maxSize / BUCKETS);
+            this.ttl = ttl;
+        }
+
+        @Override
+        public synchronized Map<String, float[]> getAll(Collection<String> keys) {
+            Map<String, float[]> found = new HashMap<>();
+            for (String key : keys) {
+                String bucket = bucket(key);
+                String value = Optional.ofNullable(added.get(bucket)).map(vectors -> vectors.get(key))
+                    .orElseGet(() -> buckets.computeIfAbsent(bucket, this::read).get(key));
+                if (value != null) {
+                    found.put(key, decode(value));
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public synchronized void putAll(Map<String, float[]> vectors) {
+            vectors.forEach((key, vector) -> added.computeIfAbsent(bucket(key), k -> new LinkedHashMap<>()).put(key, encode(vector)));
+        }
+
+        @Override
+        public synchronized void close() {
+            added.forEach((bucket, vectors) -> {
+                // the bucket is read again to keep the embeddings written by other tasks since it was read
+                Map<String, String> merged = read(bucket);
+                merged.keySet().removeAll(vectors.keySet());
+                merged.putAll(vectors);
+                Iterator<String> oldest = merged.keySet().iterator();
+                while (merged.size() > maxBucketSize) {
+                    oldest.next();
+                    oldest.remove();
+                }
+
+                try {
+                    String value = JacksonMapper.ofJson().writeValueAsString(merged);
+                    kvStore.put(keyPrefix + bucket, new KVValueAndMetadata(new KVMetadata("Cached embeddings", ttl), value));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            added.clear();
+        }
+
+        private static String bucket(String key) {
+            return key.substring(0, 1);
+        }
+
+        private Map<String, String> read(String bucket) {
+            try {
+                Optional<KVValue> value = kvStore.getValue(keyPrefix + bucket);
+                if (value.isPresent() && value.get().value() != null) {
+                    return JacksonMapper.ofJson().readValue(value.get().value().toString(), TYPE_REFERENCE);
+                }
+            } catch (ResourceExpiredException e) {
+                // an expired bucket is empty
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Stores each embedding in a Redis key, looked up with a single <code>MGET</code> and written with a pipeline,
+     * through a connection pool closed with the task.
+     */
+    public static class RedisTier implements DurableTier {
+        private static final String KEY_PREFIX = "kestra:embedding-cache:";
+
+        private final JedisPool pool;
+        private final Duration ttl;
+
+        /**
+         * @param username the ACL username, or null to authenticate with the password only
+         * @param password the password, or null if the server doesn't require authentication
+         */
+        public RedisTier(String host, int port, String username, String password, boolean ssl, Duration ttl) {
+            this.pool = new JedisPool(new HostAndPort(host, port), DefaultJedisClientConfig.builder()
+                .user(username)
+                .password(password)
+                .ssl(ssl)
+                .build());
+            this.ttl = ttl;
+        }
+
+        @Override
+        public Map<String, float[]> getAll(Collection<String> keys) {
+            List<String> keyList = new ArrayList<>(keys);
+            Map<String, float[]> found = new HashMap<>();
+            try (var jedis = pool.getResource()) {
+                List<String> values = jedis.mget(keyList.stream().map(key -> KEY_PREFIX + key).toArray(String[]::new));
+                for (int i = 0; i < keyList.size(); i++) {
+                    if (values.get(i) != null) {
+                        found.put(keyList.get(i), decode(values.get(i)));
+                    }
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public void putAll(Map<String, float[]> vectors) {
+            try (var jedis = pool.getResource(); var pipeline = jedis.pipelined()) {
+                vectors.forEach((key, vector) -> pipeline.setex(KEY_PREFIX + key, ttl.getSeconds(), encode(vector)));
+                pipeline.sync();
+            }
+        }
+
+        @Override
+        public void close() {
+            pool.close();
+        }
+    }
+}
@@ -123,4 +123,14 @@ public class GoogleVertexAI extends ModelProvider {
             .project(runContext.render(this.project).as(String.class).orElseThrow())
             .build();
     }
+
+    @Override
+    public String embeddingModelIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            super.embeddingModelIdentity(runContext),
+            String.valueOf(runContext.render(endpoint).as(String.class).orElse(null)),
+            String.valueOf(runContext.render(location).as(String.class).orElse(null)),
+            String.valueOf(runContext.render(project).as(String.class).orElse(null))
+        );
+    }
 }
@@ -106,4 +106,12 @@ public class MistralAI extends ModelProvider {
 
     }
 
+    @Override
+    public String embeddingModelIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            super.embeddingModelIdentity(runContext),
+            String.valueOf(runContext.render(baseUrl).as(String.class).orElse(null))
+        );
+    }
+
 }
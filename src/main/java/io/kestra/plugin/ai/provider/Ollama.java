@@ -95,4 +95,12 @@ public class Ollama extends ModelProvider {
             .baseUrl(runContext.render(this.endpoint).as(String.class).orElseThrow())
             .build();
     }
+
+    @Override
+    public String embeddingModelIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            super.embeddingModelIdentity(runContext),
+            String.valueOf(runContext.render(endpoint).as(String.class).orElse(null))
+        );
+    }
 }
@@ -115,4 +115,12 @@ public class OpenAI extends ModelProvider {
             .build();
     }
 
+    @Override
+    public String embeddingModelIdentity(RunContext runContext) throws IllegalVariableEvaluationException {
+        return String.join("\u0000",
+            super.embeddingModelIdentity(runContext),
+            String.valueOf(runContext.render(baseUrl).as(String.class).orElse(null))
+        );
+    }
+
 }
@@ -20,6 +20,9 @@ import io.kestra.core.utils.ListUtils;
 import io.kestra.plugin.ai.AIUtils;
 import io.kestra.plugin.ai.domain.*;
 import io.kestra.plugin.ai.provider.TimingChatModelListener;
+import io.kestra.plugin.ai.rag.internal.CachingContentRetriever;
+import io.kestra.plugin.ai.rag.internal.MetadataFilters;
+import io.kestra.plugin.ai.rag.internal.SearchResultCache;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotNull;
 import lombok.Builder;
@@ -238,6 +241,37 @@ import static io.kestra.core.utils.Rethrow.throwFunction;
                               type: string
                     prompt: "{{inputs.prompt}}"
                 """
+        ),
+        @Example(
+            full = true,
+            title = """
+                Chat with your data, reranking the retrieved contents with a local cross-encoder.
+                The 50 most similar contents are reranked on the worker CPU, and only the 5 most relevant ones are sent to the LLM.""",
+            code = """
+                id: rag-with-reranking
+                namespace: company.team
+
+                tasks:
+                  - id: chat_with_rag_and_reranking
+                    type: io.kestra.plugin.ai.rag.ChatCompletion
+                    chatProvider:
+                      type: io.kestra.plugin.ai.provider.GoogleGemini
+                      modelName: gemini-2.5-flash
+                      apiKey: "{{ secret('GEMINI_API_KEY') }}"
+                    embeddingProvider:
+                      type: io.kestra.plugin.ai.provider.GoogleGemini
+                      modelName: gemini-embedding-exp-03-07
+                      apiKey: "{{ secret('GEMINI_API_KEY') }}"
+                    embeddings:
+                      type: io.kestra.plugin.ai.embeddings.KestraKVStore
+                    contentRetrieverConfiguration:
+                      maxResults: 50
+                    reranking:
+                      modelPath: models/ms-marco-MiniLM-L-6-v2/model.onnx
+                      tokenizerPath: models/ms-marco-MiniLM-L-6-v2/tokenizer.json
+                      maxResults: 5
+                    prompt: Which features were released in Kestra 0.22?
+                """
         )
     },
     aliases = "io.kestra.plugin.langchain4j.rag.ChatCompletion"
@@ -265,6 +299,20 @@ public class ChatCompletion extends Task implements RunnableTask<ChatCompletion.
     @PluginProperty
     private ModelProvider embeddingProvider;
 
+    @Schema(
+        title = "Embedding cache",
+        description = "When set, embeddings are cached by model and text so identical texts are embedded only once, see `EmbeddingCache`."
+    )
+    @PluginProperty
+    private EmbeddingCache embeddingCache;
+
+    @Schema(
+        title = "Search result cache",
+        description = "When set, the contents retrieved from the embedding store are cached by query, so repeated questions skip the query embedding and the store search, see `SearchCache`."
+    )
+    @PluginProperty
+    private SearchCache searchCache;
+
     @Schema(title = "Chat Model Provider")
     @NotNull
     @PluginProperty
@@ -288,6 +336,20 @@ public class ChatCompletion extends Task implements RunnableTask<ChatCompletion.
     )
     private Property<List<ContentRetrieverProvider>> contentRetrievers;
 
+    @Schema(
+        title = "Fusion of the retrieved contents",
+        description = "When set, the contents of the embedding store and of all the content retrievers are merged with reciprocal rank fusion and only the best ones are kept, for example to combine keyword and vector search. Otherwise all the retrieved contents are used."
+    )
+    @PluginProperty
+    private RetrievalFusion fusion;
+
+    @Schema(
+        title = "Reranking of the retrieved contents",
+        description = "When set, the retrieved contents, after the `fusion` if any, are reranked by a local cross-encoder model and only the best ones are sent to the LLM. Retrieve more contents than you keep, so the reranking can find the relevant ones."
+    )
+    @PluginProperty
+    private ContentReranking reranking;
+
     @Schema(title = "Tools that the LLM may use to augment its response")
     private List<ToolProvider> tools;
 
@@ -300,11 +362,12 @@ public class ChatCompletion extends Task implements RunnableTask<ChatCompletion.
     @Override
     public Output run(RunContext runContext) throws Exception {
         List<ToolProvider> toolProviders = ListUtils.emptyOnNull(tools);
+        List<ContentRetrieverProvider> contentRetrieverProviders = runContext.render(contentRetrievers).asList(ContentRetrieverProvider.class);
 
         try {
             AiServices<Assistant> assistant = AiServices.builder(Assistant.class)
                 .chatModel(chatProvider.chatModel(runContext, chatConfiguration))
-                .retrievalAugmentor(buildRetrievalAugmentor(runContext))
+                .retrievalAugmentor(buildRetrievalAugmentor(runContext, contentRetrieverProviders))
                 .tools(AIUtils.buildTools(runContext, toolProviders))
                 .systemMessageProvider(throwFunction(memoryId -> runContext.render(systemMessage).as(String.class).orElse(null)));
 
@@ -333,44 +396,76 @@ public class ChatCompletion extends Task implements RunnableTask<ChatCompletion.
                 .build();
         } finally {
             toolProviders.forEach(tool -> tool.close(runContext));
+            contentRetrieverProviders.forEach(retriever -> retriever.close(runContext));
 
             if (memory != null) {
                 memory.close(runContext);
             }
 
+            if (embeddings != null) {
+                embeddings.close(runContext);
+            }
+
+            if (embeddingCache != null) {
+                embeddingCache.close(runContext);
+            }
+
+            if (reranking != null) {
+                reranking.close(runContext);
+            }
+
             TimingChatModelListener.clear();
         }
     }
 
-    private RetrievalAugmentor buildRetrievalAugmentor(final RunContext runContext) throws Exception {
-        List<ContentRetriever> toolContentRetrievers = runContext.render(contentRetrievers).asList(ContentRetrieverProvider.class).stream()
+    private RetrievalAugmentor buildRetrievalAugmentor(final RunContext runContext, List<ContentRetrieverProvider> contentRetrieverProviders) throws Exception {
+        List<ContentRetriever> toolContentRetrievers = contentRetrieverProviders.stream()
             .map(throwFunction(provider -> provider.contentRetriever(runContext)))
             .collect(Collectors.toList());
 
         Optional<ContentRetriever> contentRetriever = Optional.ofNullable(embeddings).map(throwFunction(
             embeddings -> {
-                var embeddingModel = Optional.ofNullable(embeddingProvider).orElse(chatProvider).embeddingModel(runContext);
-                return EmbeddingStoreContentRetriever.builder()
+                var modelProvider = Optional.ofNullable(embeddingProvider).orElse(chatProvider);
+                var embeddingModel = modelProvider.embeddingModel(runContext, embeddingCache);
+                Map<String, Object> rFilter = contentRetrieverConfiguration.getFilter() != null
+                    ? runContext.render(contentRetrieverConfiguration.getFilter()).asMap(String.class, Object.class)
+                    : Map.of();
+                ContentRetriever embeddingStoreContentRetriever = EmbeddingStoreContentRetriever.builder()
                     .embeddingModel(embeddingModel)
                     .embeddingStore(embeddings.embeddingStore(runContext, embeddingModel.dimension(), false))
                     .maxResults(contentRetrieverConfiguration.getMaxResults())
                     .minScore(contentRetrieverConfiguration.getMinScore())
+                    .filter(MetadataFilters.toFilter(rFilter))
                     .build();
+                if (searchCache == null) {
+                    return embeddingStoreContentRetriever;
+                }
+
+                String parameters = String.join("\u0000",
+                    modelProvider.embeddingModelIdentity(runContext),
+                    String.valueOf(contentRetrieverConfiguration.getMaxResults()),
+                    String.valueOf(contentRetrieverConfiguration.getMinScore()),
+                    String.valueOf(rFilter)
+                );
+                return new CachingContentRetriever(embeddingStoreContentRetriever, searchCache.searchResultCache(runContext, embeddings), parameters);
             }));
 
         if (toolContentRetrievers.isEmpty() && contentRetriever.isEmpty()) {
             throw new IllegalArgumentException("Either `embeddings` or `contentRetrievers` must be provided.");
         }
 
+        var retrievalAugmentor = DefaultRetrievalAugmentor.builder()
+            .contentAggregator(AIUtils.buildContentAggregator(runContext, fusion, reranking));
+
         if (toolContentRetrievers.isEmpty()) {
-            return DefaultRetrievalAugmentor.builder().contentRetriever(contentRetriever.get()).build();
+            return retrievalAugmentor.contentRetriever(contentRetriever.get()).build();
         } else {
             // always add it first so it has precedence over the additional content retrievers
             contentRetriever.ifPresent(ct -> toolContentRetrievers.addFirst(ct));
             QueryRouter queryRouter = new DefaultQueryRouter(toolContentRetrievers.toArray(new ContentRetriever[0]));
 
             // Create a query router that will route each query to the embedding store content retriever and the tools content retrievers
-            return DefaultRetrievalAugmentor.builder()
+            return retrievalAugmentor
                 .queryRouter(queryRouter)
                 .build();
         }
@@ -390,6 +485,14 @@ public class ChatCompletion extends Task implements RunnableTask<ChatCompletion.
         @Schema(title = "The minimum score, ranging from 0 to 1 (inclusive). Only embeddings with a score >= minScore will be returned.")
         @Builder.Default
         private Double minScore = 0.0D;
+
+        @Schema(
+            title = "Metadata filter of the embedding store",
+            description = """
+                A map of conditions on the metadata of the segments that must all match: a metadata key is mapped to the value it must be equal to, or to operators among `eq`, `ne`, `gt`, `gte`, `lt`, `lte`, `in` and `nin`.
+                `$and` and `$or` combine a list of filters, `$not` negates a filter. Values are compared with their type, wrap a value or a list of values rendered from an expression in `$number` to compare them as numbers, for example `gte: { $number: "{{ inputs.year }}" }`. The filter is applied by the embedding store itself, so only the matching segments are scored, but not all stores support all filters."""
+        )
+        private Property<Map<String, Object>> filter;
     }
 
     @SuperBuilder
@@ -1,13 +1,14 @@
 package io.kestra.plugin.ai.rag;
 
+import dev.langchain4j.data.document.BlankDocumentException;
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.loader.UrlDocumentLoader;
-import dev.langchain4j.data.document.parser.TextDocumentParser;
 import dev.langchain4j.data.document.splitter.*;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
-import dev.langchain4j.store.embedding.IngestionResult;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import dev.langchain4j.model.output.TokenUsage;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.models.annotations.Example;
 import io.kestra.core.models.annotations.Plugin;
 import io.kestra.core.models.annotations.PluginProperty;
@@ -16,22 +17,43 @@ import io.kestra.core.models.property.Property;
 import io.kestra.core.models.tasks.RunnableTask;
 import io.kestra.core.models.tasks.Task;
 import io.kestra.core.runners.RunContext;
+import io.kestra.core.storages.kv.KVStore;
 import io.kestra.core.utils.ListUtils;
+import io.kestra.plugin.ai.domain.EmbeddingCache;
 import io.kestra.plugin.ai.domain.EmbeddingStoreProvider;
 import io.kestra.plugin.ai.domain.ModelProvider;
+import io.kestra.plugin.ai.rag.internal.DocumentContentParser;
+import io.kestra.plugin.ai.rag.internal.IngestionCheckpoint;
+import io.kestra.plugin.ai.rag.internal.IngestionManifest;
+import io.kestra.plugin.ai.rag.internal.IngestionPipeline;
+import io.kestra.plugin.ai.rag.internal.SearchResultCache;
+import io.kestra.plugin.ai.rag.internal.SegmentDeduplicator;
+import io.kestra.plugin.ai.rag.internal.SourceDocument;
+import io.kestra.plugin.ai.rag.internal.StorageDocumentLoader;
+import io.kestra.plugin.ai.rag.internal.UrlDocumentFetcher;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotNull;
 import lombok.*;
 import lombok.experimental.SuperBuilder;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static io.kestra.core.utils.Rethrow.throwConsumer;
+import static io.kestra.core.utils.Rethrow.throwFunction;
 
 @SuperBuilder
 @ToString
@@ -40,7 +62,9 @@ import static io.kestra.core.utils.Rethrow.throwConsumer;
 @NoArgsConstructor
 @Schema(
     title = "Ingest documents into an embedding store.",
-    description = "Only text documents (TXT, HTML, Markdown) are supported for now."
+    description = """
+        Only text documents (TXT, HTML, Markdown) are supported for now.
+        Documents are loaded lazily, then split, embedded and written to the embedding store in batches (see `batchSize` and `maxConcurrency`), so memory usage doesn't depend on the number of documents to ingest."""
 )
 @Plugin(
     examples = {
@@ -82,6 +106,13 @@ public class IngestDocument extends Task implements RunnableTask<IngestDocument.
     @PluginProperty
     private EmbeddingStoreProvider embeddings;
 
+    @Schema(
+        title = "Embedding cache",
+        description = "When set, embeddings are cached by model and text so identical texts are embedded only once, see `EmbeddingCache`."
+    )
+    @PluginProperty
+    private EmbeddingCache embeddingCache;
+
     @Schema(
         title = "A path inside the task working directory that contains documents to ingest",
         description = "Each document inside the directory will be ingested into the embedding store. This is recursive and protected from being path traversal (CWE-22)."
@@ -94,11 +125,31 @@ public class IngestDocument extends Task implements RunnableTask<IngestDocument.
     @PluginProperty(internalStorageURI = true)
     private Property<List<String>> fromInternalURIs;
 
+    @Schema(
+        title = "How to read the documents from `fromInternalURIs`",
+        description = "Files are read as a stream and never loaded fully in memory."
+    )
+    @NotNull
+    @PluginProperty
+    @Builder.Default
+    private InternalURIsConfiguration internalURIsConfiguration = InternalURIsConfiguration.builder().build();
+
     @Schema(
         title = "A list of document URLs from external sources"
     )
     private Property<List<String>> fromExternalURLs;
 
+    @Schema(
+        title = "How to fetch the documents from `fromExternalURLs`",
+        description = """
+            URLs are fetched in parallel with a shared HTTP client.
+            When `incremental` is enabled, the `ETag` and `Last-Modified` headers of each URL are stored in the ingestion manifest and a conditional GET is sent on the next ingestion, so unchanged documents are neither downloaded nor embedded again."""
+    )
+    @NotNull
+    @PluginProperty
+    @Builder.Default
+    private ExternalURLsConfiguration externalURLsConfiguration = ExternalURLsConfiguration.builder().build();
+
     @Schema(
         title = "A list of inline documents"
     )
@@ -110,95 +161,349 @@ public class IngestDocument extends Task implements RunnableTask<IngestDocument.
     )
     private Property<Map<String, String>> metadata;
 
+    @Schema(
+        title = "How to parse the documents from `fromPath` and `fromExternalURLs`",
+        description = "By default, only the main content of HTML documents is ingested, see `DocumentParsing`."
+    )
+    @NotNull
+    @PluginProperty
+    @Builder.Default
+    private DocumentParsing parsing = DocumentParsing.builder().build();
+
     @Schema(
         title = "The document splitter"
     )
     @PluginProperty
     private DocumentSplitter documentSplitter;
 
+    @Schema(
+        title = "Segment deduplication",
+        description = """
+            When set, duplicated segments, for example headers, footers or license blocks, are dropped before being embedded, see `SegmentDeduplication`.
+            When `incremental` is enabled, only the duplicates inside a same source are dropped, as the segments of a source are deleted when it changes or is removed."""
+    )
+    @PluginProperty
+    private SegmentDeduplication deduplication;
+
     @Schema(
         title = "Whether to drop the store before ingestion - useful for testing purposes."
     )
     @Builder.Default
     private Property<Boolean> drop = Property.ofValue(Boolean.FALSE);
 
+    @Schema(
+        title = "Whether to ingest documents incrementally",
+        description = """
+            When enabled, a manifest with the content hash of each ingested source (file path, internal storage URI, URL, or inline document `id` or content hash) and the identifiers of its segments is stored in the K/V store.
+            On the next ingestion, unchanged sources are skipped, changed sources are ingested again, and the segments of changed or removed sources are deleted from the embedding store.
+            All sources must therefore be part of each ingestion, and the embedding store must support removing embeddings by identifiers."""
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Boolean> incremental = Property.ofValue(Boolean.FALSE);
+
+    @Schema(
+        title = "The name of the K/V entry used to store the ingestion manifest when `incremental` is enabled",
+        description = "It must be unique per task, as the segments of the sources that are not part of the ingestion are deleted: two tasks sharing a manifest would delete each other's segments."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<String> manifestKvName = Property.ofExpression("{{flow.id}}-{{task.id}}-ingestion-manifest");
+
+    @Schema(
+        title = "Whether to record ingestion checkpoints so a retry of the same execution resumes the ingestion",
+        description = """
+            When enabled, a checkpoint with the position of the last written segment, and the incremental ingestion manifest if any, is stored in the K/V store after a batch is written to the embedding store, at most once per `checkpointInterval`.
+            When the task is retried, for example after a rate limit error or a worker restart, the documents are loaded again and the segments up to the checkpoint are skipped instead of being embedded again; the store is not dropped again.
+            The documents must therefore be loaded in the same order by the retry. The checkpoint is deleted when the ingestion succeeds."""
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Boolean> checkpoint = Property.ofValue(Boolean.FALSE);
+
+    @Schema(
+        title = "The name of the K/V entry used to store the ingestion checkpoint when `checkpoint` is enabled",
+        description = "It must be unique per execution and task so only a retry of the same execution resumes from the checkpoint."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<String> checkpointKvName = Property.ofExpression("{{execution.id}}-{{task.id}}-ingestion-checkpoint");
+
+    @Schema(
+        title = "The minimum duration between two ingestion checkpoints when `checkpoint` is enabled - defaults to 1 minute",
+        description = "Each checkpoint flushes the embedding store, which may write the whole store, so checkpointing after every batch would make the ingestion quadratic. A retry embeds again at most the segments written during this duration."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Duration> checkpointInterval = Property.ofValue(Duration.ofMinutes(1));
+
+    @Schema(
+        title = "The maximum number of segments embedded in a single request to the embedding model",
+        description = "Segments are embedded and written to the embedding store by batches, so memory usage depends on the batch size and on `maxConcurrency`, not on the number of documents."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> batchSize = Property.ofValue(64);
+
+    @Schema(
+        title = "The maximum number of batches embedded concurrently",
+        description = """
+            Batches are embedded in parallel on virtual threads while the next documents are loaded and split, but they are always written to the embedding store in order.
+            Increase it to overlap the network calls to the embedding model, as long as your model provider rate limits allow it."""
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> maxConcurrency = Property.ofValue(1);
+
     @Override
     public Output run(RunContext runContext) throws Exception {
-        List<Document> documents = new ArrayList<>();
-
-        runContext.render(fromPath).as(String.class).ifPresent(path -> {
-            // we restrict to documents on the working directory*
-            // resolve protects from path traversal (CWE-22), see: https://cwe.mitre.org/data/definitions/22.html
-            Path finalPath = runContext.workingDir().resolve(Path.of(path));
-            documents.addAll(FileSystemDocumentLoader.loadDocumentsRecursively(finalPath));
-        });
-
-        ListUtils.emptyOnNull(fromDocuments).forEach(throwConsumer(inlineDocument -> {
-            Map<String, Object> metadata = runContext.render(inlineDocument.metadata).asMap(String.class, Object.class);
-            documents.add(Document.document(runContext.render(inlineDocument.content).as(String.class).orElseThrow(), Metadata.from(metadata)));
-        }));
-
-        runContext.render(fromInternalURIs).asList(String.class).forEach(throwConsumer(uri -> {
-            try (InputStream file = runContext.storage().getFile(URI.create(uri))) {
-                byte[] bytes = file.readAllBytes();
-                documents.add(Document.from(new String(bytes)));
-            }
-        }));
+        var rDrop = runContext.render(drop).as(Boolean.class).orElseThrow();
+        var rIncremental = runContext.render(incremental).as(Boolean.class).orElseThrow();
+        var rBatchSize = runContext.render(batchSize).as(Integer.class).orElseThrow();
+        var rMaxConcurrency = runContext.render(maxConcurrency).as(Integer.class).orElseThrow();
+        var rCheckpoint = runContext.render(checkpoint).as(Boolean.class).orElseThrow();
+
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+        String rCheckpointKvName = runContext.render(checkpointKvName).as(String.class).orElseThrow();
+        IngestionCheckpoint resumeFrom = rCheckpoint ? IngestionCheckpoint.load(kvStore, rCheckpointKvName).orElse(null) : null;
+        if (resumeFrom != null) {
+            runContext.logger().info("Resuming the ingestion after the segment {} of the document {}", resumeFrom.position().segment(), resumeFrom.position().document());
+        }
 
-        runContext.render(fromExternalURLs).asList(String.class).forEach(throwConsumer(url -> {
-            documents.add(UrlDocumentLoader.load(url, new TextDocumentParser()));
-        }));
+        var embeddingModel = provider.embeddingModel(runContext, embeddingCache);
+        String storeKey = SearchResultCache.storeKey(runContext, embeddings);
+        // a resumed ingestion must not drop the segments written before the failure
+        var embeddingStore = embeddings.embeddingStore(runContext, embeddingModel.dimension(), rDrop && resumeFrom == null);
 
-        if (metadata != null) {
-            Map<String, String> metadataMap = runContext.render(metadata).asMap(String.class, Object.class);
-            documents.forEach(doc -> metadataMap.forEach((k, v) -> doc.metadata().put(k, v)));
-        }
+        String rManifestKvName = runContext.render(manifestKvName).as(String.class).orElseThrow();
+        // when the store is dropped, all sources must be ingested again so the previous manifest is ignored
+        IngestionManifest manifest = !rIncremental ? null
+            : resumeFrom != null && resumeFrom.manifest() != null ? IngestionManifest.restore(resumeFrom.manifest())
+            : rDrop ? IngestionManifest.empty() : IngestionManifest.load(kvStore, rManifestKvName);
 
-        var embeddingModel = provider.embeddingModel(runContext);
-        var builder = EmbeddingStoreIngestor.builder()
-            .embeddingModel(embeddingModel)
-            .embeddingStore(embeddings.embeddingStore(runContext, embeddingModel.dimension(), runContext.render(drop).as(Boolean.class).orElseThrow()));
+        Map<String, String> metadataMap = metadata != null ? runContext.render(metadata).asMap(String.class, Object.class) : Collections.emptyMap();
 
-        if (documentSplitter != null) {
-            builder.documentSplitter(from(documentSplitter));
+        var pipelineBuilder = IngestionPipeline.builder()
+            .embeddingModel(embeddingModel)
+            .embeddingStore(embeddingStore)
+            .documentSplitter(documentSplitter != null ? from(documentSplitter) : null)
+            .batchSize(rBatchSize)
+            .maxConcurrency(rMaxConcurrency)
+            .segmentDeduplicator(deduplication != null ? deduplication.segmentDeduplicator(runContext) : null)
+            // a segment dropped as a duplicate of another source would be lost when this source changes or is removed
+            .deduplicateWithinSource(rIncremental);
+        if (manifest != null) {
+            pipelineBuilder.segmentListener(manifest::addSegment);
+        }
+        if (rCheckpoint) {
+            long rCheckpointInterval = runContext.render(checkpointInterval).as(Duration.class).orElseThrow().toNanos();
+            AtomicLong lastCheckpoint = new AtomicLong(System.nanoTime());
+            pipelineBuilder
+                .resumeAfter(resumeFrom != null ? resumeFrom.position() : null)
+                .checkpointListener(throwConsumer(position -> {
+                    if (System.nanoTime() - lastCheckpoint.get() < rCheckpointInterval) {
+                        return;
+                    }
+                    lastCheckpoint.set(System.nanoTime());
+
+                    // the store must be durable before the checkpoint, or a resumed ingestion may skip segments that were never persisted
+                    embeddings.flush(runContext);
+                    new IngestionCheckpoint(position, manifest != null ? manifest.state() : null).save(kvStore, rCheckpointKvName);
+                }));
         }
 
-        EmbeddingStoreIngestor ingestor = builder.build();
-        IngestionResult result = ingestor.ingest(documents);
+        // documents are loaded lazily and ingested one by one, so only the in-flight batches of segments are kept in memory
+        int skippedDocuments = 0;
+        long documentIndex = 0;
+        try (var pipeline = pipelineBuilder.build();
+             var urlFetcher = urlDocumentFetcher(runContext);
+             Stream<SourceDocument> documents = loadDocuments(runContext, urlFetcher, manifest)) {
+            for (SourceDocument sourceDocument : (Iterable<SourceDocument>) documents::iterator) {
+                long index = documentIndex++;
+                if (sourceDocument.isNotModified()) {
+                    // the server answered a conditional GET with a not modified status, so the document is unchanged
+                    manifest.keep(sourceDocument.source());
+                    skippedDocuments++;
+                    continue;
+                }
+
+                metadataMap.forEach((k, v) -> sourceDocument.document().metadata().put(k, v));
+
+                if (manifest != null) {
+                    String hash = IngestionManifest.hash(sourceDocument.document());
+                    if (manifest.keepIfUnchanged(sourceDocument, hash)) {
+                        skippedDocuments++;
+                        continue;
+                    }
+                    manifest.register(sourceDocument, hash);
+                }
+
+                pipeline.ingest(sourceDocument, index);
+            }
+            pipeline.flush();
+
+            int removedSegments = 0;
+            if (manifest != null) {
+                // stale segments are removed last, so a failed ingestion never removes segments without replacing them
+                List<String> staleSegments = manifest.staleSegments();
+                if (!staleSegments.isEmpty()) {
+                    embeddingStore.removeAll(staleSegments);
+                    removedSegments = staleSegments.size();
+                }
+                manifest.save(kvStore, rManifestKvName);
+            }
+
+            if (rCheckpoint) {
+                IngestionCheckpoint.delete(kvStore, rCheckpointKvName);
+            }
 
-        runContext.metric(Counter.of("indexedDocuments", documents.size()));
-        if (result.tokenUsage() != null) {
-            if (result.tokenUsage().inputTokenCount() != null) {
-                runContext.metric(Counter.of("inputTokenCount", result.tokenUsage().inputTokenCount()));
+            return output(runContext, pipeline, skippedDocuments, removedSegments);
+        } finally {
+            // even a failed ingestion may have changed the store
+            SearchResultCache.invalidate(storeKey);
+            embeddings.close(runContext);
+            if (embeddingCache != null) {
+                embeddingCache.close(runContext);
             }
-            if (result.tokenUsage().outputTokenCount() != null) {
-                runContext.metric(Counter.of("outputTokenCount", result.tokenUsage().outputTokenCount()));
+        }
+    }
+
+    private Output output(RunContext runContext, IngestionPipeline pipeline, int skippedDocuments, int removedSegments) throws IOException, IllegalVariableEvaluationException {
+        TokenUsage tokenUsage = pipeline.getTokenUsage();
+        runContext.metric(Counter.of("indexedDocuments", pipeline.getDocumentCount()));
+        runContext.metric(Counter.of("indexedSegments", pipeline.getSegmentCount()));
+        runContext.metric(Counter.of("skippedDocuments", skippedDocuments));
+        runContext.metric(Counter.of("removedSegments", removedSegments));
+        runContext.metric(Counter.of("droppedSegments", pipeline.getDroppedSegmentCount()));
+        if (tokenUsage != null) {
+            if (tokenUsage.inputTokenCount() != null) {
+                runContext.metric(Counter.of("inputTokenCount", tokenUsage.inputTokenCount()));
             }
-            if (result.tokenUsage().totalTokenCount() != null) {
-                runContext.metric(Counter.of("totalTokenCount", result.tokenUsage().totalTokenCount()));
+            if (tokenUsage.outputTokenCount() != null) {
+                runContext.metric(Counter.of("outputTokenCount", tokenUsage.outputTokenCount()));
+            }
+            if (tokenUsage.totalTokenCount() != null) {
+                runContext.metric(Counter.of("totalTokenCount", tokenUsage.totalTokenCount()));
             }
         }
 
         var output = Output.builder()
-            .ingestedDocuments(documents.size())
+            .ingestedDocuments(pipeline.getDocumentCount())
+            .skippedDocuments(skippedDocuments)
+            .removedSegments(removedSegments)
+            .droppedSegments(pipeline.getDroppedSegmentCount())
             .embeddingStoreOutputs(embeddings.outputs(runContext));
 
-        if (result.tokenUsage() != null) {
-            output = output.inputTokenCount(result.tokenUsage().inputTokenCount())
-                .outputTokenCount(result.tokenUsage().outputTokenCount())
-                .totalTokenCount(result.tokenUsage().totalTokenCount());
+        if (tokenUsage != null) {
+            output = output.inputTokenCount(tokenUsage.inputTokenCount())
+                .outputTokenCount(tokenUsage.outputTokenCount())
+                .totalTokenCount(tokenUsage.totalTokenCount());
         }
 
         return output.build();
     }
 
+    private UrlDocumentFetcher urlDocumentFetcher(RunContext runContext) throws IllegalVariableEvaluationException {
+        return UrlDocumentFetcher.builder()
+            .maxConcurrency(runContext.render(externalURLsConfiguration.maxConcurrency).as(Integer.class).orElseThrow())
+            .maxConcurrencyPerHost(runContext.render(externalURLsConfiguration.maxConcurrencyPerHost).as(Integer.class).orElseThrow())
+            .connectTimeout(runContext.render(externalURLsConfiguration.connectTimeout).as(Duration.class).orElseThrow())
+            .requestTimeout(runContext.render(externalURLsConfiguration.requestTimeout).as(Duration.class).orElseThrow())
+            .contentParser(parsing.contentParser(runContext))
+            .build();
+    }
+
+    private Stream<SourceDocument> loadDocuments(RunContext runContext, UrlDocumentFetcher urlFetcher, IngestionManifest manifest) throws IllegalVariableEvaluationException, IOException {
+        DocumentContentParser contentParser = parsing.contentParser(runContext);
+        Stream<SourceDocument> pathDocuments = runContext.render(fromPath).as(String.class)
+            .map(throwFunction(path -> {
+                // we restrict to documents on the working directory*
+                // resolve protects from path traversal (CWE-22), see: https://cwe.mitre.org/data/definitions/22.html
+                Path finalPath = runContext.workingDir().resolve(Path.of(path));
+                return Files.walk(finalPath)
+                    .filter(Files::isRegularFile)
+                    .map(file -> loadDocument(runContext, contentParser, file))
+                    .filter(Objects::nonNull);
+            }))
+            .orElseGet(Stream::empty);
+
+        // inline documents are identified by their id, or by their content so inserting a document doesn't change the source of the next ones
+        Map<String, Integer> inlineOccurrences = new HashMap<>();
+        Stream<SourceDocument> inlineDocuments = ListUtils.emptyOnNull(fromDocuments).stream()
+            .map(throwFunction(inlineDocument -> {
+                Map<String, Object> metadata = runContext.render(inlineDocument.metadata).asMap(String.class, Object.class);
+                Document document = Document.document(runContext.render(inlineDocument.content).as(String.class).orElseThrow(), Metadata.from(metadata));
+                String source = "inline:" + runContext.render(inlineDocument.id).as(String.class).orElseGet(() -> IngestionManifest.hash(document));
+                // identical documents are distinct sources
+                int occurrence = inlineOccurrences.merge(source, 1, Integer::sum);
+                return new SourceDocument(occurrence == 1 ? source : source + "#" + occurrence, document);
+            }));
+
+        var rFormat = runContext.render(internalURIsConfiguration.format).as(InternalURIsConfiguration.Format.class).orElseThrow();
+        var rCharset = Charset.forName(runContext.render(internalURIsConfiguration.charset).as(String.class).orElseThrow());
+        var rMaxDocumentSize = runContext.render(internalURIsConfiguration.maxDocumentSizeInChars).as(Integer.class).orElseThrow();
+        var rTextColumn = runContext.render(internalURIsConfiguration.textColumn).as(String.class).orElseThrow();
+        var rMetadataColumns = runContext.render(internalURIsConfiguration.metadataColumns).asList(String.class);
+        Stream<SourceDocument> internalStorageDocuments = runContext.render(fromInternalURIs).asList(String.class).stream()
+            .flatMap(throwFunction(uri -> {
+                InputStream file = runContext.storage().getFile(URI.create(uri));
+                return switch (rFormat) {
+                    case TEXT -> StorageDocumentLoader.text(uri, file, rCharset, rMaxDocumentSize);
+                    case ION -> StorageDocumentLoader.ion(uri, file, rCharset, rTextColumn, rMetadataColumns);
+                };
+            }));
+
+        // conditional GETs are only possible when the previous ingestion is known
+        Stream<SourceDocument> externalDocuments = urlFetcher.fetch(
+            runContext.render(fromExternalURLs).asList(String.class),
+            manifest != null ? manifest::previousEntry : null
+        );
+
+        return Stream.of(pathDocuments, inlineDocuments, internalStorageDocuments, externalDocuments).flatMap(Function.identity());
+    }
+
+    private static SourceDocument loadDocument(RunContext runContext, DocumentContentParser contentParser, Path file) {
+        // same behavior as FileSystemDocumentLoader.loadDocumentsRecursively(): blank and unparseable files are skipped
+        try {
+            return new SourceDocument(runContext.workingDir().path().relativize(file).toString(), FileSystemDocumentLoader.loadDocument(file, contentParser.parserFor(file.getFileName().toString(), null)));
+        } catch (BlankDocumentException e) {
+            return null;
+        } catch (Exception e) {
+            runContext.logger().warn("Unable to load the document '{}', it will be skipped: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
     private dev.langchain4j.data.document.DocumentSplitter from(DocumentSplitter splitter) {
+        if (splitter.getMaxSegmentSizeInTokens() != null) {
+            if (splitter.getMaxSegmentSizeInChars() != null) {
+                throw new IllegalArgumentException("Only one of `maxSegmentSizeInChars` and `maxSegmentSizeInTokens` can be set on the document splitter");
+            }
+
+            int maxSegmentSize = splitter.getMaxSegmentSizeInTokens();
+            int maxOverlapSize = splitter.getMaxOverlapSizeInTokens() != null ? splitter.getMaxOverlapSizeInTokens() : 0;
+            TokenCountEstimator tokenizer = new OpenAiTokenCountEstimator(splitter.getTokenizer().modelName);
+            return switch (splitter.splitter) {
+                case RECURSIVE -> DocumentSplitters.recursive(maxSegmentSize, maxOverlapSize, tokenizer);
+                case PARAGRAPH -> new DocumentByParagraphSplitter(maxSegmentSize, maxOverlapSize, tokenizer);
+                case LINE -> new DocumentByLineSplitter(maxSegmentSize, maxOverlapSize, tokenizer);
+                case SENTENCE -> new DocumentBySentenceSplitter(maxSegmentSize, maxOverlapSize, tokenizer);
+                case WORD -> new DocumentByWordSplitter(maxSegmentSize, maxOverlapSize, tokenizer);
+            };
+        }
+
+        if (splitter.getMaxSegmentSizeInChars() == null) {
+            throw new IllegalArgumentException("One of `maxSegmentSizeInChars` and `maxSegmentSizeInTokens` must be set on the document splitter");
+        }
+
+        int maxSegmentSize = splitter.getMaxSegmentSizeInChars();
+        int maxOverlapSize = splitter.getMaxOverlapSizeInChars() != null ? splitter.getMaxOverlapSizeInChars() : 0;
         return switch (splitter.splitter) {
-            case RECURSIVE -> DocumentSplitters.recursive(splitter.getMaxSegmentSizeInChars(), splitter.getMaxOverlapSizeInChars());
-            case PARAGRAPH -> new DocumentByParagraphSplitter(splitter.getMaxSegmentSizeInChars(), splitter.getMaxOverlapSizeInChars());
-            case LINE -> new DocumentByLineSplitter(splitter.getMaxSegmentSizeInChars(), splitter.getMaxOverlapSizeInChars());
-            case SENTENCE -> new DocumentBySentenceSplitter(splitter.getMaxSegmentSizeInChars(), splitter.getMaxOverlapSizeInChars());
-            case WORD -> new DocumentByWordSplitter(splitter.getMaxSegmentSizeInChars(), splitter.getMaxOverlapSizeInChars());
+            case RECURSIVE -> DocumentSplitters.recursive(maxSegmentSize, maxOverlapSize);
+            case PARAGRAPH -> new DocumentByParagraphSplitter(maxSegmentSize, maxOverlapSize);
+            case LINE -> new DocumentByLineSplitter(maxSegmentSize, maxOverlapSize);
+            case SENTENCE -> new DocumentBySentenceSplitter(maxSegmentSize, maxOverlapSize);
+            case WORD -> new DocumentByWordSplitter(maxSegmentSize, maxOverlapSize);
         };
     }
 
@@ -207,6 +512,12 @@ public class IngestDocument extends Task implements RunnableTask<IngestDocument.
     @NoArgsConstructor
     @AllArgsConstructor
     public static class InlineDocument {
+        @Schema(
+            title = "The identifier of the document for incremental ingestion",
+            description = "It defaults to the hash of the content and metadata of the document, so documents can be added, removed or reordered without ingesting the other documents again."
+        )
+        private Property<String> id;
+
         @NotNull
         @Schema(title = "The content of the document")
         private Property<String> content;
@@ -215,6 +526,143 @@ public class IngestDocument extends Task implements RunnableTask<IngestDocument.
         private Property<Map<String, Object>> metadata;
     }
 
+    @Getter
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class InternalURIsConfiguration {
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The format of the files",
+            description = "`TEXT` files are ingested as text documents, `ION` files are ingested as one document per row."
+        )
+        private Property<Format> format = Property.ofValue(Format.TEXT);
+
+        @NotNull
+        @Builder.Default
+        @Schema(title = "The charset of the files")
+        private Property<String> charset = Property.ofValue("UTF-8");
+
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The maximum size of a document read from a `TEXT` file, it is defined in characters",
+            description = "Larger files are ingested as multiple documents, cut on line boundaries, so a file is never fully loaded in memory."
+        )
+        private Property<Integer> maxDocumentSizeInChars = Property.ofValue(1_000_000);
+
+        @NotNull
+        @Builder.Default
+        @Schema(title = "The column containing the text of the document, for `ION` files")
+        private Property<String> textColumn = Property.ofValue("text");
+
+        @Schema(title = "The columns added as metadata of the document, for `ION` files")
+        private Property<List<String>> metadataColumns;
+
+        enum Format {
+            TEXT,
+            ION
+        }
+    }
+
+    @Getter
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ExternalURLsConfiguration {
+        @NotNull
+        @Builder.Default
+        @Schema(title = "The maximum number of URLs fetched concurrently")
+        private Property<Integer> maxConcurrency = Property.ofValue(8);
+
+        @NotNull
+        @Builder.Default
+        @Schema(title = "The maximum number of URLs of the same host fetched concurrently")
+        private Property<Integer> maxConcurrencyPerHost = Property.ofValue(4);
+
+        @NotNull
+        @Builder.Default
+        @Schema(title = "The timeout to connect to a host")
+        private Property<Duration> connectTimeout = Property.ofValue(Duration.ofSeconds(10));
+
+        @NotNull
+        @Builder.Default
+        @Schema(title = "The timeout to fetch a document, from the request until the response headers are received")
+        private Property<Duration> requestTimeout = Property.ofValue(Duration.ofSeconds(30));
+    }
+
+    @Getter
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DocumentParsing {
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "Whether to only ingest the main content of HTML documents",
+            description = """
+                HTML documents are detected by their content type or their file extension.
+                When enabled, scripts, styles, forms and navigation are removed, only the `main` or `article` element is kept if the page has one, otherwise the header, footer and sidebars are removed.
+                The remaining markup is converted to text that keeps the headings, paragraphs and list items, which drastically reduces the number of tokens per page.
+                When disabled, HTML documents are ingested as is."""
+        )
+        private Property<Boolean> htmlMainContent = Property.ofValue(Boolean.FALSE);
+
+        @Schema(
+            title = "A CSS selector of the main content of HTML documents",
+            description = "When set, and an element matches it, it's used instead of the `main` or `article` element."
+        )
+        private Property<String> htmlContentSelector;
+
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "Whether to normalize Markdown documents",
+            description = """
+                Markdown documents are detected by their content type or their file extension.
+                When enabled, front matter, HTML tags and comments, link and image targets, bold markers and table separators are removed, code blocks are kept as is."""
+        )
+        private Property<Boolean> normalizeMarkdown = Property.ofValue(Boolean.FALSE);
+
+        DocumentContentParser contentParser(RunContext runContext) throws IllegalVariableEvaluationException {
+            return DocumentContentParser.builder()
+                .htmlMainContent(runContext.render(htmlMainContent).as(Boolean.class).orElseThrow())
+                .contentSelector(runContext.render(htmlContentSelector).as(String.class).orElse(null))
+                .normalizeMarkdown(runContext.render(normalizeMarkdown).as(Boolean.class).orElseThrow())
+                .build();
+        }
+    }
+
+    @Getter
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SegmentDeduplication {
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "Whether to also drop near-duplicated segments",
+            description = """
+                Exact duplicates, ignoring whitespaces, are always dropped.
+                Near-duplicates are detected with MinHash signatures of the word shingles of each segment and locality-sensitive hashing, they are segments whose estimated similarity with a previous segment is at least `similarityThreshold`."""
+        )
+        private Property<Boolean> nearDuplicates = Property.ofValue(Boolean.FALSE);
+
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The similarity, between 0 and 1, from which a segment is a near-duplicate of a previous one",
+            description = "It estimates the Jaccard similarity of the sets of 3-word shingles of both segments."
+        )
+        private Property<Double> similarityThreshold = Property.ofValue(0.9);
+
+        SegmentDeduplicator segmentDeduplicator(RunContext runContext) throws IllegalVariableEvaluationException {
+            var rNearDuplicates = runContext.render(nearDuplicates).as(Boolean.class).orElseThrow();
+            return new SegmentDeduplicator(rNearDuplicates ? runContext.render(similarityThreshold).as(Double.class).orElseThrow() : null);
+        }
+    }
+
     @Getter
     @Builder
     @NoArgsConstructor
@@ -231,14 +679,37 @@ public class IngestDocument extends Task implements RunnableTask<IngestDocument.
         )
         private Type splitter = Type.RECURSIVE;
 
-        @NotNull
-        @Schema(title = "The maximum size of the segment, it is defined in characters.")
+        @Schema(
+            title = "The maximum size of the segment, it is defined in characters.",
+            description = "Either `maxSegmentSizeInChars` or `maxSegmentSizeInTokens` must be set."
+        )
         private Integer maxSegmentSizeInChars;
 
-        @NotNull
         @Schema(title = "The maximum size of the overlap, it is defined in characters. Only full sentences are considered for the overlap.")
         private Integer maxOverlapSizeInChars;
 
+        @Schema(
+            title = "The maximum size of the segment, it is defined in tokens.",
+            description = """
+                Segments are packed with as much text as possible up to this number of tokens, as counted by the `tokenizer`.
+                Set it slightly below the input limit of the embedding model to get fewer and fuller segments, so fewer embedding requests and vectors to search."""
+        )
+        private Integer maxSegmentSizeInTokens;
+
+        @Schema(title = "The maximum size of the overlap, it is defined in tokens. Only full sentences are considered for the overlap.")
+        private Integer maxOverlapSizeInTokens;
+
+        @NotNull
+        @Builder.Default
+        @Schema(
+            title = "The OpenAI tokenizer used to count tokens when the sizes are defined in tokens",
+            description = """
+                Only OpenAI tokenizers are available, tokens are counted locally: choose the one of the OpenAI embedding model.
+                Embedding models of other providers, like Gemini, Mistral AI or Ollama models, have their own tokenizer that can count more tokens for the same text,
+                so with them the count is only an approximation: keep a margin of about 20% below the model input limit."""
+        )
+        private Tokenizer tokenizer = Tokenizer.CL100K_BASE;
+
         enum Type {
             @Schema(title = """
                 Splits the document into paragraphs first and fits as many paragraphs into a single TextSegment as possible.
@@ -265,6 +736,21 @@ public class IngestDocument extends Task implements RunnableTask<IngestDocument.
                 Word boundaries are detected by a minimum of one space (" ").""")
             WORD
         }
+
+        enum Tokenizer {
+            @Schema(title = "The tokenizer of the OpenAI `text-embedding-3` and `text-embedding-ada-002` embedding models, and of GPT-4 and GPT-3.5 models.")
+            CL100K_BASE("text-embedding-3-small"),
+
+            @Schema(title = "The tokenizer of the OpenAI GPT-4o, GPT-4.1 and o-series models.")
+            O200K_BASE("gpt-4o");
+
+            // a model name using this tokenizer, as the token count estimator resolves tokenizers by model name
+            private final String modelName;
+
+            Tokenizer(String modelName) {
+                this.modelName = modelName;
+            }
+        }
     }
 
     @Getter
@@ -273,6 +759,15 @@ public class IngestDocument extends Task implements RunnableTask<IngestDocument.
         @Schema(title = "The number of ingested documents")
         private Integer ingestedDocuments;
 
+        @Schema(title = "The number of documents skipped because they didn't change since the previous incremental ingestion")
+        private Integer skippedDocuments;
+
+        @Schema(title = "The number of segments removed from the embedding store because their source changed or was removed since the previous incremental ingestion")
+        private Integer removedSegments;
+
+        @Schema(title = "The number of duplicated segments dropped before being embedded, when `deduplication` is set")
+        private Integer droppedSegments;
+
         @Schema(title = "The input token count")
         private Integer inputTokenCount;
 
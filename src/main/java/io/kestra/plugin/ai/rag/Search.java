@@ -1,8 +1,11 @@
 package io.kestra.plugin.ai.rag;
 
 import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.store.embedding.EmbeddingMatch;
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.models.annotations.Example;
 import io.kestra.core.models.annotations.Plugin;
 import io.kestra.core.models.annotations.PluginProperty;
@@ -13,8 +16,13 @@ import io.kestra.core.models.tasks.Task;
 import io.kestra.core.models.tasks.common.FetchType;
 import io.kestra.core.runners.RunContext;
 import io.kestra.core.serializers.FileSerde;
+import io.kestra.plugin.ai.domain.EmbeddingCache;
 import io.kestra.plugin.ai.domain.EmbeddingStoreProvider;
 import io.kestra.plugin.ai.domain.ModelProvider;
+import io.kestra.plugin.ai.domain.SearchCache;
+import io.kestra.plugin.ai.rag.internal.BatchSearch;
+import io.kestra.plugin.ai.rag.internal.MetadataFilters;
+import io.kestra.plugin.ai.rag.internal.SearchResultCache;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotNull;
 import lombok.*;
@@ -22,15 +30,18 @@ import lombok.experimental.SuperBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.FluxSink;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static io.kestra.core.models.tasks.common.FetchType.NONE;
+import static io.kestra.core.utils.Rethrow.throwRunnable;
 
 @SuperBuilder
 @Getter
@@ -73,19 +84,119 @@ import static io.kestra.core.models.tasks.common.FetchType.NONE;
                     fetchType: FETCH
                 """
         ),
+        @Example(
+            full = true,
+            title = "Search an embedding store for each query of an ION file, the matches are written to an ION file.",
+            code = """
+                id: batch_search_embeddings_flow
+                namespace: company.team
+
+                inputs:
+                  - id: queries
+                    type: FILE
+
+                tasks:
+                  - id: search
+                    type: io.kestra.plugin.ai.rag.Search
+                    provider:
+                      type: io.kestra.plugin.ai.provider.GoogleGemini
+                      modelName: gemini-embedding-exp-03-07
+                      apiKey: "{{ secret('GEMINI_API_KEY') }}"
+                    embeddings:
+                      type: io.kestra.plugin.ai.embeddings.KestraKVStore
+                    queriesFrom: "{{ inputs.queries }}"
+                    queryColumn: question
+                    maxResults: 5
+                    minScore: 0.5
+                    maxConcurrency: 4
+                """
+        ),
+        @Example(
+            full = true,
+            title = "Search only the segments of a tenant, the filter on their metadata is applied by the embedding store.",
+            code = """
+                id: filtered_search_embeddings_flow
+                namespace: company.team
+
+                inputs:
+                  - id: tenant
+                    type: STRING
+
+                tasks:
+                  - id: search
+                    type: io.kestra.plugin.ai.rag.Search
+                    provider:
+                      type: io.kestra.plugin.ai.provider.GoogleGemini
+                      modelName: gemini-embedding-exp-03-07
+                      apiKey: "{{ secret('GEMINI_API_KEY') }}"
+                    embeddings:
+                      type: io.kestra.plugin.ai.embeddings.PGVector
+                      host: localhost
+                      port: 5432
+                      user: "{{ secret('POSTGRES_USER') }}"
+                      password: "{{ secret('POSTGRES_PASSWORD') }}"
+                      database: postgres
+                      table: embeddings
+                    query: "Feature Highlights"
+                    filter:
+                      tenant: "{{ inputs.tenant }}"
+                      year:
+                        gte: 2024
+                    maxResults: 5
+                    minScore: 0.5
+                    fetchType: FETCH
+                """
+        ),
     },
     aliases = "io.kestra.plugin.langchain4j.rag.Search"
 )
 @Schema(
     title = "Search from an embedding store",
-    description = "Performs a semantic search using a query string"
+    description = """
+        Performs a semantic search using a query string.
+        To evaluate many queries in a single task, set `queries` or `queriesFrom` instead of `query`: queries are embedded by batches and searched concurrently,
+        and their matches are written to an ION file of rows with the `query`, the `rank` of the match starting at 1, its `score`, and the `id`, `text` and `metadata` of the matching segment."""
 )
 public class Search extends Task implements RunnableTask<Search.Output> {
 
-    @Schema(title = "Query string to search for")
-    @NotNull
+    @Schema(
+        title = "Query string to search for",
+        description = "Exactly one of `query`, `queries` and `queriesFrom` must be set."
+    )
     private Property<String> query;
 
+    @Schema(
+        title = "Query strings to search for, in batch mode",
+        description = "The matches of all the queries are written to an ION file, `fetchType` is ignored."
+    )
+    private Property<List<String>> queries;
+
+    @Schema(
+        title = "The internal storage URI of an ION file of queries to search for, in batch mode",
+        description = "Each row is either a query string or a map with the query in `queryColumn`, blank queries are skipped. The file is read as the queries are searched, so it's never fully loaded in memory."
+    )
+    private Property<String> queriesFrom;
+
+    @Schema(title = "The column containing the query, when the rows of `queriesFrom` are maps")
+    @NotNull
+    @Builder.Default
+    private Property<String> queryColumn = Property.ofValue("query");
+
+    @Schema(
+        title = "The maximum number of queries embedded in a single request to the embedding model, in batch mode"
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> batchSize = Property.ofValue(64);
+
+    @Schema(
+        title = "The maximum number of batches of queries embedded and searched concurrently, in batch mode",
+        description = "Increase it to overlap the calls to the embedding model and to the embedding store, as long as their rate limits allow it."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<Integer> maxConcurrency = Property.ofValue(4);
+
     @Schema(title = "Maximum number of results to return")
     @NotNull
     private Property<Integer> maxResults;
@@ -94,6 +205,14 @@ public class Search extends Task implements RunnableTask<Search.Output> {
     @NotNull
     private Property<Double> minScore;
 
+    @Schema(
+        title = "Metadata filter",
+        description = """
+            A map of conditions on the metadata of the segments that must all match: a metadata key is mapped to the value it must be equal to, or to operators among `eq`, `ne`, `gt`, `gte`, `lt`, `lte`, `in` and `nin`.
+            `$and` and `$or` combine a list of filters, `$not` negates a filter. Values are compared with their type, wrap a value or a list of values rendered from an expression in `$number` to compare them as numbers, for example `gte: { $number: "{{ inputs.year }}" }`. The filter is applied by the embedding store itself, so only the matching segments are scored, but not all stores support all filters."""
+    )
+    private Property<Map<String, Object>> filter;
+
     @Schema(title = "The embedding model provider")
     @NotNull
     @PluginProperty
@@ -104,32 +223,74 @@ public class Search extends Task implements RunnableTask<Search.Output> {
     @PluginProperty
     private EmbeddingStoreProvider embeddings;
 
+    @Schema(
+        title = "Embedding cache",
+        description = "When set, embeddings are cached by model and text so identical texts are embedded only once, see `EmbeddingCache`."
+    )
+    @PluginProperty
+    private EmbeddingCache embeddingCache;
+
+    @Schema(
+        title = "Search result cache",
+        description = "When set, the matches of a single `query` are cached, so repeated queries skip the query embedding and the store search, see `SearchCache`. Batch searches are never cached."
+    )
+    @PluginProperty
+    private SearchCache searchCache;
+
+    @Schema(
+        title = "How the results are returned",
+        description = """
+            `FETCH` and `FETCH_ONE` return the texts of the matching segments. `STORE` writes the matches to an ION file as they're read,
+            one row per match with its `rank` starting at 1, its `score`, and the `id`, `text` and `metadata` of the matching segment."""
+    )
     @NotNull
     @Builder.Default
     protected Property<FetchType> fetchType = Property.ofValue(NONE);
 
     @Override
     public Output run(RunContext runContext) throws Exception {
-        var embeddingModel = provider.embeddingModel(runContext);
+        long inputs = Stream.of(query, queries, queriesFrom).filter(Objects::nonNull).count();
+        if (inputs != 1) {
+            throw new IllegalArgumentException("Exactly one of `query`, `queries` and `queriesFrom` must be set.");
+        }
+
+        var embeddingModel = provider.embeddingModel(runContext, embeddingCache);
         var store = embeddings.embeddingStore(runContext, embeddingModel.dimension(), false);
+        try {
+            return query == null ? batchSearch(runContext, embeddingModel, store) : search(runContext, embeddingModel, store);
+        } finally {
+            embeddings.close(runContext);
+            if (embeddingCache != null) {
+                embeddingCache.close(runContext);
+            }
+        }
+    }
 
+    private Output search(RunContext runContext, EmbeddingModel embeddingModel, EmbeddingStore<TextSegment> store) throws Exception {
         var renderedQuery = runContext.render(query).as(String.class).orElseThrow();
-        var embedding = embeddingModel.embed(renderedQuery).content();
-
-        var request = EmbeddingSearchRequest.builder()
-            .queryEmbedding(embedding)
-            .maxResults(runContext.render(maxResults).as(Integer.class).orElseThrow())
-            .minScore(runContext.render(minScore).as(Double.class).orElseThrow())
-            .build();
+        var rMaxResults = runContext.render(maxResults).as(Integer.class).orElseThrow();
+        var rMinScore = runContext.render(minScore).as(Double.class).orElseThrow();
+        var rFilter = renderFilter(runContext);
+        var metadataFilter = MetadataFilters.toFilter(rFilter);
+        Supplier<List<EmbeddingMatch<TextSegment>>> search = () -> store.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(embeddingModel.embed(renderedQuery).content())
+            .maxResults(rMaxResults)
+            .minScore(rMinScore)
+            .filter(metadataFilter)
+            .build()
+        ).matches();
 
-        var results = store.search(request).matches().stream()
-            .map(EmbeddingMatch::embedded)
-            .map(TextSegment::text)
-            .toList();
+        List<EmbeddingMatch<TextSegment>> matches;
+        if (searchCache != null) {
+            String parameters = String.join("\u0000", provider.embeddingModelIdentity(runContext), String.valueOf(rMaxResults), String.valueOf(rMinScore), String.valueOf(rFilter));
+            matches = searchCache.searchResultCache(runContext, embeddings).get(renderedQuery, parameters, search);
+        } else {
+            matches = search.get();
+        }
 
         Output output;
 
-        int fetchedItemsCount = results.size();
+        int fetchedItemsCount = matches.size();
         var renderedFetchType = runContext.render(this.fetchType).as(FetchType.class).orElse(NONE);
         switch (renderedFetchType) {
             case NONE:
@@ -139,20 +300,20 @@ public class Search extends Task implements RunnableTask<Search.Output> {
                 break;
             case FETCH:
                 output = Output.builder()
-                    .results(results)
-                    .size(results.size())
+                    .results(matches.stream().map(match -> match.embedded().text()).toList())
+                    .size(fetchedItemsCount)
                     .build();
                 runContext.metric(Counter.of("fetch.fetchedItemsCount", fetchedItemsCount));
                 break;
             case FETCH_ONE:
                 output = Output.builder()
-                    .results(List.of(results.getFirst()))
+                    .results(List.of(matches.getFirst().embedded().text()))
                     .size(fetchedItemsCount)
                     .build();
                 runContext.metric(Counter.of("fetch.fetchedItemsCount", fetchedItemsCount));
                 break;
             case STORE:
-                var result = storeResult(results, runContext);
+                var result = storeResult(matches, runContext);
                 int storedItemsCount = result.getValue().intValue();
                 output = Output.builder()
                     .uri(result.getKey())
@@ -167,20 +328,75 @@ public class Search extends Task implements RunnableTask<Search.Output> {
         return output;
     }
 
-    private Map.Entry<URI, Long> storeResult(List<String> results, RunContext runContext) throws IOException {
+    private Output batchSearch(RunContext runContext, EmbeddingModel embeddingModel, EmbeddingStore<TextSegment> store) throws Exception {
         var tempFile = runContext.workingDir().createTempFile(".ion").toFile();
 
         try (
+            var batchSearch = BatchSearch.builder()
+                .embeddingModel(embeddingModel)
+                .embeddingStore(store)
+                .batchSize(runContext.render(batchSize).as(Integer.class).orElseThrow())
+                .maxConcurrency(runContext.render(maxConcurrency).as(Integer.class).orElseThrow())
+                .maxResults(runContext.render(maxResults).as(Integer.class).orElseThrow())
+                .minScore(runContext.render(minScore).as(Double.class).orElseThrow())
+                .filter(MetadataFilters.toFilter(renderFilter(runContext)))
+                .build();
+            Stream<String> rQueries = queries(runContext);
             var output = new BufferedWriter(new FileWriter(tempFile), FileSerde.BUFFER_SIZE)
         ) {
-            var flowable = Flux
-                .create(
-                    s -> {
-                        results.forEach(s::next);
+            // matches are written as soon as the batches of queries are searched, in the order of the queries
+            var flowable = Flux.<Map<String, Object>>create(
+                s -> {
+                    try {
+                        batchSearch.search(rQueries.iterator(), s::next);
                         s.complete();
-                    },
-                    FluxSink.OverflowStrategy.BUFFER
-                );
+                    } catch (RuntimeException e) {
+                        s.error(e);
+                    }
+                },
+                FluxSink.OverflowStrategy.BUFFER
+            );
+
+            var lineCount = FileSerde.writeAll(output, flowable).block();
+            output.flush();
+
+            runContext.metric(Counter.of("search.queries.count", batchSearch.getQueryCount()));
+            runContext.metric(Counter.of("store.fetchedItemsCount", lineCount));
+            return Output.builder()
+                .uri(runContext.storage().putFile(tempFile))
+                .size(lineCount.intValue())
+                .build();
+        }
+    }
+
+    private Map<String, Object> renderFilter(RunContext runContext) throws IllegalVariableEvaluationException {
+        return filter != null ? runContext.render(filter).asMap(String.class, Object.class) : Map.of();
+    }
+
+    private Stream<String> queries(RunContext runContext) throws Exception {
+        if (queries != null) {
+            return runContext.render(queries).asList(String.class).stream();
+        }
+
+        var rQueryColumn = runContext.render(queryColumn).as(String.class).orElseThrow();
+        var rQueriesFrom = runContext.render(queriesFrom).as(String.class).orElseThrow();
+        Reader reader = new BufferedReader(new InputStreamReader(runContext.storage().getFile(URI.create(rQueriesFrom)), StandardCharsets.UTF_8), FileSerde.BUFFER_SIZE);
+        return FileSerde.readAll(reader).toStream()
+            .onClose(throwRunnable(reader::close))
+            .map(row -> row instanceof Map<?, ?> map ? map.get(rQueryColumn) : row)
+            .filter(value -> value instanceof String text && !text.isBlank())
+            .map(String.class::cast);
+    }
+
+    private Map.Entry<URI, Long> storeResult(List<EmbeddingMatch<TextSegment>> matches, RunContext runContext) throws IOException {
+        var tempFile = runContext.workingDir().createTempFile(".ion").toFile();
+
+        try (
+            var output = new BufferedWriter(new FileWriter(tempFile), FileSerde.BUFFER_SIZE)
+        ) {
+            // each row is built when it's written, so only the matches returned by the store are kept in memory
+            var flowable = Flux.range(0, matches.size())
+                .map(index -> BatchSearch.matchRow(index + 1, matches.get(index)));
 
             var count = FileSerde.writeAll(output, flowable);
             var lineCount = count.block();
@@ -203,12 +419,13 @@ public class Search extends Task implements RunnableTask<Search.Output> {
 
         @Schema(
             title = "The output files URI in Kestra's internal storage",
-            description = "Only available when `fetchType` is set to `STORE`"
+            description = "Only available when `fetchType` is set to `STORE`, or in batch mode"
         )
         private final URI uri;
 
         @Schema(
-            title = "The count of the fetched or stored resources"
+            title = "The count of the fetched or stored resources",
+            description = "In batch mode, the number of matches of all the queries."
         )
         private Integer size;
     }
@@ -0,0 +1,159 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Searches an embedding store for many queries: queries are embedded by batches of at most <code>batchSize</code> with a single call to the embedding model,
+ * then each query of the batch is searched in the store, with the same metadata filter if any.
+ * <p>
+ * Up to <code>maxConcurrency</code> batches are embedded and searched in parallel on virtual threads while the next queries are read.
+ * Results are always reported in the order of the queries, and reading blocks when <code>maxConcurrency</code> batches are in flight,
+ * so memory usage depends on the batch size and the concurrency and not on the number of queries.
+ * <p>
+ * Each match is reported as a row with the query, the rank of the match for this query starting at 1, its score, and the identifier, text and metadata of the matching segment.
+ */
+public class BatchSearch implements AutoCloseable {
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final int batchSize;
+    private final int maxConcurrency;
+    private final int maxResults;
+    private final double minScore;
+    private final Filter filter;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Deque<Future<List<Map<String, Object>>>> pending = new ArrayDeque<>();
+
+    @Getter
+    private int queryCount;
+
+    @Getter
+    private int matchCount;
+
+    @Builder
+    private BatchSearch(EmbeddingModel embeddingModel, EmbeddingStore<TextSegment> embeddingStore, int batchSize, int maxConcurrency, int maxResults, double minScore, Filter filter) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1");
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("The maximum concurrency must be at least 1");
+        }
+
+        this.embeddingModel = embeddingModel;
+        this.embeddingStore = embeddingStore;
+        this.batchSize = batchSize;
+        this.maxConcurrency = maxConcurrency;
+        this.maxResults = maxResults;
+        this.minScore = minScore;
+        this.filter = filter;
+    }
+
+    /**
+     * Searches all the queries and reports their matches to <code>rowConsumer</code>, from the calling thread.
+     */
+    public void search(Iterator<String> queries, Consumer<Map<String, Object>> rowConsumer) {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (queries.hasNext()) {
+            batch.add(queries.next());
+            if (batch.size() >= batchSize) {
+                submit(batch, rowConsumer);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            submit(batch, rowConsumer);
+        }
+        while (!pending.isEmpty()) {
+            write(pending.poll(), rowConsumer);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void submit(List<String> batch, Consumer<Map<String, Object>> rowConsumer) {
+        // backpressure: wait for the oldest batch when the maximum number of batches are in flight
+        while (pending.size() >= maxConcurrency) {
+            write(pending.poll(), rowConsumer);
+        }
+
+        queryCount += batch.size();
+        pending.add(executor.submit(() -> searchBatch(batch)));
+
+        // eagerly write the batches that are already searched, keeping the submission order
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            write(pending.poll(), rowConsumer);
+        }
+    }
+
+    private List<Map<String, Object>> searchBatch(List<String> batch) {
+        List<Embedding> embeddings = embeddingModel.embedAll(batch.stream().map(TextSegment::from).toList()).content();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(embeddings.get(i))
+                .maxResults(maxResults)
+                .minScore(minScore)
+                .filter(filter)
+                .build();
+            List<EmbeddingMatch<TextSegment>> matches = embeddingStore.search(request).matches();
+            for (int rank = 0; rank < matches.size(); rank++) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("query", batch.get(i));
+                row.putAll(matchRow(rank + 1, matches.get(rank)));
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The row of a match: its rank starting at 1, its score, and the identifier, text and metadata of the matching segment.
+     */
+    public static Map<String, Object> matchRow(int rank, EmbeddingMatch<TextSegment> match) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("rank", rank);
+        row.put("score", match.score());
+        row.put("id", match.embeddingId());
+        row.put("text", match.embedded() != null ? match.embedded().text() : null);
+        row.put("metadata", match.embedded() != null ? match.embedded().metadata().toMap() : Map.of());
+        return row;
+    }
+
+    private void write(Future<List<Map<String, Object>>> future, Consumer<Map<String, Object>> rowConsumer) {
+        List<Map<String, Object>> rows = await(future);
+        matchCount += rows.size();
+        rows.forEach(rowConsumer);
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the search of a batch of queries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Unable to search a batch of queries", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.List;
+
+/**
+ * A {@link ContentRetriever} decorator that caches the retrieved contents by query text in a {@link SearchResultCache}.
+ */
+public class CachingContentRetriever implements ContentRetriever {
+    private final ContentRetriever delegate;
+    private final SearchResultCache cache;
+    private final String parameters;
+
+    /**
+     * @param parameters all the parameters changing the retrieved contents other than the store and the query, see {@link SearchResultCache#get}
+     */
+    public CachingContentRetriever(ContentRetriever delegate, SearchResultCache cache, String parameters) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.parameters = parameters;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        return cache.get(query.text(), parameters, () -> delegate.retrieve(query));
+    }
+}
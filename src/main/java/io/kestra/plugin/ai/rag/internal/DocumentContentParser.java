@@ -0,0 +1,231 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.document.BlankDocumentException;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import lombok.Builder;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses how to parse a document from its name and its content type.
+ * <p>
+ * HTML documents can be reduced to their main content: scripts, styles, navigation and page layout are removed and the remaining markup is converted to text.
+ * The HTML is parsed directly from the input stream, without first decoding it fully as a string.
+ * Markdown documents can be normalized: front matter, HTML tags and comments, link and image targets and emphasis markers are removed, code blocks are kept as is.
+ * Other documents are parsed as plain text.
+ */
+public class DocumentContentParser {
+    // elements that never contain content
+    private static final String NOISE = "script, style, noscript, template, svg, canvas, iframe, object, form, button, nav, [role=navigation], [aria-hidden=true], [hidden]";
+    // page layout, only removed when the page has no main content element
+    private static final String LAYOUT = "header, footer, aside, [role=banner], [role=contentinfo], [role=complementary]";
+    private static final String[] MAIN_CONTENT = {"main", "[role=main]", "article"};
+
+    private static final Pattern FRONT_MATTER = Pattern.compile("\\A---\\R.*?\\R---\\R", Pattern.DOTALL);
+    private static final Pattern HTML_COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+    private static final Pattern HTML_TAG = Pattern.compile("</?[a-zA-Z][^>\\n]*>");
+    private static final Pattern IMAGE = Pattern.compile("!\\[([^\\]]*)]\\([^)]*\\)");
+    private static final Pattern LINK = Pattern.compile("\\[([^\\]]+)]\\([^)]*\\)");
+    private static final Pattern LINK_REFERENCE = Pattern.compile("(?m)^ {0,3}\\[[^\\]]+]:\\s+\\S+.*$");
+    private static final Pattern STRONG_EMPHASIS = Pattern.compile("(\\*\\*|__)(\\S.*?)\\1");
+    private static final Pattern TABLE_SEPARATOR = Pattern.compile("(?m)^[ \\t]*\\|?[ \\t]*:?-{3,}:?[ \\t]*(\\|[ \\t]*:?-{3,}:?[ \\t]*)*\\|?[ \\t]*$");
+    private static final Pattern TRAILING_WHITESPACES = Pattern.compile("(?m)[ \\t]+$");
+    private static final Pattern BLANK_LINES = Pattern.compile("\\n{3,}");
+    private static final Pattern CODE_FENCE = Pattern.compile("(?m)^ {0,3}(```|~~~)");
+    private static final Pattern INLINE_CODE = Pattern.compile("(`+)(?!`).*?(?<!`)\\1(?!`)");
+    private static final Pattern INLINE_CODE_PLACEHOLDER = Pattern.compile("\u0000(\\d+)\u0000");
+
+    private final boolean htmlMainContent;
+    private final String contentSelector;
+    private final boolean normalizeMarkdown;
+    private final DocumentParser textParser = new TextDocumentParser();
+
+    @Builder
+    private DocumentContentParser(boolean htmlMainContent, String contentSelector, boolean normalizeMarkdown) {
+        this.htmlMainContent = htmlMainContent;
+        this.contentSelector = contentSelector;
+        this.normalizeMarkdown = normalizeMarkdown;
+    }
+
+    /**
+     * Returns the parser for a document.
+     *
+     * @param name        the name of the document, a file name or an URL path, to detect its type from its extension
+     * @param contentType the MIME type of the document, may be null
+     */
+    public DocumentParser parserFor(String name, String contentType) {
+        String type = contentType != null ? contentType.toLowerCase(Locale.ROOT) : "";
+        String extension = name != null && name.lastIndexOf('.') >= 0 ? name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT) : "";
+
+        if (htmlMainContent && (type.startsWith("text/html") || type.startsWith("application/xhtml") || extension.equals("html") || extension.equals("htm") || extension.equals("xhtml"))) {
+            return inputStream -> parseHtml(inputStream, charset(type));
+        }
+        if (normalizeMarkdown && (type.startsWith("text/markdown") || extension.equals("md") || extension.equals("markdown") || extension.equals("mdx"))) {
+            return inputStream -> {
+                Document document = textParser.parse(inputStream);
+                String text = normalizeMarkdown(document.text());
+                if (text.isBlank()) {
+                    throw new BlankDocumentException();
+                }
+                return Document.from(text, document.metadata());
+            };
+        }
+        return textParser;
+    }
+
+    private Document parseHtml(InputStream inputStream, String charset) {
+        org.jsoup.nodes.Document html;
+        try {
+            // a null charset lets jsoup detect it from the byte order mark or the meta tags
+            html = Jsoup.parse(inputStream, charset, "");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Element root = mainContent(html);
+        root.select(NOISE).remove();
+        if (root == html.body()) {
+            root.select(LAYOUT).remove();
+        }
+
+        String text = toText(root);
+        if (text.isBlank()) {
+            throw new BlankDocumentException();
+        }
+
+        Metadata metadata = new Metadata();
+        if (!html.title().isBlank()) {
+            metadata.put("title", html.title());
+        }
+        return Document.from(text, metadata);
+    }
+
+    private Element mainContent(org.jsoup.nodes.Document html) {
+        if (contentSelector != null) {
+            Element selected = html.selectFirst(contentSelector);
+            if (selected != null) {
+                return selected;
+            }
+        }
+        for (String selector : MAIN_CONTENT) {
+            Element selected = html.selectFirst(selector);
+            if (selected != null) {
+                return selected;
+            }
+        }
+        return html.body();
+    }
+
+    // keep the structure of the page with line breaks between blocks, Markdown-like headings and list items
+    private static String toText(Element root) {
+        StringBuilder text = new StringBuilder();
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof TextNode textNode) {
+                    boolean preformatted = textNode.parent() instanceof Element parent && parent.closest("pre") != null;
+                    text.append(preformatted ? textNode.getWholeText() : textNode.text());
+                } else if (node instanceof Element element) {
+                    String name = element.normalName();
+                    if (name.equals("br")) {
+                        text.append('\n');
+                    } else if (isCell(element)) {
+                        text.append(" | ");
+                    } else if (name.equals("li")) {
+                        // list items stay on consecutive lines
+                        text.append("\n- ");
+                    } else if (element.isBlock()) {
+                        text.append("\n\n");
+                        if (name.length() == 2 && name.charAt(0) == 'h' && Character.isDigit(name.charAt(1))) {
+                            text.append("#".repeat(name.charAt(1) - '0')).append(' ');
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (node instanceof Element element && element.isBlock() && !isCell(element) && !element.normalName().equals("li")) {
+                    text.append("\n\n");
+                }
+            }
+        }, root);
+
+        String result = text.toString()
+            .replaceAll("[ \\t\\u00a0]+\\n", "\n")
+            .replaceAll("\\n[ \\t\\u00a0]+(?=\\S)", "\n");
+        return BLANK_LINES.matcher(result).replaceAll("\n\n").strip();
+    }
+
+    private static boolean isCell(Element element) {
+        return element.normalName().equals("td") || element.normalName().equals("th");
+    }
+
+    /**
+     * Normalizes Markdown outside code blocks to reduce the number of tokens without losing content.
+     */
+    static String normalizeMarkdown(String markdown) {
+        String text = FRONT_MATTER.matcher(markdown).replaceFirst("");
+
+        // code blocks are kept as is, so only the text between code fences is normalized
+        StringBuilder normalized = new StringBuilder();
+        Matcher fences = CODE_FENCE.matcher(text);
+        int start = 0;
+        boolean inCode = false;
+        while (fences.find()) {
+            String chunk = text.substring(start, fences.start());
+            normalized.append(inCode ? chunk : normalizeMarkdownText(chunk));
+            start = fences.start();
+            inCode = !inCode;
+        }
+        String last = text.substring(start);
+        normalized.append(inCode ? last : normalizeMarkdownText(last));
+
+        return BLANK_LINES.matcher(normalized.toString()).replaceAll("\n\n").strip();
+    }
+
+    private static String normalizeMarkdownText(String text) {
+        // inline code spans are kept as is, like code blocks, so they're replaced by placeholders while the text is normalized
+        List<String> codeSpans = new ArrayList<>();
+        text = INLINE_CODE.matcher(text).replaceAll(match -> {
+            codeSpans.add(match.group());
+            return "\u0000" + (codeSpans.size() - 1) + "\u0000";
+        });
+
+        text = HTML_COMMENT.matcher(text).replaceAll("");
+        text = IMAGE.matcher(text).replaceAll("$1");
+        text = LINK.matcher(text).replaceAll("$1");
+        text = LINK_REFERENCE.matcher(text).replaceAll("");
+        text = HTML_TAG.matcher(text).replaceAll("");
+        text = STRONG_EMPHASIS.matcher(text).replaceAll("$2");
+        text = TABLE_SEPARATOR.matcher(text).replaceAll("");
+        text = TRAILING_WHITESPACES.matcher(text).replaceAll("");
+
+        return INLINE_CODE_PLACEHOLDER.matcher(text).replaceAll(match -> Matcher.quoteReplacement(codeSpans.get(Integer.parseInt(match.group(1)))));
+    }
+
+    private static String charset(String contentType) {
+        int index = contentType.indexOf("charset=");
+        if (index < 0) {
+            return null;
+        }
+        String charset = contentType.substring(index + "charset=".length()).split(";")[0].trim();
+        return charset.replace("\"", "").isEmpty() ? null : charset.replace("\"", "");
+    }
+}
@@ -0,0 +1,46 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import io.kestra.core.exceptions.ResourceExpiredException;
+import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.core.storages.kv.KVMetadata;
+import io.kestra.core.storages.kv.KVStore;
+import io.kestra.core.storages.kv.KVValue;
+import io.kestra.core.storages.kv.KVValueAndMetadata;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * The progress of an ingestion: the position of the last segment written to the embedding store,
+ * and the state of the incremental ingestion manifest, if any, at this position.
+ * <p>
+ * It's stored in the K/V store after each written batch so a retry of the same execution resumes after the last written batch.
+ */
+public record IngestionCheckpoint(IngestionPipeline.Position position, IngestionManifest.State manifest) {
+    // abandoned checkpoints, for executions that are never retried, expire
+    private static final Duration TTL = Duration.ofDays(7);
+
+    public static Optional<IngestionCheckpoint> load(KVStore kvStore, String key) throws IOException {
+        Optional<KVValue> value;
+        try {
+            value = kvStore.getValue(key);
+        } catch (ResourceExpiredException ree) {
+            return Optional.empty();
+        }
+
+        if (value.isEmpty() || value.get().value() == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(JacksonMapper.ofJson().readValue(value.get().value().toString(), IngestionCheckpoint.class));
+    }
+
+    public void save(KVStore kvStore, String key) throws IOException {
+        kvStore.put(key, new KVValueAndMetadata(new KVMetadata("Ingestion checkpoint", TTL), JacksonMapper.ofJson().writeValueAsString(this)));
+    }
+
+    public static void delete(KVStore kvStore, String key) throws IOException {
+        kvStore.delete(key);
+    }
+}
@@ -0,0 +1,148 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import dev.langchain4j.data.document.Document;
+import io.kestra.core.exceptions.ResourceExpiredException;
+import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.core.storages.kv.KVStore;
+import io.kestra.core.storages.kv.KVValue;
+import io.kestra.core.storages.kv.KVValueAndMetadata;
+import io.kestra.plugin.ai.AIUtils;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Tracks, for each ingested source, the hash of its content and the identifiers of its segments inside the embedding store.
+ * <p>
+ * The manifest of the previous ingestion is compared with the sources of the current one:
+ * unchanged sources are skipped, and the segments of changed or removed sources are reported as stale so they can be deleted from the store.
+ */
+public class IngestionManifest {
+    private static final TypeReference<Map<String, Entry>> TYPE_REFERENCE = new TypeReference<>() {};
+
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> current = new LinkedHashMap<>();
+
+    private IngestionManifest(Map<String, Entry> previous) {
+        this.previous = previous;
+    }
+
+    public static IngestionManifest empty() {
+        return new IngestionManifest(Collections.emptyMap());
+    }
+
+    public static IngestionManifest load(KVStore kvStore, String key) throws IOException {
+        Optional<KVValue> value;
+        try {
+            value = kvStore.getValue(key);
+        } catch (ResourceExpiredException ree) {
+            // Should not happen as we didn't set any expiry on the KV
+            throw new IOException(ree);
+        }
+
+        if (value.isEmpty() || value.get().value() == null) {
+            return empty();
+        }
+
+        return new IngestionManifest(JacksonMapper.ofJson().readValue(value.get().value().toString(), TYPE_REFERENCE));
+    }
+
+    /**
+     * Restores the manifest of an interrupted ingestion from its state, see {@link #state()}.
+     */
+    public static IngestionManifest restore(State state) {
+        IngestionManifest manifest = new IngestionManifest(state.previous());
+        manifest.current.putAll(state.current());
+        return manifest;
+    }
+
+    /**
+     * The state of an ongoing ingestion, so it can be resumed after a failure.
+     */
+    public State state() {
+        return new State(previous, current);
+    }
+
+    public void save(KVStore kvStore, String key) throws IOException {
+        kvStore.put(key, new KVValueAndMetadata(null, JacksonMapper.ofJson().writeValueAsString(current)));
+    }
+
+    /**
+     * Hash the text and the metadata of a document, any change on one of them will lead to a new ingestion of the document.
+     */
+    public static String hash(Document document) {
+        return AIUtils.sha256(document.text() + '\u0000' + new TreeMap<>(document.metadata().toMap()));
+    }
+
+    /**
+     * The entry of the source in the previous ingestion, or null if the source was not ingested.
+     */
+    public Entry previousEntry(String source) {
+        return previous.get(source);
+    }
+
+    /**
+     * Keeps the segments from the previous ingestion, for a source that is known to be unchanged without loading it again.
+     */
+    public void keep(String source) {
+        Entry entry = previous.get(source);
+        if (entry != null) {
+            current.put(source, entry);
+        }
+    }
+
+    /**
+     * Returns true, and keep the segments from the previous ingestion, if the source didn't change since the previous ingestion.
+     * The HTTP validators of the source are updated as they may change even if the content didn't.
+     */
+    public boolean keepIfUnchanged(SourceDocument sourceDocument, String hash) {
+        Entry entry = previous.get(sourceDocument.source());
+        if (entry != null && entry.hash().equals(hash)) {
+            current.put(sourceDocument.source(), new Entry(hash, entry.ids(), sourceDocument.etag(), sourceDocument.lastModified()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registers a new or changed source, its segments must then be added with {@link #addSegment(String, String)}.
+     * A source already registered with the same hash, by a resumed ingestion, keeps its segments.
+     */
+    public void register(SourceDocument sourceDocument, String hash) {
+        Entry entry = current.get(sourceDocument.source());
+        if (entry != null && entry.hash().equals(hash)) {
+            return;
+        }
+        current.put(sourceDocument.source(), new Entry(hash, new ArrayList<>(), sourceDocument.etag(), sourceDocument.lastModified()));
+    }
+
+    public void addSegment(String source, String segmentId) {
+        current.get(source).ids().add(segmentId);
+    }
+
+    /**
+     * The segments of the sources that have changed or that are no longer part of the ingestion.
+     */
+    public List<String> staleSegments() {
+        List<String> stale = new ArrayList<>();
+        previous.forEach((source, entry) -> {
+            // kept sources have the same segments as their previous entry
+            Entry kept = current.get(source);
+            if (kept == null || !kept.ids().equals(entry.ids())) {
+                stale.addAll(entry.ids());
+            }
+        });
+        return stale;
+    }
+
+    /**
+     * The entries of the previous ingestion, and the entries of the current one registered so far, by source.
+     */
+    public record State(Map<String, Entry> previous, Map<String, Entry> current) {}
+
+    /**
+     * The hash of a source, the identifiers of its segments, and the <code>ETag</code> and <code>Last-Modified</code> HTTP validators for sources fetched from an URL.
+     */
+    public record Entry(String hash, List<String> ids, String etag, String lastModified) {}
+}
@@ -0,0 +1,232 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Ingests documents one at a time: each document is split as soon as it is received,
+ * and its segments are embedded and written to the store in batches of at most <code>batchSize</code> segments.
+ * <p>
+ * Up to <code>maxConcurrency</code> batches are embedded in parallel on virtual threads, while the next documents are loaded and split.
+ * Batches are always written to the store in the order they were created, and ingestion blocks when <code>maxConcurrency</code>
+ * batches are in flight, so memory usage depends on the batch size and the concurrency and not on the corpus size.
+ * <p>
+ * Each written segment is reported to the optional <code>segmentListener</code> with its source and its identifier inside the store.
+ * Identifiers are derived from the source, the hash of the document and the position of the segment, so writing the same segment again,
+ * like a resumed ingestion does for the segments written after the last checkpoint, replaces it instead of duplicating it.
+ * <p>
+ * When a <code>segmentDeduplicator</code> is set, duplicated segments are dropped after splitting, before being embedded.
+ * With <code>deduplicateWithinSource</code>, only the duplicates inside a same document are dropped, so each document owns all its segments,
+ * as needed by incremental ingestion which deletes the segments of a document when it changes.
+ * <p>
+ * After each batch is written, the position of its last segment is reported to the optional <code>checkpointListener</code>.
+ * An interrupted ingestion can be resumed by ingesting the same documents, in the same order, with this position as <code>resumeAfter</code>:
+ * the segments up to this position are then split again but not embedded nor written.
+ */
+public class IngestionPipeline implements AutoCloseable {
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final DocumentSplitter documentSplitter;
+    private final int batchSize;
+    private final int maxConcurrency;
+    private final BiConsumer<String, String> segmentListener;
+    private final SegmentDeduplicator segmentDeduplicator;
+    private final boolean deduplicateWithinSource;
+    private final Position resumeAfter;
+    private final Consumer<Position> checkpointListener;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Deque<PendingBatch> pending = new ArrayDeque<>();
+    private List<TextSegment> batch = new ArrayList<>();
+    private List<String> batchSources = new ArrayList<>();
+    private List<String> batchIds = new ArrayList<>();
+    private Position batchLastPosition;
+
+    @Getter
+    private int documentCount;
+
+    @Getter
+    private int segmentCount;
+
+    @Getter
+    private int droppedSegmentCount;
+
+    @Getter
+    private int resumedSegmentCount;
+
+    @Getter
+    private TokenUsage tokenUsage;
+
+    @Builder
+    private IngestionPipeline(EmbeddingModel embeddingModel, EmbeddingStore<TextSegment> embeddingStore, DocumentSplitter documentSplitter, int batchSize, int maxConcurrency, BiConsumer<String, String> segmentListener, SegmentDeduplicator segmentDeduplicator, boolean deduplicateWithinSource, Position resumeAfter, Consumer<Position> checkpointListener) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1");
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("The maximum concurrency must be at least 1");
+        }
+
+        this.embeddingModel = embeddingModel;
+        this.embeddingStore = embeddingStore;
+        this.documentSplitter = documentSplitter;
+        this.batchSize = batchSize;
+        this.maxConcurrency = maxConcurrency;
+        this.segmentListener = segmentListener;
+        this.segmentDeduplicator = segmentDeduplicator;
+        this.deduplicateWithinSource = deduplicateWithinSource;
+        this.resumeAfter = resumeAfter;
+        this.checkpointListener = checkpointListener;
+    }
+
+    /**
+     * Ingests a document, the <code>documentIndex</code> is its position in the ingested documents, it must be increasing.
+     */
+    public void ingest(SourceDocument sourceDocument, long documentIndex) {
+        documentCount++;
+        if (segmentDeduplicator != null && deduplicateWithinSource) {
+            segmentDeduplicator.reset();
+        }
+
+        // without a splitter, the whole document is a single segment, as done by the EmbeddingStoreIngestor
+        Document document = sourceDocument.document();
+        List<TextSegment> segments = documentSplitter != null ? documentSplitter.split(document) : List.of(document.toTextSegment());
+        String documentHash = IngestionManifest.hash(document);
+        for (int segmentIndex = 0; segmentIndex < segments.size(); segmentIndex++) {
+            TextSegment segment = segments.get(segmentIndex);
+            // resumed segments still go through the deduplicator so it detects the same duplicates as the interrupted ingestion
+            if (segmentDeduplicator != null && segmentDeduplicator.isDuplicate(segment.text())) {
+                droppedSegmentCount++;
+                continue;
+            }
+
+            Position position = new Position(documentIndex, segmentIndex);
+            if (resumeAfter != null && position.compareTo(resumeAfter) <= 0) {
+                resumedSegmentCount++;
+                continue;
+            }
+
+            batch.add(segment);
+            batchSources.add(sourceDocument.source());
+            batchIds.add(segmentId(sourceDocument.source(), documentHash, position));
+            batchLastPosition = position;
+            if (batch.size() >= batchSize) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Embeds and writes the pending segments, must be called once all documents have been ingested.
+     */
+    public void flush() {
+        submit();
+        while (!pending.isEmpty()) {
+            write(pending.poll());
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void submit() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // backpressure: wait for the oldest batch when the maximum number of batches are in flight
+        while (pending.size() >= maxConcurrency) {
+            write(pending.poll());
+        }
+
+        List<TextSegment> segments = batch;
+        List<String> sources = batchSources;
+        List<String> ids = batchIds;
+        batch = new ArrayList<>(batchSize);
+        batchSources = new ArrayList<>(batchSize);
+        batchIds = new ArrayList<>(batchSize);
+        pending.add(new PendingBatch(segments, sources, ids, batchLastPosition, executor.submit(() -> embeddingModel.embedAll(segments))));
+
+        // eagerly write the batches that are already embedded, keeping the submission order
+        while (!pending.isEmpty() && pending.peek().embeddings().isDone()) {
+            write(pending.poll());
+        }
+    }
+
+    private void write(PendingBatch pendingBatch) {
+        Response<List<Embedding>> response = await(pendingBatch.embeddings());
+        embeddingStore.addAll(pendingBatch.ids(), response.content(), pendingBatch.segments());
+        if (segmentListener != null) {
+            for (int i = 0; i < pendingBatch.ids().size(); i++) {
+                segmentListener.accept(pendingBatch.sources().get(i), pendingBatch.ids().get(i));
+            }
+        }
+
+        segmentCount += pendingBatch.segments().size();
+        if (response.tokenUsage() != null) {
+            tokenUsage = tokenUsage == null ? response.tokenUsage() : tokenUsage.add(response.tokenUsage());
+        }
+
+        if (checkpointListener != null) {
+            checkpointListener.accept(pendingBatch.lastPosition());
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the embedding of a batch of segments", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Unable to embed a batch of segments", e.getCause());
+        }
+    }
+
+    /**
+     * The identifier of a segment: a name-based UUID, as some stores only accept UUIDs.
+     * The document hash is part of it, so the segments of a changed document never replace the previous ones before they're removed as stale.
+     */
+    static String segmentId(String source, String documentHash, Position position) {
+        String name = source + '\u0000' + documentHash + '\u0000' + position.document() + '\u0000' + position.segment();
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private record PendingBatch(List<TextSegment> segments, List<String> sources, List<String> ids, Position lastPosition, Future<Response<List<Embedding>>> embeddings) {}
+
+    /**
+     * The position of a segment: the index of its document and its index inside the document.
+     */
+    public record Position(long document, int segment) implements Comparable<Position> {
+        @Override
+        public int compareTo(Position other) {
+            int compare = Long.compare(document, other.document);
+            return compare != 0 ? compare : Integer.compare(segment, other.segment);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.*;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+/**
+ * Translates declarative metadata filters to langchain4j filters, so they're pushed down to the embedding stores that support them.
+ * <p>
+ * A filter is a map of conditions that must all match: each metadata key is mapped either to a value it must be equal to,
+ * or to a map of operators and their values: <code>eq</code>, <code>ne</code>, <code>gt</code>, <code>gte</code>, <code>lt</code>, <code>lte</code>,
+ * <code>in</code> and <code>nin</code> taking a list of values. The <code>$and</code> and <code>$or</code> keys combine a list of filters,
+ * and the <code>$not</code> key negates a filter. For example:
+ * <pre>{@code
+ * tenant: acme
+ * year:
+ *   gte: 2020
+ *   lt: 2025
+ * $or:
+ *   - category: { in: [news, blog] }
+ *   - featured: 1
+ * }</pre>
+ * Values are compared with their type: a string is never converted to a number, as metadata like zip codes are numeric strings.
+ * As expressions are rendered as strings, a value, or a list of values, can be converted to numbers with <code>$number</code>:
+ * <pre>{@code
+ * year:
+ *   gte: { $number: "{{ inputs.year }}" }
+ * }</pre>
+ */
+public final class MetadataFilters {
+    private static final String NUMBER = "$number";
+
+    private MetadataFilters() {
+        // utility class pattern
+    }
+
+    /**
+     * Translates a filter, or returns null if there is no filter.
+     *
+     * @throws IllegalArgumentException if the filter is invalid
+     */
+    public static Filter toFilter(Map<String, ?> filter) {
+        if (filter == null || filter.isEmpty()) {
+            return null;
+        }
+        return filter(filter);
+    }
+
+    private static Filter filter(Map<?, ?> filter) {
+        if (filter.isEmpty()) {
+            throw new IllegalArgumentException("A metadata filter must have at least one condition");
+        }
+
+        List<Filter> conditions = new ArrayList<>(filter.size());
+        filter.forEach((key, value) -> conditions.add(switch (key.toString()) {
+            case "$and" -> combine(filters("$and", value), And::new);
+            case "$or" -> combine(filters("$or", value), Or::new);
+            case "$not" -> new Not(filter(map("$not", value)));
+            default -> value instanceof Map<?, ?> operators && !isNumber(operators)
+                ? operators(key.toString(), operators)
+                : new IsEqualTo(key.toString(), value(key.toString(), value));
+        }));
+        return combine(conditions, And::new);
+    }
+
+    private static Filter operators(String key, Map<?, ?> operators) {
+        if (operators.isEmpty()) {
+            throw new IllegalArgumentException("The metadata filter of '" + key + "' must have at least one operator");
+        }
+
+        List<Filter> conditions = new ArrayList<>(operators.size());
+        operators.forEach((operator, value) -> conditions.add(switch (operator.toString()) {
+            case "eq" -> new IsEqualTo(key, value(key, value));
+            case "ne" -> new IsNotEqualTo(key, value(key, value));
+            case "gt" -> new IsGreaterThan(key, comparable(key, value));
+            case "gte" -> new IsGreaterThanOrEqualTo(key, comparable(key, value));
+            case "lt" -> new IsLessThan(key, comparable(key, value));
+            case "lte" -> new IsLessThanOrEqualTo(key, comparable(key, value));
+            case "in" -> new IsIn(key, collection(key, value));
+            case "nin" -> new IsNotIn(key, collection(key, value));
+            default -> throw new IllegalArgumentException("Unknown metadata filter operator '" + operator + "' for '" + key + "', expected one of eq, ne, gt, gte, lt, lte, in, nin");
+        }));
+        return combine(conditions, And::new);
+    }
+
+    private static List<Filter> filters(String key, Object value) {
+        if (!(value instanceof List<?> list) || list.isEmpty()) {
+            throw new IllegalArgumentException("The metadata filter '" + key + "' must be a non-empty list of filters");
+        }
+        return list.stream().map(filter -> filter(map(key, filter))).toList();
+    }
+
+    private static Map<?, ?> map(String key, Object value) {
+        if (!(value instanceof Map<?, ?> map)) {
+            throw new IllegalArgumentException("The metadata filter '" + key + "' must be a filter, found: " + value);
+        }
+        return map;
+    }
+
+    private static Comparable<?> comparable(String key, Object value) {
+        if (!(value(key, value) instanceof Comparable<?> comparable)) {
+            throw new IllegalArgumentException("The range of the metadata filter of '" + key + "' must be a number or a string, found: " + value);
+        }
+        return comparable;
+    }
+
+    private static Collection<?> collection(String key, Object value) {
+        if (!(value(key, value) instanceof Collection<?> collection)) {
+            throw new IllegalArgumentException("The 'in' and 'nin' metadata filters of '" + key + "' must be lists, found: " + value);
+        }
+        return collection.stream().map(element -> value(key, element)).toList();
+    }
+
+    private static boolean isNumber(Map<?, ?> value) {
+        return value.size() == 1 && value.containsKey(NUMBER);
+    }
+
+    /**
+     * The value of a condition, converted to a number if it's a <code>$number</code>.
+     */
+    private static Object value(String key, Object value) {
+        if (value instanceof Map<?, ?> map && isNumber(map)) {
+            Object number = map.get(NUMBER);
+            return number instanceof Collection<?> collection
+                ? collection.stream().map(element -> number(key, element)).toList()
+                : number(key, number);
+        }
+        return value;
+    }
+
+    /**
+     * Converts a value to a number: a long if it's an integer, otherwise a double.
+     */
+    private static Number number(String key, Object value) {
+        if (value instanceof Number number) {
+            return number;
+        }
+        try {
+            BigDecimal decimal = new BigDecimal(String.valueOf(value).strip());
+            return decimal.stripTrailingZeros().scale() <= 0 ? decimal.longValueExact() : decimal.doubleValue();
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("The '" + NUMBER + "' value of the metadata filter of '" + key + "' must be a number, and integers must fit in a long, found: " + value, e);
+        }
+    }
+
+    private static Filter combine(List<Filter> filters, BinaryOperator<Filter> operator) {
+        return filters.stream().reduce(operator).orElseThrow();
+    }
+}
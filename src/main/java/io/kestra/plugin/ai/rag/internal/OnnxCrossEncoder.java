@@ -0,0 +1,128 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.djl.util.PairList;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.scoring.ScoringModel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cross-encoder scoring model running an ONNX model in-process, like the langchain4j <code>OnnxScoringModel</code>,
+ * but which releases its ONNX session and tokenizer once closed.
+ * <p>
+ * Each query and content pair is tokenized together, truncated to the maximum input length, and scored in a single batch;
+ * the logits are normalized with a sigmoid, so scores are between 0 and 1.
+ * <p>
+ * A model shared by several users is closed by the last of them: each user other than the creator calls {@link #retain()} first, then {@link #close()}.
+ */
+public class OnnxCrossEncoder implements ScoringModel, Closeable {
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final HuggingFaceTokenizer tokenizer;
+    private final boolean tokenTypes;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public OnnxCrossEncoder(Path model, Path tokenizer, int maxInputLength) throws IOException {
+        this.environment = OrtEnvironment.getEnvironment();
+        try {
+            this.session = environment.createSession(model.toString(), new OrtSession.SessionOptions());
+            this.tokenTypes = session.getInputNames().contains("token_type_ids");
+        } catch (OrtException e) {
+            throw new IOException("Unable to load the ONNX model", e);
+        }
+
+        try {
+            this.tokenizer = HuggingFaceTokenizer.newInstance(tokenizer, Map.of(
+                "padding", "true",
+                "truncation", "true",
+                "maxLength", String.valueOf(maxInputLength)
+            ));
+        } catch (IOException | RuntimeException e) {
+            closeSession();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a user of the model, it must close the model once done; returns false if the model is already closed.
+     */
+    public boolean retain() {
+        return references.getAndUpdate(count -> count > 0 ? count + 1 : count) > 0;
+    }
+
+    /**
+     * Removes a user of the model, the ONNX session and the tokenizer are closed with the last one.
+     */
+    @Override
+    public void close() {
+        if (references.decrementAndGet() == 0) {
+            tokenizer.close();
+            closeSession();
+        }
+    }
+
+    @Override
+    public Response<List<Double>> scoreAll(List<TextSegment> segments, String query) {
+        if (segments.isEmpty()) {
+            return Response.from(List.of());
+        }
+
+        Encoding[] encodings = tokenizer.batchEncode(new PairList<>(
+            Collections.nCopies(segments.size(), query),
+            segments.stream().map(TextSegment::text).toList()
+        ));
+        long[][] inputIds = new long[encodings.length][];
+        long[][] attentionMask = new long[encodings.length][];
+        long[][] tokenTypeIds = new long[encodings.length][];
+        for (int i = 0; i < encodings.length; i++) {
+            inputIds[i] = encodings[i].getIds();
+            attentionMask[i] = encodings[i].getAttentionMask();
+            tokenTypeIds[i] = encodings[i].getTypeIds();
+        }
+
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try {
+            inputs.put("input_ids", OnnxTensor.createTensor(environment, inputIds));
+            inputs.put("attention_mask", OnnxTensor.createTensor(environment, attentionMask));
+            if (tokenTypes) {
+                inputs.put("token_type_ids", OnnxTensor.createTensor(environment, tokenTypeIds));
+            }
+
+            try (OrtSession.Result result = session.run(inputs)) {
+                float[][] logits = (float[][]) result.get(0).getValue();
+                List<Double> scores = new ArrayList<>(logits.length);
+                for (float[] logit : logits) {
+                    scores.add(1.0 / (1.0 + Math.exp(-logit[0])));
+                }
+                return Response.from(scores);
+            }
+        } catch (OrtException e) {
+            throw new IllegalStateException("Unable to score the contents with the ONNX model", e);
+        } finally {
+            inputs.values().forEach(OnnxTensor::close);
+        }
+    }
+
+    private void closeSession() {
+        try {
+            session.close();
+        } catch (OrtException e) {
+            throw new IllegalStateException("Unable to close the ONNX session", e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.*;
+
+/**
+ * Merges the contents of several retrievers with reciprocal rank fusion, then keeps the best <code>maxResults</code> contents.
+ * <p>
+ * Each content scores <code>1 / (k + rank)</code> in each list it appears in, ranks starting at 1, and its scores are summed across the lists of all the queries.
+ * Only ranks are used, so lists scored differently, like BM25 and cosine similarity scores, are merged fairly; a higher <code>k</code> gives more weight to the contents found by several retrievers
+ * compared to the first contents of a single retriever.
+ * <p>
+ * Contents are identified by their text segment, and the first content found is kept, so ties are broken in the order of the retrievers.
+ */
+public class ReciprocalRankFusionAggregator implements ContentAggregator {
+    private final int k;
+    private final int maxResults;
+
+    public ReciprocalRankFusionAggregator(int k, int maxResults) {
+        if (k < 0) {
+            throw new IllegalArgumentException("The reciprocal rank fusion k must not be negative");
+        }
+        if (maxResults < 1) {
+            throw new IllegalArgumentException("The maximum number of results must be at least 1");
+        }
+
+        this.k = k;
+        this.maxResults = maxResults;
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        // insertion ordered, so the sort, which is stable, keeps the first content found first on ties
+        Map<TextSegment, Double> scores = new LinkedHashMap<>();
+        Map<TextSegment, Content> contents = new HashMap<>();
+        for (Collection<List<Content>> lists : queryToContents.values()) {
+            for (List<Content> list : lists) {
+                for (int rank = 1; rank <= list.size(); rank++) {
+                    Content content = list.get(rank - 1);
+                    scores.merge(content.textSegment(), 1.0 / (k + rank), Double::sum);
+                    contents.putIfAbsent(content.textSegment(), content);
+                }
+            }
+        }
+
+        return scores.entrySet().stream()
+            .sorted(Map.Entry.<TextSegment, Double>comparingByValue().reversed())
+            .limit(maxResults)
+            .map(entry -> contents.get(entry.getKey()))
+            .toList();
+    }
+}
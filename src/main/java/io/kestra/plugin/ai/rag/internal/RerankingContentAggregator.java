@@ -0,0 +1,65 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.scoring.ScoringModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.*;
+
+/**
+ * Reranks the contents aggregated by another aggregator: each candidate content is scored against the query by a scoring model, like a cross-encoder,
+ * then only the best <code>maxResults</code> contents with a score of at least <code>minScore</code> are kept, best first.
+ * <p>
+ * The candidates are all scored with a single call to the scoring model, and their reranked score is added to their metadata.
+ * Only one query can be reranked, so the contents must not come from several transformed queries.
+ */
+public class RerankingContentAggregator implements ContentAggregator {
+    private final ContentAggregator candidates;
+    private final ScoringModel scoringModel;
+    private final int maxResults;
+    private final double minScore;
+
+    public RerankingContentAggregator(ContentAggregator candidates, ScoringModel scoringModel, int maxResults, double minScore) {
+        if (maxResults < 1) {
+            throw new IllegalArgumentException("The maximum number of results must be at least 1");
+        }
+
+        this.candidates = candidates;
+        this.scoringModel = scoringModel;
+        this.maxResults = maxResults;
+        this.minScore = minScore;
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        if (queryToContents.size() > 1) {
+            throw new IllegalArgumentException("Contents can only be reranked for a single query, found " + queryToContents.size() + " queries");
+        }
+
+        List<Content> contents = candidates.aggregate(queryToContents);
+        if (contents.isEmpty()) {
+            return contents;
+        }
+
+        Query query = queryToContents.keySet().iterator().next();
+        List<TextSegment> segments = contents.stream().map(Content::textSegment).toList();
+        List<Double> scores = scoringModel.scoreAll(segments, query.text()).content();
+
+        List<Content> reranked = new ArrayList<>(contents.size());
+        for (int i = 0; i < contents.size(); i++) {
+            if (scores.get(i) >= minScore) {
+                Map<ContentMetadata, Object> metadata = new EnumMap<>(ContentMetadata.class);
+                metadata.putAll(contents.get(i).metadata());
+                metadata.put(ContentMetadata.RERANKED_SCORE, scores.get(i));
+                reranked.add(Content.from(segments.get(i), metadata));
+            }
+        }
+        return reranked.stream()
+            .sorted(Comparator.comparingDouble((Content content) -> (Double) content.metadata().get(ContentMetadata.RERANKED_SCORE)).reversed())
+            .limit(maxResults)
+            .toList();
+    }
+}
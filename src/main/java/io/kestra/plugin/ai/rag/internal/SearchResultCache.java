@@ -0,0 +1,103 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.ai.AIUtils;
+import io.kestra.plugin.ai.domain.EmbeddingStoreProvider;
+import io.kestra.plugin.ai.internal.LruCache;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Caches the results of the searches of an embedding store, in an in-memory LRU cache shared by all tasks of the worker.
+ * <p>
+ * Results are cached by store, query and search parameters, like the embedding model, the maximum number of results or the filter.
+ * Queries are normalized, so queries differing only by case or whitespaces share their results. Cached results expire after the TTL.
+ * <p>
+ * Each store has a generation that is part of the cache keys: {@link #invalidate(String)} increments it when the store is changed,
+ * so the results cached before are never read again and are evicted first. Only the searches of the same worker are invalidated,
+ * searches of other workers may see stale results until they expire.
+ */
+public class SearchResultCache {
+    private static final LruCache<String, Entry> ENTRIES = new LruCache<>(1_000);
+    private static final Map<String, Long> GENERATIONS = new ConcurrentHashMap<>();
+
+    private final RunContext runContext;
+    private final String store;
+    private final Duration ttl;
+
+    /**
+     * @param store the key of the store, see {@link #storeKey(RunContext, EmbeddingStoreProvider)}
+     * @param maxSize the cache is shared by all tasks of the worker, so it's only grown to this size, see {@link LruCache#grow(int)}
+     */
+    public SearchResultCache(RunContext runContext, String store, int maxSize, Duration ttl) {
+        this.runContext = runContext;
+        this.store = store;
+        this.ttl = ttl;
+
+        ENTRIES.grow(maxSize);
+    }
+
+    /**
+     * Returns the cached results of the query, or searches and caches them.
+     *
+     * @param parameters all the rendered parameters changing the results of the search other than the store and the query,
+     *                   like the {@link io.kestra.plugin.ai.domain.ModelProvider#embeddingModelIdentity(RunContext) embedding model identity}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(String query, String parameters, Supplier<List<T>> search) {
+        String key = AIUtils.sha256(String.join("\u0000", store, String.valueOf(GENERATIONS.getOrDefault(store, 0L)), parameters, normalize(query)));
+        Entry entry = ENTRIES.get(key);
+        if (entry != null && entry.expiresAt().isAfter(Instant.now())) {
+            sendMetrics(1, 0);
+            return (List<T>) entry.results();
+        }
+
+        List<T> results = List.copyOf(search.get());
+        ENTRIES.put(key, new Entry(results, Instant.now().plus(ttl)));
+        sendMetrics(0, 1);
+        return results;
+    }
+
+    /**
+     * Invalidates the cached results of a store, it must be called each time the store is changed.
+     */
+    public static void invalidate(String store) {
+        GENERATIONS.merge(store, 1L, Long::sum);
+    }
+
+    /**
+     * The key of an embedding store: the hash of its type and {@link EmbeddingStoreProvider#storeIdentity(RunContext) identity}, scoped to the tenant and namespace of the flow.
+     * Stores like the KV store are namespace-scoped, so a same identity in another namespace may be another store.
+     */
+    public static String storeKey(RunContext runContext, EmbeddingStoreProvider embeddings) throws IllegalVariableEvaluationException {
+        return AIUtils.sha256(String.join("\u0000",
+            String.valueOf(runContext.flowInfo().tenantId()),
+            runContext.flowInfo().namespace(),
+            embeddings.getClass().getName(),
+            embeddings.storeIdentity(runContext)
+        ));
+    }
+
+    static String normalize(String query) {
+        return query.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private void sendMetrics(int hits, int misses) {
+        // searches may run concurrently, and the run context metrics are not thread-safe
+        synchronized (runContext) {
+            runContext.metric(Counter.of("ai.search.cache.hit.count", "Search result cache hit count", hits));
+            runContext.metric(Counter.of("ai.search.cache.miss.count", "Search result cache miss count", misses));
+        }
+    }
+
+    private record Entry(List<?> results, Instant expiresAt) {
+    }
+}
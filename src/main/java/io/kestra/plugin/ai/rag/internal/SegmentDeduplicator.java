@@ -0,0 +1,173 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import io.kestra.plugin.ai.AIUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Detects duplicated segments so they are not embedded and stored more than once.
+ * <p>
+ * Exact duplicates are detected by the hash of their text, with whitespaces normalized.
+ * When a similarity threshold is set, near-duplicates are also detected with MinHash signatures of the word shingles of each segment,
+ * indexed with locality-sensitive hashing (LSH) so each segment is only compared to the few segments that share a band of its signature.
+ * <p>
+ * Only the hashes, and the signatures when near-duplicates are detected, of the kept segments are retained.
+ * This class is not thread-safe.
+ */
+public class SegmentDeduplicator {
+    private static final int NUM_HASHES = 128;
+    private static final int SHINGLE_SIZE = 3;
+    private static final long[] SEEDS = new long[NUM_HASHES];
+
+    static {
+        // fixed seeds so signatures are stable
+        SplittableRandom random = new SplittableRandom(0x5EED5EEDL);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            SEEDS[i] = random.nextLong();
+        }
+    }
+
+    private final Set<String> hashes = new HashSet<>();
+    private final Double similarityThreshold;
+    private final int bands;
+    private final int rows;
+    private final List<int[]> signatures = new ArrayList<>();
+    private final Map<Long, List<Integer>> buckets = new HashMap<>();
+
+    /**
+     * @param similarityThreshold the estimated Jaccard similarity from which a segment is a near-duplicate of a previous one,
+     *                            or null to only detect exact duplicates.
+     */
+    public SegmentDeduplicator(Double similarityThreshold) {
+        if (similarityThreshold != null && (similarityThreshold <= 0 || similarityThreshold > 1)) {
+            throw new IllegalArgumentException("The similarity threshold must be greater than 0 and lower or equal to 1");
+        }
+
+        this.similarityThreshold = similarityThreshold;
+
+        // choose the number of bands and rows whose LSH threshold, (1/bands)^(1/rows), is the closest below the similarity threshold,
+        // so near-duplicates are very likely to share at least one band
+        int bestBands = NUM_HASHES;
+        int bestRows = 1;
+        if (similarityThreshold != null) {
+            double bestDistance = Double.MAX_VALUE;
+            for (int r = 1; r <= NUM_HASHES; r++) {
+                int b = NUM_HASHES / r;
+                double lshThreshold = Math.pow(1.0 / b, 1.0 / r);
+                double distance = similarityThreshold - lshThreshold;
+                if (distance >= 0 && distance < bestDistance) {
+                    bestDistance = distance;
+                    bestBands = b;
+                    bestRows = r;
+                }
+            }
+        }
+        this.bands = bestBands;
+        this.rows = bestRows;
+    }
+
+    /**
+     * Returns true if the text is a duplicate of a previously seen text, otherwise remembers it and returns false.
+     */
+    public boolean isDuplicate(String text) {
+        String normalized = normalize(text);
+        if (!hashes.add(AIUtils.sha256(normalized))) {
+            return true;
+        }
+        if (similarityThreshold == null) {
+            return false;
+        }
+
+        int[] signature = signature(normalized);
+        Set<Integer> candidates = new HashSet<>();
+        long[] bandKeys = new long[bands];
+        for (int band = 0; band < bands; band++) {
+            bandKeys[band] = bandKey(signature, band);
+            List<Integer> bucket = buckets.get(bandKeys[band]);
+            if (bucket != null) {
+                candidates.addAll(bucket);
+            }
+        }
+
+        for (int candidate : candidates) {
+            if (similarity(signature, signatures.get(candidate)) >= similarityThreshold) {
+                return true;
+            }
+        }
+
+        int index = signatures.size();
+        signatures.add(signature);
+        for (long bandKey : bandKeys) {
+            buckets.computeIfAbsent(bandKey, k -> new ArrayList<>(1)).add(index);
+        }
+        return false;
+    }
+
+    /**
+     * Forgets all the previously seen texts.
+     */
+    public void reset() {
+        hashes.clear();
+        signatures.clear();
+        buckets.clear();
+    }
+
+    private static String normalize(String text) {
+        return text.strip().replaceAll("\\s+", " ");
+    }
+
+    private static int[] signature(String normalized) {
+        int[] signature = new int[NUM_HASHES];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+
+        String[] words = normalized.toLowerCase(Locale.ROOT).split(" ");
+        int shingleCount = Math.max(1, words.length - SHINGLE_SIZE + 1);
+        for (int i = 0; i < shingleCount; i++) {
+            String shingle = String.join(" ", Arrays.asList(words).subList(i, Math.min(words.length, i + SHINGLE_SIZE)));
+            long shingleHash = fnv1a(shingle);
+            for (int h = 0; h < NUM_HASHES; h++) {
+                int value = (int) (mix(shingleHash ^ SEEDS[h]) >>> 32);
+                if (value < signature[h]) {
+                    signature[h] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int i = band * rows; i < (band + 1) * rows; i++) {
+            key = mix(key * 31 + signature[i]);
+        }
+        return key;
+    }
+
+    // the fraction of equal MinHash values estimates the Jaccard similarity of the shingle sets
+    private static double similarity(int[] first, int[] second) {
+        int equal = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (first[i] == second[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / NUM_HASHES;
+    }
+
+    private static long fnv1a(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
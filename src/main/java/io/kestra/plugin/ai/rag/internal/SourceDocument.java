@@ -0,0 +1,24 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.document.Document;
+
+/**
+ * A document and the identifier of the source it has been loaded from (a file path, an URI or an URL).
+ * The source identifier must be stable from one ingestion to another, it's used to track the segments of each source for incremental ingestion.
+ * <p>
+ * Documents fetched over HTTP also carry the <code>ETag</code> and <code>Last-Modified</code> validators of the response, if any,
+ * and have no document when the server answered that the source was not modified since the previous ingestion.
+ */
+public record SourceDocument(String source, Document document, String etag, String lastModified) {
+    public SourceDocument(String source, Document document) {
+        this(source, document, null, null);
+    }
+
+    public static SourceDocument notModified(String source) {
+        return new SourceDocument(source, null);
+    }
+
+    public boolean isNotModified() {
+        return document == null;
+    }
+}
@@ -0,0 +1,153 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import io.kestra.core.serializers.FileSerde;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Loads documents from an internal storage file without reading it fully in memory.
+ * The returned streams are lazy and close the underlying input stream when they are closed.
+ */
+public final class StorageDocumentLoader {
+    private StorageDocumentLoader() {
+        // utility class pattern
+    }
+
+    /**
+     * Decodes a text file incrementally and returns it as documents of at most <code>maxDocumentSize</code> characters,
+     * cut on line boundaries when possible.
+     * The first document has the URI as source, the next ones have the URI suffixed by <code>#index</code>.
+     */
+    public static Stream<SourceDocument> text(String uri, InputStream inputStream, Charset charset, int maxDocumentSize) {
+        Reader reader = new BufferedReader(new InputStreamReader(inputStream, charset), FileSerde.BUFFER_SIZE);
+        TextChunkIterator chunks = new TextChunkIterator(reader, maxDocumentSize);
+        AtomicLong index = new AtomicLong();
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED), false)
+            .onClose(() -> closeQuietly(reader))
+            .map(chunk -> {
+                long current = index.getAndIncrement();
+                return new SourceDocument(current == 0 ? uri : uri + "#" + current, Document.from(chunk));
+            })
+            .filter(sourceDocument -> !sourceDocument.document().text().isBlank());
+    }
+
+    /**
+     * Reads an ION file where each row is a document: the text is read from the <code>textColumn</code>
+     * and the <code>metadataColumns</code> are added as metadata. Rows without text are skipped.
+     * Each document has the URI suffixed by <code>#rowIndex</code> as source.
+     */
+    public static Stream<SourceDocument> ion(String uri, InputStream inputStream, Charset charset, String textColumn, List<String> metadataColumns) {
+        Reader reader = new BufferedReader(new InputStreamReader(inputStream, charset), FileSerde.BUFFER_SIZE);
+        AtomicLong index = new AtomicLong();
+
+        return FileSerde.readAll(reader).toStream()
+            .onClose(() -> closeQuietly(reader))
+            .map(row -> {
+                long current = index.getAndIncrement();
+                if (!(row instanceof Map<?, ?> map) || !(map.get(textColumn) instanceof String text) || text.isBlank()) {
+                    return null;
+                }
+
+                Map<String, Object> metadata = new HashMap<>();
+                metadataColumns.forEach(column -> {
+                    Object value = map.get(column);
+                    if (value != null) {
+                        metadata.put(column, toMetadataValue(value));
+                    }
+                });
+                return new SourceDocument(uri + "#" + current, Document.from(text, Metadata.from(metadata)));
+            })
+            .filter(Objects::nonNull);
+    }
+
+    // metadata only supports strings, UUIDs and some number types
+    private static Object toMetadataValue(Object value) {
+        if (value instanceof String || value instanceof UUID || value instanceof Integer || value instanceof Long || value instanceof Float || value instanceof Double) {
+            return value;
+        }
+        return value.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class TextChunkIterator implements Iterator<String> {
+        private final Reader reader;
+        private final int maxChunkSize;
+        private final char[] readBuffer = new char[FileSerde.BUFFER_SIZE];
+        private final StringBuilder buffer = new StringBuilder();
+        private boolean endOfStream;
+        private String next;
+
+        TextChunkIterator(Reader reader, int maxChunkSize) {
+            this.reader = reader;
+            this.maxChunkSize = maxChunkSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = readChunk();
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String chunk = next;
+            next = null;
+            return chunk;
+        }
+
+        private String readChunk() {
+            try {
+                while (!endOfStream && buffer.length() < maxChunkSize) {
+                    int read = reader.read(readBuffer, 0, Math.min(readBuffer.length, maxChunkSize - buffer.length()));
+                    if (read < 0) {
+                        endOfStream = true;
+                    } else {
+                        buffer.append(readBuffer, 0, read);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (buffer.isEmpty()) {
+                return null;
+            }
+
+            // cut after the last line break so lines are not split between two documents, the remaining characters go to the next chunk
+            int end = buffer.length();
+            if (!endOfStream) {
+                int lastLineBreak = buffer.lastIndexOf("\n");
+                if (lastLineBreak > 0) {
+                    end = lastLineBreak + 1;
+                } else if (end > 1 && Character.isHighSurrogate(buffer.charAt(end - 1))) {
+                    // don't split a surrogate pair, its low surrogate is not read yet
+                    end--;
+                }
+            }
+
+            String chunk = buffer.substring(0, end);
+            buffer.delete(0, end);
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.document.Document;
+import lombok.Builder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Fetches documents from external URLs with a shared HTTP client, and parses them with a {@link DocumentContentParser} according to their content type.
+ * <p>
+ * Up to <code>maxConcurrency</code> URLs, and at most <code>maxConcurrencyPerHost</code> URLs of the same host, are fetched in parallel on virtual threads.
+ * Documents are returned in the order of the URLs, and no more than <code>maxConcurrency</code> documents are fetched ahead of the consumer.
+ * <p>
+ * When validators from a previous fetch are known, a conditional GET is sent, and a not modified response leads to a {@link SourceDocument#notModified(String)} document.
+ */
+public class UrlDocumentFetcher implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final HttpClient httpClient;
+    private final DocumentContentParser contentParser;
+    private final int maxConcurrency;
+    private final int maxConcurrencyPerHost;
+    private final Duration requestTimeout;
+
+    @Builder
+    private UrlDocumentFetcher(int maxConcurrency, int maxConcurrencyPerHost, Duration connectTimeout, Duration requestTimeout, DocumentContentParser contentParser) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("The maximum concurrency must be at least 1");
+        }
+        if (maxConcurrencyPerHost < 1) {
+            throw new IllegalArgumentException("The maximum concurrency per host must be at least 1");
+        }
+
+        this.maxConcurrency = maxConcurrency;
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+        this.requestTimeout = requestTimeout;
+        this.contentParser = contentParser;
+        this.httpClient = HttpClient.newBuilder()
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(executor)
+            .build();
+    }
+
+    /**
+     * Lazily fetches the URLs, <code>previousFetch</code> returns the validators of the previous fetch of an URL, or null if unknown.
+     */
+    public Stream<SourceDocument> fetch(List<String> urls, Function<String, IngestionManifest.Entry> previousFetch) {
+        Iterator<String> remaining = urls.iterator();
+        Deque<Future<SourceDocument>> inFlight = new ArrayDeque<>();
+
+        Iterator<SourceDocument> documents = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !inFlight.isEmpty() || remaining.hasNext();
+            }
+
+            @Override
+            public SourceDocument next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                // keep the window full so the next documents are fetched while this one is processed
+                while (inFlight.size() < maxConcurrency && remaining.hasNext()) {
+                    String url = remaining.next();
+                    IngestionManifest.Entry previous = previousFetch != null ? previousFetch.apply(url) : null;
+                    inFlight.add(executor.submit(() -> fetch(url, previous)));
+                }
+                return await(inFlight.poll());
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(documents, Spliterator.ORDERED), false)
+            .onClose(() -> inFlight.forEach(future -> future.cancel(true)));
+    }
+
+    @Override
+    public void close() {
+        httpClient.close();
+        executor.shutdownNow();
+    }
+
+    private SourceDocument fetch(String url, IngestionManifest.Entry previous) throws IOException, InterruptedException {
+        URI uri = URI.create(url);
+        Semaphore permits = hostPermits.computeIfAbsent(String.valueOf(uri.getHost()), host -> new Semaphore(maxConcurrencyPerHost));
+        permits.acquire();
+        try {
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(requestTimeout).GET();
+            if (previous != null && previous.etag() != null) {
+                request.header("If-None-Match", previous.etag());
+            }
+            if (previous != null && previous.lastModified() != null) {
+                request.header("If-Modified-Since", previous.lastModified());
+            }
+
+            HttpResponse<InputStream> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() == 304) {
+                    return SourceDocument.notModified(url);
+                }
+                if (response.statusCode() >= 400) {
+                    throw new IOException("Unable to fetch the document '" + url + "', the server responded with the HTTP status " + response.statusCode());
+                }
+
+                // same metadata as the UrlDocumentLoader
+                Document document = contentParser.parserFor(uri.getPath(), response.headers().firstValue("Content-Type").orElse(null)).parse(body);
+                document.metadata().put("url", url);
+                return new SourceDocument(
+                    url,
+                    document,
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null)
+                );
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching a document", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+            throw new IllegalStateException("Unable to fetch a document", e.getCause());
+        }
+    }
+}
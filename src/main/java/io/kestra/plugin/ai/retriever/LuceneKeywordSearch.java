@@ -0,0 +1,127 @@
+package io.kestra.plugin.ai.retriever;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.annotations.Example;
+import io.kestra.core.models.annotations.Plugin;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.ai.domain.ContentRetrieverProvider;
+import io.kestra.plugin.ai.embeddings.internal.LuceneEmbeddingStore;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@SuperBuilder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonDeserialize
+@Schema(
+    title = "Keyword content retriever for an embedded Lucene embedding store",
+    description = """
+        Searches the texts of a `io.kestra.plugin.ai.embeddings.Lucene` embedding store by keywords, ranked by their BM25 score, from the store snapshot saved in internal storage.
+        Keyword search finds exact terms like product names, error codes or identifiers that embeddings may miss: use it with the embedding store of the same snapshot and a `fusion` to merge keyword and vector hits."""
+)
+@Plugin(
+    examples = {
+        @Example(
+            full = true,
+            title = "Chat with your data using hybrid search: the contents found by vector search in a Lucene embedding store and by keyword search in the same store are merged with reciprocal rank fusion.",
+            code = """
+                id: rag
+                namespace: company.team
+
+                tasks:
+                  - id: chat_with_rag_and_hybrid_search
+                    type: io.kestra.plugin.ai.rag.ChatCompletion
+                    chatProvider:
+                      type: io.kestra.plugin.ai.provider.GoogleGemini
+                      modelName: gemini-2.5-flash
+                      apiKey: "{{ secret('GEMINI_API_KEY') }}"
+                    embeddingProvider:
+                      type: io.kestra.plugin.ai.provider.GoogleGemini
+                      modelName: gemini-embedding-exp-03-07
+                      apiKey: "{{ secret('GEMINI_API_KEY') }}"
+                    embeddings:
+                      type: io.kestra.plugin.ai.embeddings.Lucene
+                      snapshotPath: embeddings/kestra-docs.zip
+                    contentRetrievers:
+                      - type: io.kestra.plugin.ai.retriever.LuceneKeywordSearch
+                        snapshotPath: embeddings/kestra-docs.zip
+                        maxResults: 10
+                    fusion:
+                      maxResults: 5
+                    prompt: Which tasks can be used to run a Python script?
+                """
+        )
+    }
+)
+public class LuceneKeywordSearch extends ContentRetrieverProvider {
+    @JsonIgnore
+    private transient LuceneEmbeddingStore embeddingStore;
+
+    @Schema(
+        title = "The path of the index snapshot, a namespace file of the flow namespace",
+        description = "The snapshot saved by the `io.kestra.plugin.ai.embeddings.Lucene` embedding store, it defaults to the same path."
+    )
+    @NotNull
+    @Builder.Default
+    private Property<String> snapshotPath = Property.ofExpression("embeddings/{{flow.id}}-embedding-store.zip");
+
+    @Schema(title = "Maximum number of results to return")
+    @NotNull
+    @Builder.Default
+    private Property<Integer> maxResults = Property.ofValue(3);
+
+    @Override
+    public ContentRetriever contentRetriever(RunContext runContext) throws IOException, IllegalVariableEvaluationException {
+        var rSnapshotPath = Path.of(runContext.render(snapshotPath).as(String.class).orElseThrow());
+        var rMaxResults = runContext.render(maxResults).as(Integer.class).orElse(3);
+
+        close(runContext);
+        try (InputStream snapshot = runContext.storage().namespace().getFileContent(rSnapshotPath)) {
+            // the HNSW parameters only apply to the embeddings added to the store, and the store is only searched by keywords
+            embeddingStore = LuceneEmbeddingStore.restore(snapshot, Files.createTempDirectory(runContext.workingDir().path(), "lucene-"), 16, 100, 100);
+        } catch (FileNotFoundException e) {
+            runContext.logger().warn("The embedding store snapshot '{}' doesn't exist, no contents will be retrieved", rSnapshotPath);
+            return query -> List.of();
+        }
+
+        LuceneEmbeddingStore store = embeddingStore;
+        return query -> store.keywordSearch(query.text(), rMaxResults).stream()
+            .map(match -> Content.from(match.embedded(), Map.of(
+                ContentMetadata.SCORE, match.score(),
+                ContentMetadata.EMBEDDING_ID, match.embeddingId()
+            )))
+            .toList();
+    }
+
+    @Override
+    public void close(RunContext runContext) {
+        if (embeddingStore != null) {
+            try {
+                embeddingStore.close();
+            } catch (IOException e) {
+                runContext.logger().warn("Unable to close the embedding store restored from the snapshot", e);
+            }
+            embeddingStore = null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.kestra.plugin.ai.embeddings;
+
+import dev.langchain4j.rag.query.Query;
+import io.kestra.core.context.TestRunContextFactory;
+import io.kestra.core.junit.annotations.KestraTest;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.models.tasks.common.FetchType;
+import io.kestra.plugin.ai.ContainerTest;
+import io.kestra.plugin.ai.provider.Ollama;
+import io.kestra.plugin.ai.rag.IngestDocument;
+import io.kestra.plugin.ai.rag.Search;
+import io.kestra.plugin.ai.retriever.LuceneKeywordSearch;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@KestraTest
+class LuceneTest extends ContainerTest {
+    @Inject
+    private TestRunContextFactory runContextFactory;
+
+    @Test
+    void ingestThenSearchFromSnapshot() throws Exception {
+        var runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "chroma/all-minilm-l6-v2-f32",
+            "endpoint", ollamaEndpoint
+        ));
+
+        var ollamaProvider = Ollama.builder()
+            .type(Ollama.class.getName())
+            .modelName(Property.ofExpression("{{ modelName }}"))
+            .endpoint(Property.ofExpression("{{ endpoint }}"))
+            .build();
+
+        var ingestDocumentTask = IngestDocument.builder()
+            .provider(ollamaProvider)
+            .embeddings(Lucene.builder().snapshotPath(Property.ofValue("embeddings/lucene-test.zip")).build())
+            .drop(Property.ofValue(true))
+            .fromDocuments(
+                List.of(
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Apple")).build(),
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Cherry")).build(),
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Banana")).build()
+                )
+            )
+            .build();
+
+        var ingestDocumentTaskOutput = ingestDocumentTask.run(runContext);
+        assertThat(ingestDocumentTaskOutput.getIngestedDocuments()).isEqualTo(3);
+        assertThat(ingestDocumentTaskOutput.getEmbeddingStoreOutputs()).containsEntry("snapshotPath", "embeddings/lucene-test.zip");
+
+        // a new provider, so the store is restored from the snapshot
+        var searchTask = Search.builder()
+            .provider(ollamaProvider)
+            .embeddings(Lucene.builder().snapshotPath(Property.ofValue("embeddings/lucene-test.zip")).build())
+            .query(Property.ofValue("Banana"))
+            .maxResults(Property.ofValue(1))
+            .fetchType(Property.ofValue(FetchType.FETCH))
+            .build();
+
+        var searchTaskOutput = searchTask.run(runContext);
+        assertThat(searchTaskOutput.getResults()).isEqualTo(List.of("Banana"));
+
+        // the texts of the snapshot are also searchable by keywords
+        var contentRetriever = LuceneKeywordSearch.builder()
+            .type(LuceneKeywordSearch.class.getName())
+            .snapshotPath(Property.ofValue("embeddings/lucene-test.zip"))
+            .build()
+            .contentRetriever(runContext);
+        assertThat(contentRetriever.retrieve(Query.from("Is a banana yellow?"))).extracting(content -> content.textSegment().text()).containsExactly("Banana");
+    }
+}
@@ -0,0 +1,68 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CopyOnWriteEmbeddingStoreTest {
+    @Test
+    void sharedStoreIsCopiedOnWrite() {
+        LocalEmbeddingStore shared = new LocalEmbeddingStore();
+        shared.add("first", Embedding.from(new float[]{0.1f, 0.2f, 0.3f}));
+
+        CopyOnWriteEmbeddingStore reader = CopyOnWriteEmbeddingStore.shared(shared);
+        CopyOnWriteEmbeddingStore writer = CopyOnWriteEmbeddingStore.shared(shared);
+        assertThat(reader.current()).isSameAs(shared);
+
+        writer.add("second", Embedding.from(new float[]{0.3f, 0.2f, 0.1f}));
+        writer.removeAll(List.of("first"));
+
+        assertThat(writer.isShared()).isFalse();
+        assertThat(writer.current().size()).isEqualTo(1);
+        assertThat(shared.size()).isEqualTo(1);
+        assertThat(reader.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(Embedding.from(new float[]{0.3f, 0.2f, 0.1f}))
+            .maxResults(1)
+            .build()
+        ).matches().getFirst().embeddingId()).isEqualTo("first");
+    }
+
+    @Test
+    void sharedIndexIsOnlyCopiedWhenGraphParametersDiffer() {
+        LocalEmbeddingStore shared = new LocalEmbeddingStore();
+        shared.add("first", Embedding.from(new float[]{0.1f, 0.2f, 0.3f}));
+        shared.enableIndex(16, 200, 100);
+
+        // efSearch is a search parameter, it doesn't need another index
+        CopyOnWriteEmbeddingStore otherEfSearch = CopyOnWriteEmbeddingStore.shared(shared);
+        otherEfSearch.enableIndex(16, 200, 50);
+        assertThat(otherEfSearch.current()).isSameAs(shared);
+        assertThat(shared.snapshot().index().getEfSearch()).isEqualTo(100);
+
+        CopyOnWriteEmbeddingStore otherIndex = CopyOnWriteEmbeddingStore.shared(shared);
+        otherIndex.enableIndex(8, 200, 100);
+        assertThat(otherIndex.current()).isNotSameAs(shared);
+        assertThat(shared.hasIndex(16, 200)).isTrue();
+        assertThat(otherIndex.current().hasIndex(8, 200)).isTrue();
+    }
+
+    @Test
+    void sharedQuantizedVectorsAreOnlyCopiedWhenQuantizationDiffers() {
+        LocalEmbeddingStore shared = new LocalEmbeddingStore();
+        shared.add("first", Embedding.from(new float[]{0.1f, 0.2f, 0.3f}));
+        shared.enableQuantization(QuantizedVectors.Quantization.INT8, 4);
+
+        CopyOnWriteEmbeddingStore otherRescoreDepth = CopyOnWriteEmbeddingStore.shared(shared);
+        otherRescoreDepth.enableQuantization(QuantizedVectors.Quantization.INT8, 2);
+        assertThat(otherRescoreDepth.current()).isSameAs(shared);
+
+        CopyOnWriteEmbeddingStore otherQuantization = CopyOnWriteEmbeddingStore.shared(shared);
+        otherQuantization.enableQuantization(QuantizedVectors.Quantization.BINARY, 10);
+        assertThat(otherQuantization.current()).isNotSameAs(shared);
+        assertThat(shared.hasQuantization(QuantizedVectors.Quantization.INT8)).isTrue();
+    }
+}
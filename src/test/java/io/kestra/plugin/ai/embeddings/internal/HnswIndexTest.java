@@ -0,0 +1,111 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+    private static final int SIZE = 2_000;
+    private static final int DIMENSION = 64;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    @Test
+    void recall() {
+        float[][] vectors = dataset(SIZE, new SplittableRandom(1));
+        float[][] queries = dataset(QUERIES, new SplittableRandom(2));
+        List<Set<Integer>> expected = Arrays.stream(queries).map(query -> bruteForce(vectors, query)).toList();
+
+        // the default parameters of the KestraKVStore index, see HnswIndexBenchmark for the other parameters
+        HnswIndex index = index(vectors, 16, 200, 100);
+
+        assertThat(recall(index, queries, expected)).isGreaterThan(0.95);
+    }
+
+    @Test
+    void deletedNodesAreNotReturned() {
+        float[][] vectors = dataset(500, new SplittableRandom(3));
+        HnswIndex index = index(vectors, 16, 100, 50);
+
+        index.delete(42);
+        List<HnswIndex.Candidate> results = index.search(vectors[42], K);
+
+        assertThat(results).hasSize(K);
+        assertThat(results).noneMatch(candidate -> candidate.node() == 42);
+    }
+
+    @Test
+    void writeAndRead() throws IOException {
+        float[][] vectors = dataset(500, new SplittableRandom(4));
+        HnswIndex index = index(vectors, 16, 100, 50);
+        index.delete(1);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        int[] slots = IntStream.range(0, vectors.length).map(index::slot).toArray();
+        HnswIndex read = HnswIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), storage(vectors), slots);
+
+        assertThat(read.getM()).isEqualTo(16);
+        assertThat(read.getEfSearch()).isEqualTo(50);
+        assertThat(read.deletedCount()).isEqualTo(1);
+        assertThat(read.search(vectors[7], K)).isEqualTo(index.search(vectors[7], K));
+    }
+
+    private static HnswIndex index(float[][] vectors, int m, int efConstruction, int efSearch) {
+        VectorStorage storage = storage(vectors);
+        HnswIndex index = new HnswIndex(m, efConstruction, efSearch, storage);
+        for (int slot = 0; slot < vectors.length; slot++) {
+            index.add(slot);
+        }
+        return index;
+    }
+
+    private static VectorStorage storage(float[][] vectors) {
+        VectorStorage storage = new HeapVectors();
+        Arrays.stream(vectors).forEach(storage::add);
+        return storage;
+    }
+
+    // vectors around a few random centroids, as real embeddings are clustered
+    private static float[][] dataset(int size, SplittableRandom random) {
+        SplittableRandom centroidsRandom = new SplittableRandom(0);
+        float[][] centroids = new float[20][DIMENSION];
+        for (float[] centroid : centroids) {
+            for (int i = 0; i < DIMENSION; i++) {
+                centroid[i] = (float) centroidsRandom.nextGaussian();
+            }
+        }
+
+        float[][] vectors = new float[size][DIMENSION];
+        for (float[] vector : vectors) {
+            float[] centroid = centroids[random.nextInt(centroids.length)];
+            for (int i = 0; i < DIMENSION; i++) {
+                vector[i] = centroid[i] + (float) random.nextGaussian() * 0.5f;
+            }
+        }
+        return vectors;
+    }
+
+    private static Set<Integer> bruteForce(float[][] vectors, float[] query) {
+        return IntStream.range(0, vectors.length).boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> LocalEmbeddingStore.cosineSimilarity(query, vectors[i])).reversed())
+            .limit(K)
+            .collect(HashSet::new, Set::add, Set::addAll);
+    }
+
+    private static double recall(HnswIndex index, float[][] queries, List<Set<Integer>> expected) {
+        int found = 0;
+        for (int i = 0; i < queries.length; i++) {
+            for (HnswIndex.Candidate candidate : index.search(queries[i], K)) {
+                if (expected.get(i).contains(candidate.node())) {
+                    found++;
+                }
+            }
+        }
+        return (double) found / (queries.length * K);
+    }
+}
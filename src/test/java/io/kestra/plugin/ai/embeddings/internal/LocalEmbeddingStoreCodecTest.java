@@ -0,0 +1,151 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class LocalEmbeddingStoreCodecTest {
+    private static final UUID ID = UUID.randomUUID();
+
+    @Test
+    void float32() throws Exception {
+        LocalEmbeddingStore decoded = LocalEmbeddingStoreCodec.decode(LocalEmbeddingStoreCodec.encode(store(), LocalEmbeddingStoreCodec.VectorEncoding.FLOAT32));
+
+        assertThat(decoded.size()).isEqualTo(3);
+        LocalEmbeddingStore.Entry entry = decoded.entries().getFirst();
+        assertThat(entry.id()).isEqualTo("first");
+        assertThat(entry.vector()).containsExactly(0.1f, 0.2f, 0.3f);
+        assertThat(entry.segment().text()).isEqualTo("I'm Loïc");
+        assertThat(entry.segment().metadata().toMap()).isEqualTo(Map.of(
+            "string", "value",
+            "uuid", ID,
+            "integer", 1,
+            "long", 2L,
+            "float", 3.0f,
+            "double", 4.0d
+        ));
+        assertThat(decoded.entries().get(2).segment()).isNull();
+    }
+
+    @Test
+    void float16() throws Exception {
+        byte[] float32 = LocalEmbeddingStoreCodec.encode(store(), LocalEmbeddingStoreCodec.VectorEncoding.FLOAT32);
+        byte[] float16 = LocalEmbeddingStoreCodec.encode(store(), LocalEmbeddingStoreCodec.VectorEncoding.FLOAT16);
+        assertThat(float16.length).isLessThan(float32.length);
+
+        LocalEmbeddingStore decoded = LocalEmbeddingStoreCodec.decode(float16);
+        float[] vector = decoded.entries().getFirst().vector();
+        assertThat(vector[0]).isCloseTo(0.1f, within(0.001f));
+        assertThat(vector[2]).isCloseTo(0.3f, within(0.001f));
+    }
+
+    @Test
+    void legacyJson() throws Exception {
+        InMemoryEmbeddingStore<TextSegment> legacy = new InMemoryEmbeddingStore<>();
+        legacy.add(Embedding.from(new float[]{0.1f, 0.2f, 0.3f}), TextSegment.from("I'm Loïc", Metadata.from(Map.of("index", 1, "name", "Loïc"))));
+        legacy.add(Embedding.from(new float[]{0.3f, 0.2f, 0.1f}), TextSegment.from("I live in Lille"));
+        String json = legacy.serializeToJson();
+
+        assertThat(LocalEmbeddingStoreCodec.isLegacyJson(json)).isTrue();
+        LocalEmbeddingStore migrated = LocalEmbeddingStoreCodec.decodeLegacyJson(json);
+
+        assertThat(migrated.size()).isEqualTo(2);
+        List<EmbeddingMatch<TextSegment>> matches = migrated.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(Embedding.from(new float[]{0.1f, 0.2f, 0.3f}))
+            .maxResults(1)
+            .build()
+        ).matches();
+        assertThat(matches.getFirst().embedded().text()).isEqualTo("I'm Loïc");
+        assertThat(matches.getFirst().embedded().metadata().getInteger("index")).isEqualTo(1);
+        assertThat(matches.getFirst().embedded().metadata().getString("name")).isEqualTo("Loïc");
+    }
+
+    @Test
+    void hnswIndex() throws Exception {
+        LocalEmbeddingStore store = store();
+        store.enableIndex(4, 16, 16);
+        store.removeAll(List.of("second"));
+
+        LocalEmbeddingStore decoded = LocalEmbeddingStoreCodec.decode(LocalEmbeddingStoreCodec.encode(store, LocalEmbeddingStoreCodec.VectorEncoding.FLOAT32));
+
+        // a third of the nodes were deleted, so the index was compacted
+        HnswIndex index = decoded.snapshot().index();
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.deletedCount()).isZero();
+        assertThat(index.getEfSearch()).isEqualTo(16);
+        List<EmbeddingMatch<TextSegment>> matches = decoded.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(Embedding.from(new float[]{0.3f, 0.2f, 0.1f}))
+            .maxResults(2)
+            .build()
+        ).matches();
+        assertThat(matches).extracting(EmbeddingMatch::embeddingId).containsExactly("third", "first");
+    }
+
+    @Test
+    void hnswIndexWithDeletedNodes() throws Exception {
+        LocalEmbeddingStore store = new LocalEmbeddingStore();
+        store.enableIndex(4, 16, 16);
+        for (int i = 0; i < 8; i++) {
+            store.add("entry-" + i, Embedding.from(new float[]{i, 1, 8 - i}));
+        }
+        store.removeAll(List.of("entry-2"));
+
+        LocalEmbeddingStore decoded = LocalEmbeddingStoreCodec.decode(LocalEmbeddingStoreCodec.encode(store, LocalEmbeddingStoreCodec.VectorEncoding.FLOAT32));
+
+        // the deleted node is kept with its vector, so the graph is neither rebuilt when written nor when read
+        HnswIndex index = decoded.snapshot().index();
+        assertThat(index.size()).isEqualTo(8);
+        assertThat(index.deletedCount()).isEqualTo(1);
+        List<EmbeddingMatch<TextSegment>> matches = decoded.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(Embedding.from(new float[]{2, 1, 6}))
+            .maxResults(2)
+            .build()
+        ).matches();
+        assertThat(matches).extracting(EmbeddingMatch::embeddingId).containsExactly("entry-1", "entry-3");
+    }
+
+    @Test
+    void unsupportedVectorEncoding() throws Exception {
+        byte[] encoded = LocalEmbeddingStoreCodec.encode(store(), LocalEmbeddingStoreCodec.VectorEncoding.FLOAT32);
+        // the vector encoding follows the magic bytes and the version
+        encoded[5] = 42;
+
+        assertThatThrownBy(() -> LocalEmbeddingStoreCodec.decode(encoded))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("Unsupported embedding store vector encoding 42");
+    }
+
+    private static LocalEmbeddingStore store() {
+        LocalEmbeddingStore store = new LocalEmbeddingStore();
+        store.addAll(
+            List.of("first", "second"),
+            List.of(Embedding.from(new float[]{0.1f, 0.2f, 0.3f}), Embedding.from(new float[]{0.3f, 0.2f, 0.1f})),
+            List.of(
+                TextSegment.from("I'm Loïc", Metadata.from(Map.of(
+                    "string", "value",
+                    "uuid", ID,
+                    "integer", 1,
+                    "long", 2L,
+                    "float", 3.0f,
+                    "double", 4.0d
+                ))),
+                TextSegment.from("I live in Lille")
+            )
+        );
+        store.add("third", Embedding.from(new float[]{0.2f, 0.2f, 0.2f}));
+        return store;
+    }
+}
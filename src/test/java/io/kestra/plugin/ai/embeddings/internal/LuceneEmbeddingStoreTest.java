@@ -0,0 +1,124 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LuceneEmbeddingStoreTest {
+    private static final UUID AUTHOR = UUID.randomUUID();
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void searchAndFilter() throws Exception {
+        try (LuceneEmbeddingStore store = store("index")) {
+            assertThat(search(store, new float[]{0.3f, 0.2f, 0.1f}, null)).isEmpty();
+
+            add(store);
+
+            List<EmbeddingMatch<TextSegment>> matches = search(store, new float[]{0.3f, 0.2f, 0.1f}, null);
+            assertThat(matches).extracting(EmbeddingMatch::embeddingId).containsExactly("second", "third", "first");
+            assertThat(matches.getFirst().score()).isCloseTo(1.0, within(1e-6));
+            assertThat(matches.getFirst().embedding().vector()).containsExactly(0.3f, 0.2f, 0.1f);
+            assertThat(matches.getFirst().embedded().text()).isEqualTo("I live in Lille");
+            assertThat(matches.getFirst().embedded().metadata().toMap()).isEqualTo(Map.of("city", "Lille", "year", 2020, "author", AUTHOR));
+
+            assertThat(search(store, new float[]{0.3f, 0.2f, 0.1f}, metadataKey("year").isGreaterThan(2019)))
+                .extracting(EmbeddingMatch::embeddingId).containsExactly("second", "third");
+            assertThat(search(store, new float[]{0.3f, 0.2f, 0.1f}, metadataKey("city").isNotEqualTo("Lille")))
+                .extracting(EmbeddingMatch::embeddingId).containsExactly("third", "first");
+            assertThat(search(store, new float[]{0.3f, 0.2f, 0.1f}, metadataKey("city").isIn("Paris", "Lyon").and(metadataKey("year").isLessThanOrEqualTo(2020L))))
+                .extracting(EmbeddingMatch::embeddingId).containsExactly("first");
+            assertThat(search(store, new float[]{0.3f, 0.2f, 0.1f}, metadataKey("city").isEqualTo("Paris").or(metadataKey("year").isGreaterThanOrEqualTo(2024))))
+                .extracting(EmbeddingMatch::embeddingId).containsExactly("third", "first");
+            assertThat(search(store, new float[]{0.3f, 0.2f, 0.1f}, metadataKey("author").isEqualTo(AUTHOR)))
+                .extracting(EmbeddingMatch::embeddingId).containsExactly("second");
+
+            store.removeAll(List.of("second"));
+            store.add("first", Embedding.from(new float[]{0.3f, 0.2f, 0.0f}));
+            assertThat(search(store, new float[]{0.3f, 0.2f, 0.1f}, null)).extracting(EmbeddingMatch::embeddingId).containsExactly("first", "third");
+        }
+    }
+
+    @Test
+    void snapshot() throws Exception {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try (LuceneEmbeddingStore store = store("index")) {
+            add(store);
+            store.writeSnapshot(snapshot);
+            assertThat(store.commit()).isFalse();
+        }
+
+        try (LuceneEmbeddingStore restored = LuceneEmbeddingStore.restore(new ByteArrayInputStream(snapshot.toByteArray()), directory.resolve("restored"), 16, 100, 100)) {
+            List<EmbeddingMatch<TextSegment>> matches = search(restored, new float[]{0.1f, 0.2f, 0.3f}, null);
+            assertThat(matches).extracting(EmbeddingMatch::embeddingId).containsExactly("first", "third", "second");
+            // a restored store is only opened for reading until it's changed
+            assertThat(restored.commit()).isFalse();
+
+            restored.removeAll(metadataKey("city").isEqualTo("Lille"));
+            assertThat(restored.commit()).isTrue();
+            assertThat(search(restored, new float[]{0.1f, 0.2f, 0.3f}, null)).extracting(EmbeddingMatch::embeddingId).containsExactly("first", "third");
+        }
+    }
+
+    @Test
+    void keywordSearch() throws Exception {
+        try (LuceneEmbeddingStore store = store("index")) {
+            assertThat(store.keywordSearch("Kestra", 10)).isEmpty();
+
+            add(store);
+
+            List<EmbeddingMatch<TextSegment>> matches = store.keywordSearch("Where do you work?", 10);
+            assertThat(matches).extracting(EmbeddingMatch::embeddingId).containsExactly("third");
+            assertThat(matches.getFirst().embedded().text()).isEqualTo("I work at Kestra");
+            assertThat(matches.getFirst().embedding().vector()).containsExactly(0.2f, 0.2f, 0.2f);
+
+            // any keyword matches, and the texts matching more keywords score higher
+            assertThat(store.keywordSearch("LILLE i", 10)).extracting(EmbeddingMatch::embeddingId).containsExactly("second", "third");
+            assertThat(store.keywordSearch("lille i", 1)).extracting(EmbeddingMatch::embeddingId).containsExactly("second");
+            assertThat(store.keywordSearch("?!", 10)).isEmpty();
+        }
+    }
+
+    private LuceneEmbeddingStore store(String name) throws Exception {
+        return new LuceneEmbeddingStore(directory.resolve(name), 16, 100, 100);
+    }
+
+    private static void add(LuceneEmbeddingStore store) {
+        store.addAll(
+            List.of("first", "second", "third"),
+            List.of(Embedding.from(new float[]{0.1f, 0.2f, 0.3f}), Embedding.from(new float[]{0.3f, 0.2f, 0.1f}), Embedding.from(new float[]{0.2f, 0.2f, 0.2f})),
+            List.of(
+                TextSegment.from("I'm Loïc", Metadata.from(Map.of("city", "Paris", "year", 2018))),
+                TextSegment.from("I live in Lille", Metadata.from(Map.of("city", "Lille", "year", 2020, "author", AUTHOR))),
+                TextSegment.from("I work at Kestra", Metadata.from(Map.of("city", "Lyon", "year", 2024L)))
+            )
+        );
+    }
+
+    private static List<EmbeddingMatch<TextSegment>> search(LuceneEmbeddingStore store, float[] query, Filter filter) {
+        return store.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(Embedding.from(query))
+            .maxResults(10)
+            .filter(filter)
+            .build()
+        ).matches();
+    }
+}
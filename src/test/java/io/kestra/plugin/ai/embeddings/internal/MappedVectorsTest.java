@@ -0,0 +1,105 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class MappedVectorsTest {
+    @TempDir
+    private Path directory;
+
+    @Test
+    void vectorsSpanningSeveralChunks() throws Exception {
+        MappedVectors vectors = MappedVectors.create(directory);
+        // 4096 floats per vector, so 4096 vectors per chunk
+        int dimension = 4096;
+        Random random = new Random(42);
+        float[] first = null;
+        float[] last = null;
+        for (int i = 0; i < 5_000; i++) {
+            float[] vector = new float[dimension];
+            for (int j = 0; j < dimension; j++) {
+                vector[j] = random.nextFloat();
+            }
+            assertThat(vectors.add(vector)).isEqualTo(i);
+            if (i == 0) {
+                first = vector;
+            }
+            last = vector;
+        }
+
+        // vectors are kept normalized, so they're read back with a rounding error
+        assertThat(vectors.get(0)).containsExactly(first, within(1e-5f));
+        assertThat(vectors.get(4_999)).containsExactly(last, within(1e-5f));
+        assertThat(vectors.unitVector(0)).containsExactly(VectorMath.normalize(first), within(1e-6f));
+        float[] unitLast = VectorMath.normalize(last);
+        assertThat(vectors.dot(unitLast, 4_999)).isCloseTo(1.0f, within(1e-5f));
+        assertThat(vectors.dot(unitLast, 0)).isCloseTo(VectorMath.dot(unitLast, VectorMath.normalize(first)), within(1e-5f));
+        // the file is deleted as soon as it's opened
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void memoryMappedStore() throws Exception {
+        LocalEmbeddingStore store = new LocalEmbeddingStore(MappedVectors.create(directory));
+        store.addAll(
+            List.of("first", "second", "third"),
+            List.of(Embedding.from(new float[]{0.1f, 0.2f, 0.3f}), Embedding.from(new float[]{0.3f, 0.2f, 0.1f}), Embedding.from(new float[]{0.2f, 0.2f, 0.2f})),
+            List.of(TextSegment.from("I'm Loïc"), TextSegment.from("I live in Lille"), TextSegment.from("I work at Kestra"))
+        );
+
+        LocalEmbeddingStore copy = store.copy();
+        copy.removeAll(List.of("second"));
+        copy.add("fourth", Embedding.from(new float[]{0.3f, 0.2f, 0.0f}));
+
+        List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(Embedding.from(new float[]{0.3f, 0.2f, 0.1f}))
+            .maxResults(1)
+            .build()
+        ).matches();
+        assertThat(matches.getFirst().embeddingId()).isEqualTo("second");
+        assertThat(matches.getFirst().embedding().vector()).containsExactly(new float[]{0.3f, 0.2f, 0.1f}, within(1e-6f));
+        assertThat(store.size()).isEqualTo(3);
+
+        assertThat(copy.entries()).extracting(LocalEmbeddingStore.Entry::id).containsExactly("first", "third", "fourth");
+        LocalEmbeddingStore decoded = LocalEmbeddingStoreCodec.decode(
+            LocalEmbeddingStoreCodec.encode(copy, LocalEmbeddingStoreCodec.VectorEncoding.FLOAT32),
+            MappedVectors.create(directory)
+        );
+        assertThat(decoded.get("fourth").orElseThrow().vector()).containsExactly(new float[]{0.3f, 0.2f, 0.0f}, within(1e-6f));
+    }
+
+    @Test
+    void fileIsClosedWithTheLastStore() throws Exception {
+        LocalEmbeddingStore store = new LocalEmbeddingStore(MappedVectors.create(directory));
+        store.add("first", Embedding.from(new float[]{0.1f, 0.2f, 0.3f}));
+        LocalEmbeddingStore copy = store.copy();
+
+        // a shared store is closed by its last user
+        assertThat(store.retain()).isTrue();
+        store.close();
+        store.close();
+        assertThat(store.retain()).isFalse();
+
+        // the copy shares the file, so it's still open
+        copy.add("second", Embedding.from(new float[]{0.3f, 0.2f, 0.1f}));
+        assertThat(copy.get("first").orElseThrow().vector()).containsExactly(0.1f, 0.2f, 0.3f);
+
+        copy.close();
+        assertThatThrownBy(() -> copy.vectorStorage().copy()).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,79 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetadataIndexTest {
+    @Test
+    void candidates() {
+        UUID tenant = UUID.randomUUID();
+        MetadataIndex index = new MetadataIndex();
+        index.add("first", Metadata.from(Map.of("tenant", tenant, "year", 2018)));
+        index.add("second", Metadata.from(Map.of("tenant", "other", "year", 2020L)));
+        index.add("third", Metadata.from(Map.of("tenant", "other", "year", 2024.0)));
+
+        assertThat(index.candidates(metadataKey("tenant").isEqualTo(tenant))).contains(Set.of("first"));
+        assertThat(index.candidates(metadataKey("tenant").isEqualTo(tenant.toString()))).contains(Set.of("first"));
+        // numbers of different types are compared by value
+        assertThat(index.candidates(metadataKey("year").isEqualTo(2020))).contains(Set.of("second"));
+        assertThat(index.candidates(metadataKey("year").isGreaterThan(2018))).contains(Set.of("second", "third"));
+        assertThat(index.candidates(metadataKey("year").isLessThanOrEqualTo(2020.0))).contains(Set.of("first", "second"));
+        assertThat(index.candidates(metadataKey("tenant").isIn("other", "unknown").and(metadataKey("year").isLessThan(2021)))).contains(Set.of("second"));
+        assertThat(index.candidates(metadataKey("tenant").isEqualTo("other").and(metadataKey("year").isNotEqualTo(2020)))).contains(Set.of("second", "third"));
+        assertThat(index.candidates(metadataKey("tenant").isEqualTo(tenant).or(metadataKey("year").isGreaterThanOrEqualTo(2024)))).contains(Set.of("first", "third"));
+        // negations can't be narrowed down
+        assertThat(index.candidates(metadataKey("tenant").isNotEqualTo("other"))).isEmpty();
+        assertThat(index.candidates(metadataKey("tenant").isEqualTo(tenant).or(metadataKey("year").isNotIn(2020)))).isEmpty();
+
+        index.remove("second", Metadata.from(Map.of("tenant", "other", "year", 2020L)));
+        assertThat(index.candidates(metadataKey("tenant").isEqualTo("other"))).contains(Set.of("third"));
+        assertThat(index.candidates(metadataKey("year").isEqualTo(2020))).contains(Set.of());
+    }
+
+    @Test
+    void filteredSearch() {
+        LocalEmbeddingStore store = new LocalEmbeddingStore();
+        store.addAll(
+            List.of("first", "second", "third"),
+            List.of(Embedding.from(new float[]{0.1f, 0.2f, 0.3f}), Embedding.from(new float[]{0.3f, 0.2f, 0.1f}), Embedding.from(new float[]{0.2f, 0.2f, 0.2f})),
+            List.of(
+                TextSegment.from("I'm Loïc", Metadata.from(Map.of("tenant", "kestra"))),
+                TextSegment.from("I live in Lille", Metadata.from(Map.of("tenant", "other"))),
+                TextSegment.from("I work at Kestra", Metadata.from(Map.of("tenant", "kestra")))
+            )
+        );
+        // replacing an entry updates its metadata
+        store.add("first", Embedding.from(new float[]{0.1f, 0.2f, 0.3f}));
+
+        assertThat(search(store, metadataKey("tenant").isEqualTo("kestra"))).containsExactly("third");
+        assertThat(search(store, metadataKey("tenant").isNotEqualTo("other"))).containsExactly("third");
+
+        store.copy().removeAll(metadataKey("tenant").isEqualTo("kestra"));
+        assertThat(search(store, metadataKey("tenant").isEqualTo("kestra"))).containsExactly("third");
+        store.removeAll(metadataKey("tenant").isEqualTo("kestra"));
+        assertThat(search(store, metadataKey("tenant").isEqualTo("kestra"))).isEmpty();
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    private static List<String> search(LocalEmbeddingStore store, Filter filter) {
+        return store.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(Embedding.from(new float[]{0.3f, 0.2f, 0.1f}))
+            .maxResults(10)
+            .filter(filter)
+            .build()
+        ).matches().stream().map(EmbeddingMatch::embeddingId).toList();
+    }
+}
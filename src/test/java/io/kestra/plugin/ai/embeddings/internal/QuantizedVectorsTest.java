@@ -0,0 +1,104 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QuantizedVectorsTest {
+    private static final int DIMENSION = 256;
+    private static final int SIZE = 5_000;
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+
+    @Test
+    void int8Recall() {
+        assertThat(recall(QuantizedVectors.Quantization.INT8, 2)).isGreaterThan(0.98);
+    }
+
+    @Test
+    void binaryRecall() {
+        assertThat(recall(QuantizedVectors.Quantization.BINARY, 10)).isGreaterThan(0.9);
+    }
+
+    @Test
+    void deletedAndFilteredVectorsAreNotReturned() {
+        QuantizedVectors vectors = new QuantizedVectors(QuantizedVectors.Quantization.INT8, 1);
+        vectors.add("first", new float[]{1, 0, 0});
+        vectors.add("second", new float[]{0.9f, 0.1f, 0});
+        vectors.add("third", new float[]{0, 1, 0});
+        vectors.delete("first");
+
+        assertThat(vectors.search(new float[]{1, 0, 0}, 1, id -> true)).containsExactly("second");
+        assertThat(vectors.search(new float[]{1, 0, 0}, 1, id -> !id.equals("second"))).containsExactly("third");
+
+        vectors.compact(Set.of("second", "third"));
+        assertThat(vectors.size()).isEqualTo(2);
+        assertThat(vectors.deletedCount()).isZero();
+        assertThat(vectors.search(new float[]{1, 0, 0}, 2, id -> true)).containsExactly("second", "third");
+    }
+
+    @Test
+    void compactKeepsReplacedVectors() {
+        QuantizedVectors vectors = new QuantizedVectors(QuantizedVectors.Quantization.INT8, 1);
+        vectors.add("first", new float[]{1, 0, 0});
+        vectors.add("second", new float[]{0, 1, 0});
+        vectors.add("first", new float[]{0, 0, 1});
+
+        vectors.compact(Set.of("first", "second"));
+        assertThat(vectors.size()).isEqualTo(2);
+        assertThat(vectors.deletedCount()).isZero();
+        assertThat(vectors.search(new float[]{0, 0, 1}, 1, id -> true)).containsExactly("first");
+        assertThat(vectors.search(new float[]{1, 0, 0}, 2, id -> true)).containsExactly("first", "second");
+    }
+
+    // the share of the exact top K found after rescoring the quantized candidates with the original vectors
+    private static double recall(QuantizedVectors.Quantization quantization, int rescoreDepth) {
+        Random random = new Random(42);
+        float[][] centroids = new float[50][];
+        for (int i = 0; i < centroids.length; i++) {
+            centroids[i] = gaussian(random, 1);
+        }
+        List<float[]> data = new ArrayList<>(SIZE);
+        QuantizedVectors vectors = new QuantizedVectors(quantization, rescoreDepth);
+        for (int i = 0; i < SIZE; i++) {
+            float[] vector = add(centroids[random.nextInt(centroids.length)], gaussian(random, 0.5));
+            data.add(vector);
+            vectors.add(String.valueOf(i), vector);
+        }
+
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = add(centroids[random.nextInt(centroids.length)], gaussian(random, 0.5));
+            Set<Integer> exact = new HashSet<>(topK(query, data, IntStream.range(0, SIZE).boxed().toList()));
+            List<Integer> candidates = vectors.search(query, K, id -> true).stream().map(Integer::valueOf).toList();
+            found += (int) topK(query, data, candidates).stream().filter(exact::contains).count();
+        }
+        return (double) found / (QUERIES * K);
+    }
+
+    private static List<Integer> topK(float[] query, List<float[]> data, List<Integer> candidates) {
+        return candidates.stream()
+            .sorted(Comparator.comparingDouble((Integer i) -> LocalEmbeddingStore.cosineSimilarity(query, data.get(i))).reversed())
+            .limit(K)
+            .toList();
+    }
+
+    private static float[] gaussian(Random random, double sigma) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) (random.nextGaussian() * sigma);
+        }
+        return vector;
+    }
+
+    private static float[] add(float[] first, float[] second) {
+        float[] sum = new float[first.length];
+        for (int i = 0; i < first.length; i++) {
+            sum[i] = first[i] + second[i];
+        }
+        return sum;
+    }
+}
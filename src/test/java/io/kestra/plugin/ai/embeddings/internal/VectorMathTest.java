@@ -0,0 +1,62 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class VectorMathTest {
+    @Test
+    void kernelsComputeTheSameDotProduct() throws Exception {
+        VectorMath.Kernel scalar = new VectorMath.ScalarKernel();
+        VectorMath.Kernel vector = VectorMath.vectorApiKernel();
+        Random random = new Random(42);
+        // dimensions that are not a multiple of the vector lanes exercise the tail loops
+        for (int dimension : new int[]{1, 3, 17, 384, 1537}) {
+            float[] first = new float[dimension];
+            float[] second = new float[dimension];
+            double expected = 0;
+            for (int i = 0; i < dimension; i++) {
+                first[i] = (float) random.nextGaussian();
+                second[i] = (float) random.nextGaussian();
+                expected += (double) first[i] * second[i];
+            }
+
+            assertThat((double) scalar.dot(first, second)).isCloseTo(expected, within(1e-3));
+            assertThat((double) vector.dot(first, second)).isCloseTo(expected, within(1e-3));
+        }
+    }
+
+    @Test
+    void dotWithBuffer() {
+        float[] first = {0.1f, 0.2f, 0.3f, 0.4f, 0.5f};
+        float[] second = {0.5f, 0.4f, 0.3f, 0.2f, 0.1f};
+        FloatBuffer buffer = FloatBuffer.allocate(12);
+        buffer.put(7, second);
+
+        assertThat(VectorMath.dot(first, buffer, 7)).isCloseTo(VectorMath.dot(first, second), within(1e-6f));
+        assertThat(buffer.position()).isZero();
+        assertThatThrownBy(() -> VectorMath.dot(first, buffer, 8)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void vectorApiKernelIsUsedWhenTheModuleIsAvailable() {
+        // the tests run with --add-modules jdk.incubator.vector
+        assertThat(VectorMath.kernelName()).isEqualTo("VectorApiKernel");
+    }
+
+    @Test
+    void cosineSimilarityOfUnitVectors() {
+        float[] first = VectorMath.normalize(new float[]{0.1f, 0.2f, 0.3f});
+        float[] second = VectorMath.normalize(new float[]{0.3f, 0.2f, 0.1f});
+        assertThat(VectorMath.norm(first)).isCloseTo(1.0f, within(1e-6f));
+        assertThat((double) VectorMath.dot(first, second)).isCloseTo(0.714, within(1e-3));
+        // a zero vector stays a zero vector, so its similarity is 0
+        assertThat(VectorMath.normalize(new float[3])).containsExactly(0, 0, 0);
+        assertThat(VectorMath.denormalize(first, VectorMath.norm(new float[]{0.1f, 0.2f, 0.3f}))).containsExactly(new float[]{0.1f, 0.2f, 0.3f}, within(1e-6f));
+    }
+}
@@ -1,30 +1,44 @@
 package io.kestra.plugin.ai.rag;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import io.kestra.core.context.TestRunContextFactory;
 import io.kestra.core.exceptions.ResourceExpiredException;
 import io.kestra.core.junit.annotations.KestraTest;
 import io.kestra.core.models.property.Property;
 import io.kestra.core.runners.RunContext;
-import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.core.serializers.FileSerde;
 import io.kestra.core.storages.kv.KVEntry;
 import io.kestra.core.storages.kv.KVStore;
 import io.kestra.core.storages.kv.KVValue;
 import io.kestra.plugin.ai.ContainerTest;
 import io.kestra.plugin.ai.embeddings.KestraKVStore;
+import io.kestra.plugin.ai.embeddings.internal.LocalEmbeddingStore;
+import io.kestra.plugin.ai.embeddings.internal.LocalEmbeddingStoreCodec;
+import io.kestra.plugin.ai.embeddings.internal.SegmentedKVStorage;
 import io.kestra.plugin.ai.provider.Ollama;
+import io.kestra.plugin.ai.rag.internal.IngestionCheckpoint;
+import io.kestra.plugin.ai.rag.internal.IngestionPipeline;
 import jakarta.inject.Inject;
 import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
 
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @KestraTest
 class IngestDocumentTest extends ContainerTest {
@@ -62,6 +76,259 @@ class IngestDocumentTest extends ContainerTest {
         assertKvStore(kvStore, kvKey, 1);
     }
 
+    @Test
+    void concurrentBatches() throws Exception {
+        RunContext runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        var task = IngestDocument.builder()
+            .provider(
+                Ollama.builder()
+                    .type(Ollama.class.getName())
+                    .modelName(Property.ofExpression("{{ modelName }}"))
+                    .endpoint(Property.ofExpression("{{ endpoint }}"))
+                    .build()
+            )
+            .embeddings(
+                KestraKVStore.builder().build()
+            )
+            .drop(Property.ofValue(true))
+            .batchSize(Property.ofValue(1))
+            .maxConcurrency(Property.ofValue(2))
+            .fromDocuments(List.of(
+                IngestDocument.InlineDocument.builder().content(Property.ofValue("I'm Loïc")).build(),
+                IngestDocument.InlineDocument.builder().content(Property.ofValue("I live in Lille")).build(),
+                IngestDocument.InlineDocument.builder().content(Property.ofValue("I work at Kestra")).build()
+            ))
+            .build();
+
+        IngestDocument.Output output = task.run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(3);
+
+        String kvKey = (String) output.getEmbeddingStoreOutputs().get("kvName");
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+        assertKvStore(kvStore, kvKey, 3);
+    }
+
+    @Test
+    void segmentedStorage() throws Exception {
+        RunContext runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        IngestDocument.Output output = segmentedTask(true, "I'm Loïc", "I live in Lille").run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(2);
+
+        // only the new document is written, as a second segment
+        output = segmentedTask(false, "I work at Kestra").run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(1);
+
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+        SegmentedKVStorage.Manifest manifest = SegmentedKVStorage.readManifest(kvStore.getValue("segmented-embedding-store").orElseThrow().value().toString());
+        assertThat(manifest.segments()).hasSize(2);
+        assertThat(manifest.segments()).extracting(SegmentedKVStorage.Segment::size).containsExactly(2, 1);
+        assertThat(SegmentedKVStorage.load(kvStore, manifest).size()).isEqualTo(3);
+
+        // dropping the store deletes the previous segments
+        segmentedTask(true, "I'm Loïc").run(runContext);
+        manifest = SegmentedKVStorage.readManifest(kvStore.getValue("segmented-embedding-store").orElseThrow().value().toString());
+        assertThat(manifest.segments()).hasSize(1);
+        assertThat(kvStore.get("segmented-embedding-store-segment-0")).isEmpty();
+        assertThat(SegmentedKVStorage.load(kvStore, manifest).size()).isEqualTo(1);
+
+        // a segment is appended before each checkpoint, then the segments of the task are merged as there are more than maxSegments
+        segmentedTaskBuilder(KestraKVStore.builder()
+                .kvName(Property.ofValue("segmented-embedding-store"))
+                .segmentedStorage(KestraKVStore.SegmentedStorage.builder().maxSegments(Property.ofValue(2)).build())
+                .build(), false, "I live in Lille", "I work at Kestra", "I like Java")
+            .batchSize(Property.ofValue(1))
+            .checkpoint(Property.ofValue(true))
+            .checkpointKvName(Property.ofValue("segmented-ingestion-checkpoint"))
+            .checkpointInterval(Property.ofValue(Duration.ZERO))
+            .build()
+            .run(runContext);
+        manifest = SegmentedKVStorage.readManifest(kvStore.getValue("segmented-embedding-store").orElseThrow().value().toString());
+        assertThat(manifest.segments()).extracting(SegmentedKVStorage.Segment::size).containsExactly(1, 3);
+        assertThat(kvStore.list()).extracting(KVEntry::key).filteredOn(key -> key.startsWith("segmented-embedding-store-segment-")).hasSize(2);
+        assertThat(SegmentedKVStorage.load(kvStore, manifest).size()).isEqualTo(4);
+    }
+
+    @Test
+    void segmentedStorageWithHnsw() {
+        RunContext runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        IngestDocument task = segmentedTaskBuilder(KestraKVStore.builder()
+                .kvName(Property.ofValue("segmented-embedding-store"))
+                .segmentedStorage(KestraKVStore.SegmentedStorage.builder().build())
+                .hnsw(KestraKVStore.HnswConfiguration.builder().build())
+                .build(), true, "I'm Loïc")
+            .build();
+        assertThatThrownBy(() -> task.run(runContext)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("segmentedStorage");
+    }
+
+    private IngestDocument segmentedTask(boolean drop, String... contents) {
+        return segmentedTaskBuilder(KestraKVStore.builder()
+                .kvName(Property.ofValue("segmented-embedding-store"))
+                .segmentedStorage(KestraKVStore.SegmentedStorage.builder().build())
+                .build(), drop, contents)
+            .build();
+    }
+
+    private IngestDocument.IngestDocumentBuilder<?, ?> segmentedTaskBuilder(KestraKVStore embeddings, boolean drop, String... contents) {
+        return IngestDocument.builder()
+            .provider(
+                Ollama.builder()
+                    .type(Ollama.class.getName())
+                    .modelName(Property.ofExpression("{{ modelName }}"))
+                    .endpoint(Property.ofExpression("{{ endpoint }}"))
+                    .build()
+            )
+            .embeddings(embeddings)
+            .drop(Property.ofValue(drop))
+            .fromDocuments(Arrays.stream(contents).map(content -> IngestDocument.InlineDocument.builder().content(Property.ofValue(content)).build()).toList());
+    }
+
+    @Test
+    void incremental() throws Exception {
+        RunContext runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        IngestDocument.Output output = incrementalTask(true, "I'm Loïc", "I live in Lille").run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(2);
+        assertThat(output.getSkippedDocuments()).isZero();
+
+        // the first document is unchanged, the second one changed
+        output = incrementalTask(false, "I'm Loïc", "I live in Paris").run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(1);
+        assertThat(output.getSkippedDocuments()).isEqualTo(1);
+        assertThat(output.getRemovedSegments()).isEqualTo(1);
+
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+        assertKvStore(kvStore, "incremental-embedding-store", 2);
+
+        // the second document is removed
+        output = incrementalTask(false, "I'm Loïc").run(runContext);
+        assertThat(output.getIngestedDocuments()).isZero();
+        assertThat(output.getSkippedDocuments()).isEqualTo(1);
+        assertThat(output.getRemovedSegments()).isEqualTo(1);
+        assertKvStore(kvStore, "incremental-embedding-store", 1);
+
+        // inline documents are identified by their content, so inserting a document doesn't ingest the next ones again
+        output = incrementalTask(false, "I work at Kestra", "I'm Loïc").run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(1);
+        assertThat(output.getSkippedDocuments()).isEqualTo(1);
+        assertThat(output.getRemovedSegments()).isZero();
+        assertKvStore(kvStore, "incremental-embedding-store", 2);
+    }
+
+    private IngestDocument incrementalTask(boolean drop, String... contents) {
+        return IngestDocument.builder()
+            .provider(
+                Ollama.builder()
+                    .type(Ollama.class.getName())
+                    .modelName(Property.ofExpression("{{ modelName }}"))
+                    .endpoint(Property.ofExpression("{{ endpoint }}"))
+                    .build()
+            )
+            .embeddings(
+                KestraKVStore.builder().kvName(Property.ofValue("incremental-embedding-store")).build()
+            )
+            .drop(Property.ofValue(drop))
+            .incremental(Property.ofValue(true))
+            .manifestKvName(Property.ofValue("incremental-ingestion-manifest"))
+            .fromDocuments(Arrays.stream(contents)
+                .map(content -> IngestDocument.InlineDocument.builder().content(Property.ofValue(content)).build())
+                .toList()
+            )
+            .build();
+    }
+
+    @Test
+    void resumeFromCheckpoint() throws Exception {
+        RunContext runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        // the first document has been written before the failure of a previous attempt
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+        new IngestionCheckpoint(new IngestionPipeline.Position(0, 0), null).save(kvStore, "resume-ingestion-checkpoint");
+
+        var task = IngestDocument.builder()
+            .provider(
+                Ollama.builder()
+                    .type(Ollama.class.getName())
+                    .modelName(Property.ofExpression("{{ modelName }}"))
+                    .endpoint(Property.ofExpression("{{ endpoint }}"))
+                    .build()
+            )
+            .embeddings(
+                KestraKVStore.builder().kvName(Property.ofValue("resume-embedding-store")).build()
+            )
+            .drop(Property.ofValue(true))
+            .checkpoint(Property.ofValue(true))
+            .checkpointKvName(Property.ofValue("resume-ingestion-checkpoint"))
+            .batchSize(Property.ofValue(1))
+            .fromDocuments(List.of(
+                IngestDocument.InlineDocument.builder().content(Property.ofValue("I'm Loïc")).build(),
+                IngestDocument.InlineDocument.builder().content(Property.ofValue("I live in Lille")).build(),
+                IngestDocument.InlineDocument.builder().content(Property.ofValue("I love Kestra")).build()
+            ))
+            .build();
+
+        IngestDocument.Output output = task.run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(3);
+
+        assertKvStore(kvStore, "resume-embedding-store", 2);
+        assertThat(kvStore.get("resume-ingestion-checkpoint")).isEmpty();
+    }
+
+    @Test
+    void tokenDocumentSplitter() throws Exception {
+        RunContext runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        String content = IntStream.range(0, 20)
+            .mapToObj(i -> "This is the paragraph number " + i + " of the document.")
+            .collect(Collectors.joining("\n\n"));
+        var task = IngestDocument.builder()
+            .provider(
+                Ollama.builder()
+                    .type(Ollama.class.getName())
+                    .modelName(Property.ofExpression("{{ modelName }}"))
+                    .endpoint(Property.ofExpression("{{ endpoint }}"))
+                    .build()
+            )
+            .embeddings(
+                KestraKVStore.builder().kvName(Property.ofValue("token-splitter-embedding-store")).build()
+            )
+            .drop(Property.ofValue(true))
+            .fromDocuments(List.of(IngestDocument.InlineDocument.builder().content(Property.ofValue(content)).build()))
+            .documentSplitter(IngestDocument.DocumentSplitter.builder()
+                .maxSegmentSizeInTokens(50)
+                .maxOverlapSizeInTokens(0)
+                .build()
+            )
+            .build();
+
+        IngestDocument.Output output = task.run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(1);
+
+        // each paragraph has 10 tokens, so 4 paragraphs and their separators fit in a segment
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+        assertKvStore(kvStore, "token-splitter-embedding-store", 5);
+    }
+
     @Test
     void internalStorageURIs() throws Exception {
         RunContext runContext = runContextFactory.of("namespace", Map.of(
@@ -96,6 +363,51 @@ class IngestDocumentTest extends ContainerTest {
         assertKvStore(kvStore, kvKey, 1);
     }
 
+    @Test
+    void internalStorageIonRows() throws Exception {
+        RunContext runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        Path path = runContext.workingDir().createTempFile(".ion");
+        try (var writer = Files.newBufferedWriter(path)) {
+            FileSerde.writeAll(writer, Flux.just(
+                Map.of("id", 1, "content", "I'm Loïc"),
+                Map.of("id", 2, "content", "I live in Lille")
+            )).block();
+        }
+        URI uri = runContext.storage().putFile(path.toFile());
+
+        var task = IngestDocument.builder()
+            .provider(
+                Ollama.builder()
+                    .type(Ollama.class.getName())
+                    .modelName(Property.ofExpression("{{ modelName }}"))
+                    .endpoint(Property.ofExpression("{{ endpoint }}"))
+                    .build()
+            )
+            .embeddings(
+                KestraKVStore.builder().build()
+            )
+            .drop(Property.ofValue(true))
+            .fromInternalURIs(Property.ofValue(List.of(uri.toString())))
+            .internalURIsConfiguration(IngestDocument.InternalURIsConfiguration.builder()
+                .format(Property.ofValue(IngestDocument.InternalURIsConfiguration.Format.ION))
+                .textColumn(Property.ofValue("content"))
+                .metadataColumns(Property.ofValue(List.of("id")))
+                .build()
+            )
+            .build();
+
+        IngestDocument.Output output = task.run(runContext);
+        assertThat(output.getIngestedDocuments()).isEqualTo(2);
+
+        String kvKey = (String) output.getEmbeddingStoreOutputs().get("kvName");
+        KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+        assertKvStore(kvStore, kvKey, 2);
+    }
+
     @Test
     void workingDirectoryPath() throws Exception {
         RunContext runContext = runContextFactory.of("namespace", Map.of(
@@ -161,6 +473,74 @@ class IngestDocumentTest extends ContainerTest {
         assertKvStore(kvStore, kvKey, 2);
     }
 
+    @Test
+    void externalURLsIncremental() throws Exception {
+        RunContext runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        WireMockServer wireMockServer = new WireMockServer(WireMockConfiguration.options().dynamicPort());
+        wireMockServer.start();
+        try {
+            // the first page is validated by its ETag, the second one by its last modification date
+            wireMockServer.stubFor(get(urlEqualTo("/products/1")).atPriority(1)
+                .withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(304)));
+            wireMockServer.stubFor(get(urlEqualTo("/products/2")).atPriority(1)
+                .withHeader("If-Modified-Since", equalTo("Wed, 21 Oct 2015 07:28:00 GMT"))
+                .willReturn(aResponse().withStatus(304)));
+            stubProducts(wireMockServer, "Apple", "Banana");
+
+            String baseUrl = "http://localhost:" + wireMockServer.port();
+            var task = IngestDocument.builder()
+                .provider(
+                    Ollama.builder()
+                        .type(Ollama.class.getName())
+                        .modelName(Property.ofExpression("{{ modelName }}"))
+                        .endpoint(Property.ofExpression("{{ endpoint }}"))
+                        .build()
+                )
+                .embeddings(
+                    KestraKVStore.builder().kvName(Property.ofValue("external-urls-embedding-store")).build()
+                )
+                .incremental(Property.ofValue(true))
+                .manifestKvName(Property.ofValue("external-urls-ingestion-manifest"))
+                .fromExternalURLs(Property.ofValue(List.of(baseUrl + "/products/1", baseUrl + "/products/2")))
+                .externalURLsConfiguration(IngestDocument.ExternalURLsConfiguration.builder()
+                    .maxConcurrency(Property.ofValue(2))
+                    .maxConcurrencyPerHost(Property.ofValue(1))
+                    .build()
+                )
+                .build();
+
+            IngestDocument.Output output = task.run(runContext);
+            assertThat(output.getIngestedDocuments()).isEqualTo(2);
+
+            // the unconditional responses changed, so the pages are only skipped if the validators are sent and the not modified responses honored
+            stubProducts(wireMockServer, "Apple pie", "Banana split");
+            output = task.run(runContext);
+            assertThat(output.getIngestedDocuments()).isZero();
+            assertThat(output.getSkippedDocuments()).isEqualTo(2);
+            assertThat(output.getRemovedSegments()).isZero();
+
+            wireMockServer.verify(getRequestedFor(urlEqualTo("/products/1")).withHeader("If-None-Match", equalTo("\"v1\"")));
+            wireMockServer.verify(getRequestedFor(urlEqualTo("/products/2")).withHeader("If-Modified-Since", equalTo("Wed, 21 Oct 2015 07:28:00 GMT")));
+
+            KVStore kvStore = runContext.namespaceKv(runContext.flowInfo().namespace());
+            assertKvStore(kvStore, "external-urls-embedding-store", 2);
+        } finally {
+            wireMockServer.stop();
+        }
+    }
+
+    private static void stubProducts(WireMockServer wireMockServer, String first, String second) {
+        wireMockServer.stubFor(get(urlEqualTo("/products/1")).atPriority(5)
+            .willReturn(aResponse().withHeader("Content-Type", "text/plain").withHeader("ETag", "\"v1\"").withBody(first)));
+        wireMockServer.stubFor(get(urlEqualTo("/products/2")).atPriority(5)
+            .willReturn(aResponse().withHeader("Content-Type", "text/plain").withHeader("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT").withBody(second)));
+    }
+
     private void assertKvStore(KVStore kvStore, String kvKey, int nbDocuments) throws IOException, ResourceExpiredException {
         Optional<KVEntry> kvEntry = kvStore.get(kvKey);
         assertThat(kvEntry.isPresent()).isTrue();
@@ -168,8 +548,7 @@ class IngestDocumentTest extends ContainerTest {
         assertThat(kvValue.isPresent()).isTrue();
         assertThat(kvValue.get().value()).isNotNull();
         String value = kvValue.get().value().toString();
-        JsonNode jsonNode = JacksonMapper.ofJson().readTree(value);
-        assertThat(jsonNode.get("entries")).isNotNull();
-        assertThat(jsonNode.get("entries").size()).isEqualTo(nbDocuments);
+        LocalEmbeddingStore embeddingStore = LocalEmbeddingStoreCodec.decode(Base64.getDecoder().decode(value));
+        assertThat(embeddingStore.size()).isEqualTo(nbDocuments);
     }
 }
\ No newline at end of file
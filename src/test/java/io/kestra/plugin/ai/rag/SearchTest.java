@@ -4,12 +4,22 @@ import io.kestra.core.context.TestRunContextFactory;
 import io.kestra.core.junit.annotations.KestraTest;
 import io.kestra.core.models.property.Property;
 import io.kestra.core.models.tasks.common.FetchType;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.FileSerde;
 import io.kestra.plugin.ai.ContainerTest;
+import io.kestra.plugin.ai.domain.EmbeddingCache;
+import io.kestra.plugin.ai.domain.SearchCache;
 import io.kestra.plugin.ai.embeddings.KestraKVStore;
 import io.kestra.plugin.ai.provider.Ollama;
 import jakarta.inject.Inject;
 import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
 
@@ -68,4 +78,258 @@ class SearchTest extends ContainerTest {
         assertThat(searchTaskOutput.getResults()).isEqualTo(List.of("Banana"));
         assertThat(searchTaskOutput.getSize()).isEqualTo(1);
     }
+
+    @Test
+    void searchWithEmbeddingCache() throws Exception {
+        // Given
+        var runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        var ollamaProvider = Ollama.builder()
+            .type(Ollama.class.getName())
+            .modelName(Property.ofExpression("{{ modelName }}"))
+            .endpoint(Property.ofExpression("{{ endpoint }}"))
+            .build();
+
+        var kestraKVEmbeddingsStore = KestraKVStore.builder().build();
+        var embeddingCache = EmbeddingCache.builder().build();
+
+        var ingestDocumentTask = IngestDocument.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .embeddingCache(embeddingCache)
+            .drop(Property.ofValue(true))
+            .fromDocuments(
+                List.of(
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Apple")).build(),
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Cherry")).build(),
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Banana")).build()
+                )
+            )
+            .build();
+
+        var ingestDocumentTaskOutput = ingestDocumentTask.run(runContext);
+        assertThat(ingestDocumentTaskOutput.getIngestedDocuments()).isEqualTo(3);
+        // other tests may have already embedded the same texts
+        assertThat(counter(runContext, "ai.embedding.cache.hit.count") + counter(runContext, "ai.embedding.cache.miss.count")).isEqualTo(3);
+
+        // When: the query has already been embedded at ingestion time, so it's served by the cache
+        var searchTask = Search.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .embeddingCache(embeddingCache)
+            .query(Property.ofValue("Banana"))
+            .maxResults(Property.ofValue(5))
+            .minScore(Property.ofValue(0.8))
+            .fetchType(Property.ofValue(FetchType.FETCH))
+            .build();
+
+        // Then
+        var searchRunContext = runContextFactory.of("namespace", Map.of("modelName", "tinydolphin", "endpoint", ollamaEndpoint));
+        var searchTaskOutput = searchTask.run(searchRunContext);
+        assertThat(searchTaskOutput.getResults()).isEqualTo(List.of("Banana"));
+        assertThat(searchTaskOutput.getSize()).isEqualTo(1);
+        assertThat(counter(searchRunContext, "ai.embedding.cache.hit.count")).isEqualTo(1);
+        assertThat(counter(searchRunContext, "ai.embedding.cache.miss.count")).isZero();
+
+        // And: a new query is embedded by the first run, then served by the cache on the second run
+        var newQuerySearchTask = Search.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .embeddingCache(embeddingCache)
+            .query(Property.ofValue("A fruit searched twice with the embedding cache"))
+            .maxResults(Property.ofValue(1))
+            .minScore(Property.ofValue(0.0))
+            .fetchType(Property.ofValue(FetchType.FETCH))
+            .build();
+
+        var firstRunContext = runContextFactory.of("namespace", Map.of("modelName", "tinydolphin", "endpoint", ollamaEndpoint));
+        newQuerySearchTask.run(firstRunContext);
+        assertThat(counter(firstRunContext, "ai.embedding.cache.hit.count")).isZero();
+        assertThat(counter(firstRunContext, "ai.embedding.cache.miss.count")).isEqualTo(1);
+
+        var secondRunContext = runContextFactory.of("namespace", Map.of("modelName", "tinydolphin", "endpoint", ollamaEndpoint));
+        newQuerySearchTask.run(secondRunContext);
+        assertThat(counter(secondRunContext, "ai.embedding.cache.hit.count")).isEqualTo(1);
+        assertThat(counter(secondRunContext, "ai.embedding.cache.miss.count")).isZero();
+    }
+
+    @Test
+    void searchWithSearchCache() throws Exception {
+        // Given
+        var runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        var ollamaProvider = Ollama.builder()
+            .type(Ollama.class.getName())
+            .modelName(Property.ofExpression("{{ modelName }}"))
+            .endpoint(Property.ofExpression("{{ endpoint }}"))
+            .build();
+
+        var kestraKVEmbeddingsStore = KestraKVStore.builder().kvName(Property.ofValue("search-cache-embedding-store")).build();
+
+        var ingestDocumentTask = IngestDocument.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .drop(Property.ofValue(true))
+            .fromDocuments(
+                List.of(
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Apple")).build(),
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Banana")).build()
+                )
+            )
+            .build();
+        ingestDocumentTask.run(runContext);
+
+        var searchTask = Search.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .searchCache(SearchCache.builder().build())
+            .query(Property.ofValue("Banana"))
+            .maxResults(Property.ofValue(1))
+            .minScore(Property.ofValue(0.0))
+            .fetchType(Property.ofValue(FetchType.FETCH))
+            .build();
+
+        // When: the second search is served by the cache
+        assertThat(searchTask.run(runContext).getResults()).isEqualTo(List.of("Banana"));
+        assertThat(searchTask.run(runContext).getResults()).isEqualTo(List.of("Banana"));
+
+        // Then: ingesting into the store invalidates the cached results, even with other store properties
+        IngestDocument.builder()
+            .provider(ollamaProvider)
+            .embeddings(KestraKVStore.builder().kvName(Property.ofValue("search-cache-embedding-store")).maxCachedStores(Property.ofValue(0)).build())
+            .drop(Property.ofValue(true))
+            .fromDocuments(List.of(IngestDocument.InlineDocument.builder().content(Property.ofValue("Cherry")).build()))
+            .build()
+            .run(runContext);
+        assertThat(searchTask.run(runContext).getResults()).isEqualTo(List.of("Cherry"));
+    }
+
+    @Test
+    void batchSearch() throws Exception {
+        // Given
+        var runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        var ollamaProvider = Ollama.builder()
+            .type(Ollama.class.getName())
+            .modelName(Property.ofExpression("{{ modelName }}"))
+            .endpoint(Property.ofExpression("{{ endpoint }}"))
+            .build();
+
+        var kestraKVEmbeddingsStore = KestraKVStore.builder().kvName(Property.ofValue("batch-search-embedding-store")).build();
+
+        var ingestDocumentTask = IngestDocument.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .drop(Property.ofValue(true))
+            .fromDocuments(
+                List.of(
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Apple")).build(),
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Cherry")).build(),
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Banana")).build()
+                )
+            )
+            .build();
+        ingestDocumentTask.run(runContext);
+
+        Path path = runContext.workingDir().createTempFile(".ion");
+        try (var writer = Files.newBufferedWriter(path)) {
+            FileSerde.writeAll(writer, Flux.just(
+                Map.of("question", "Banana"),
+                Map.of("question", " "),
+                Map.of("question", "Cherry"),
+                Map.of("question", "Apple")
+            )).block();
+        }
+        URI uri = runContext.storage().putFile(path.toFile());
+
+        // When: a batch size of 2 so the queries are searched as 2 concurrent batches
+        var searchTask = Search.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .queriesFrom(Property.ofValue(uri.toString()))
+            .queryColumn(Property.ofValue("question"))
+            .maxResults(Property.ofValue(1))
+            .minScore(Property.ofValue(0.8))
+            .batchSize(Property.ofValue(2))
+            .build();
+
+        // Then: the matches are written in the order of the queries
+        var searchTaskOutput = searchTask.run(runContext);
+        assertThat(searchTaskOutput.getSize()).isEqualTo(3);
+        try (var reader = new BufferedReader(new InputStreamReader(runContext.storage().getFile(searchTaskOutput.getUri())))) {
+            List<Object> rows = FileSerde.readAll(reader).collectList().block();
+            assertThat(rows).extracting(row -> ((Map<?, ?>) row).get("query")).containsExactly("Banana", "Cherry", "Apple");
+            assertThat(rows).extracting(row -> ((Map<?, ?>) row).get("text")).containsExactly("Banana", "Cherry", "Apple");
+            assertThat(rows).extracting(row -> ((Map<?, ?>) row).get("rank")).containsOnly(1);
+        }
+    }
+
+    @Test
+    void storeResults() throws Exception {
+        // Given
+        var runContext = runContextFactory.of("namespace", Map.of(
+            "modelName", "tinydolphin",
+            "endpoint", ollamaEndpoint
+        ));
+
+        var ollamaProvider = Ollama.builder()
+            .type(Ollama.class.getName())
+            .modelName(Property.ofExpression("{{ modelName }}"))
+            .endpoint(Property.ofExpression("{{ endpoint }}"))
+            .build();
+
+        var kestraKVEmbeddingsStore = KestraKVStore.builder().kvName(Property.ofValue("store-results-embedding-store")).build();
+
+        var ingestDocumentTask = IngestDocument.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .drop(Property.ofValue(true))
+            .fromDocuments(
+                List.of(
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Apple")).metadata(Property.ofValue(Map.of("color", "red"))).build(),
+                    IngestDocument.InlineDocument.builder().content(Property.ofValue("Banana")).metadata(Property.ofValue(Map.of("color", "yellow"))).build()
+                )
+            )
+            .build();
+        ingestDocumentTask.run(runContext);
+
+        // When
+        var searchTask = Search.builder()
+            .provider(ollamaProvider)
+            .embeddings(kestraKVEmbeddingsStore)
+            .query(Property.ofValue("Banana"))
+            .maxResults(Property.ofValue(2))
+            .minScore(Property.ofValue(0.0))
+            .fetchType(Property.ofValue(FetchType.STORE))
+            .build();
+
+        // Then: each match is stored with its score and metadata
+        var searchTaskOutput = searchTask.run(runContext);
+        assertThat(searchTaskOutput.getSize()).isEqualTo(2);
+        try (var reader = new BufferedReader(new InputStreamReader(runContext.storage().getFile(searchTaskOutput.getUri())))) {
+            List<Object> rows = FileSerde.readAll(reader).collectList().block();
+            Map<?, ?> first = (Map<?, ?>) rows.getFirst();
+            assertThat(first.get("rank")).isEqualTo(1);
+            assertThat(first.get("text")).isEqualTo("Banana");
+            assertThat(first.get("id")).isNotNull();
+            assertThat((Double) first.get("score")).isGreaterThan((Double) ((Map<?, ?>) rows.get(1)).get("score"));
+            assertThat((Map<?, ?>) first.get("metadata")).containsEntry("color", "yellow");
+        }
+    }
+
+    private static double counter(RunContext runContext, String name) {
+        return runContext.metrics().stream()
+            .filter(metric -> metric.getName().equals(name))
+            .mapToDouble(metric -> ((Number) metric.getValue()).doubleValue())
+            .sum();
+    }
 }
@@ -0,0 +1,75 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.document.Document;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocumentContentParserTest {
+    private final DocumentContentParser parser = DocumentContentParser.builder()
+        .htmlMainContent(true)
+        .normalizeMarkdown(true)
+        .build();
+
+    @Test
+    void htmlMainContent() {
+        String html = """
+            <html>
+              <head><title>Kestra</title><style>body { color: red; }</style></head>
+              <body>
+                <nav><a href="/">Home</a><a href="/docs">Docs</a></nav>
+                <main>
+                  <h1>Getting started</h1>
+                  <p>Kestra is an <b>orchestration</b> platform.</p>
+                  <ul><li>Flows</li><li>Tasks</li></ul>
+                  <script>track();</script>
+                </main>
+                <footer>Copyright</footer>
+              </body>
+            </html>""";
+
+        Document document = parser.parserFor("index.html", null).parse(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(document.text()).isEqualTo("""
+            # Getting started
+
+            Kestra is an orchestration platform.
+
+            - Flows
+            - Tasks""");
+        assertThat(document.metadata().getString("title")).isEqualTo("Kestra");
+    }
+
+    @Test
+    void normalizeMarkdown() {
+        String markdown = """
+            ---
+            title: Kestra
+            ---
+            # Getting **started**
+
+            <!-- a comment -->
+            Read the [documentation](https://kestra.io/docs) ![logo](logo.png)
+            Use `List<String>` or ``a **bold** `code` span``
+
+            ```yaml
+            id: **hello**
+            ```
+            """;
+
+        Document document = parser.parserFor(null, "text/markdown; charset=UTF-8").parse(new ByteArrayInputStream(markdown.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(document.text()).isEqualTo("""
+            # Getting started
+
+            Read the documentation logo
+            Use `List<String>` or ``a **bold** `code` span``
+
+            ```yaml
+            id: **hello**
+            ```""");
+    }
+}
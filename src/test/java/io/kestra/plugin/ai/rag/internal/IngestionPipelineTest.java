@@ -0,0 +1,192 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import io.kestra.plugin.ai.embeddings.internal.LocalEmbeddingStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestionPipelineTest {
+    // one segment per line
+    private static final DocumentSplitter LINE_SPLITTER = document -> Arrays.stream(document.text().split("\n")).map(TextSegment::from).toList();
+
+    @Test
+    void ingestByBatches() {
+        var embeddingModel = new RecordingEmbeddingModel();
+        var embeddingStore = new InMemoryEmbeddingStore<TextSegment>();
+        List<String> writtenSources = new ArrayList<>();
+
+        try (var pipeline = IngestionPipeline.builder()
+            .embeddingModel(embeddingModel)
+            .embeddingStore(embeddingStore)
+            .documentSplitter(LINE_SPLITTER)
+            .batchSize(2)
+            .maxConcurrency(2)
+            .segmentListener((source, id) -> writtenSources.add(source))
+            .build()) {
+            pipeline.ingest(new SourceDocument("first", Document.from("a\nb\nc")), 0);
+            pipeline.ingest(new SourceDocument("second", Document.from("d\ne")), 1);
+            // only full batches are embedded before the flush
+            assertThat(embeddingModel.batches).allSatisfy(batch -> assertThat(batch).hasSize(2));
+
+            pipeline.flush();
+
+            // segments are embedded by batches, the last one being partial, and written in order
+            assertThat(embeddingModel.batches).containsExactlyInAnyOrder(List.of("a", "b"), List.of("c", "d"), List.of("e"));
+            assertThat(writtenSources).containsExactly("first", "first", "first", "second", "second");
+            assertThat(pipeline.getDocumentCount()).isEqualTo(2);
+            assertThat(pipeline.getSegmentCount()).isEqualTo(5);
+            assertThat(pipeline.getTokenUsage().inputTokenCount()).isEqualTo(5);
+        }
+    }
+
+    @Test
+    void wholeDocumentWithoutSplitter() {
+        var embeddingModel = new RecordingEmbeddingModel();
+
+        try (var pipeline = IngestionPipeline.builder()
+            .embeddingModel(embeddingModel)
+            .embeddingStore(new InMemoryEmbeddingStore<>())
+            .batchSize(64)
+            .maxConcurrency(1)
+            .build()) {
+            pipeline.ingest(new SourceDocument("first", Document.from("a\nb")), 0);
+            pipeline.flush();
+
+            assertThat(embeddingModel.batches).containsExactly(List.of("a\nb"));
+            assertThat(pipeline.getSegmentCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void resumeAfterCheckpoint() {
+        var embeddingModel = new RecordingEmbeddingModel();
+        List<IngestionPipeline.Position> checkpoints = new ArrayList<>();
+
+        try (var pipeline = IngestionPipeline.builder()
+            .embeddingModel(embeddingModel)
+            .embeddingStore(new InMemoryEmbeddingStore<>())
+            .documentSplitter(LINE_SPLITTER)
+            .batchSize(2)
+            .maxConcurrency(1)
+            .resumeAfter(new IngestionPipeline.Position(0, 1))
+            .checkpointListener(checkpoints::add)
+            .build()) {
+            pipeline.ingest(new SourceDocument("first", Document.from("a\nb\nc")), 0);
+            pipeline.ingest(new SourceDocument("second", Document.from("d")), 1);
+            pipeline.flush();
+
+            assertThat(embeddingModel.batches).containsExactly(List.of("c", "d"));
+            assertThat(pipeline.getResumedSegmentCount()).isEqualTo(2);
+            assertThat(checkpoints).containsExactly(new IngestionPipeline.Position(1, 0));
+        }
+    }
+
+    @Test
+    void resumeAfterFailureReplacesSegments() {
+        var embeddingStore = new LocalEmbeddingStore();
+        List<IngestionPipeline.Position> checkpoints = new ArrayList<>();
+
+        // the third batch fails, after the first two are written
+        assertThatThrownBy(() -> {
+            try (var pipeline = IngestionPipeline.builder()
+                .embeddingModel(new RecordingEmbeddingModel(3))
+                .embeddingStore(embeddingStore)
+                .documentSplitter(LINE_SPLITTER)
+                .batchSize(2)
+                .maxConcurrency(1)
+                .checkpointListener(checkpoints::add)
+                .build()) {
+                pipeline.ingest(new SourceDocument("first", Document.from("a\nb\nc")), 0);
+                pipeline.ingest(new SourceDocument("second", Document.from("d\ne\nf")), 1);
+                pipeline.flush();
+            }
+        }).isInstanceOf(IllegalStateException.class);
+        assertThat(embeddingStore.size()).isEqualTo(4);
+
+        // checkpoints are throttled, so the last saved one may be before the last written batch
+        try (var pipeline = IngestionPipeline.builder()
+            .embeddingModel(new RecordingEmbeddingModel())
+            .embeddingStore(embeddingStore)
+            .documentSplitter(LINE_SPLITTER)
+            .batchSize(2)
+            .maxConcurrency(1)
+            .resumeAfter(checkpoints.getFirst())
+            .build()) {
+            pipeline.ingest(new SourceDocument("first", Document.from("a\nb\nc")), 0);
+            pipeline.ingest(new SourceDocument("second", Document.from("d\ne\nf")), 1);
+            pipeline.flush();
+        }
+
+        // the segments written again replaced the previous ones
+        assertThat(embeddingStore.size()).isEqualTo(6);
+    }
+
+    @Test
+    void deduplicateWithinSource() {
+        var embeddingModel = new RecordingEmbeddingModel();
+
+        try (var pipeline = IngestionPipeline.builder()
+            .embeddingModel(embeddingModel)
+            .embeddingStore(new InMemoryEmbeddingStore<>())
+            .documentSplitter(LINE_SPLITTER)
+            .batchSize(64)
+            .maxConcurrency(1)
+            .segmentDeduplicator(new SegmentDeduplicator(null))
+            .deduplicateWithinSource(true)
+            .build()) {
+            pipeline.ingest(new SourceDocument("first", Document.from("header\na\nheader")), 0);
+            pipeline.ingest(new SourceDocument("second", Document.from("header\nb")), 1);
+            pipeline.flush();
+
+            // the header of the second document is kept, as it's only a duplicate of another source
+            assertThat(embeddingModel.batches).containsExactly(List.of("header", "a", "header", "b"));
+            assertThat(pipeline.getDroppedSegmentCount()).isEqualTo(1);
+        }
+    }
+
+    private static class RecordingEmbeddingModel implements EmbeddingModel {
+        private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        private final int failingBatch;
+
+        RecordingEmbeddingModel() {
+            this(-1);
+        }
+
+        /**
+         * @param failingBatch the number of the batch failing to be embedded, starting at 1
+         */
+        RecordingEmbeddingModel(int failingBatch) {
+            this.failingBatch = failingBatch;
+        }
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            if (batches.size() + 1 == failingBatch) {
+                batches.add(List.of());
+                throw new IllegalStateException("Unable to embed the batch " + failingBatch);
+            }
+            batches.add(textSegments.stream().map(TextSegment::text).toList());
+            List<Embedding> embeddings = textSegments.stream().map(segment -> Embedding.from(new float[]{segment.text().length(), 1})).toList();
+            return Response.from(embeddings, new TokenUsage(textSegments.size()));
+        }
+
+        @Override
+        public int dimension() {
+            return 2;
+        }
+    }
+}
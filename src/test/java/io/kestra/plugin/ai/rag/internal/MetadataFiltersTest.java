@@ -0,0 +1,109 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetadataFiltersTest {
+    private static final Metadata NEWS = Metadata.from(Map.of("tenant", "acme", "category", "news", "year", 2022, "code", "007"));
+    private static final Metadata BLOG = Metadata.from(Map.of("tenant", "acme", "category", "blog", "year", 2019, "code", "010"));
+    private static final Metadata OTHER_TENANT = Metadata.from(Map.of("tenant", "globex", "category", "news", "year", 2022, "code", "100"));
+
+    @Test
+    void toFilter() {
+        assertThat(MetadataFilters.toFilter(null)).isNull();
+        assertThat(MetadataFilters.toFilter(Map.of())).isNull();
+
+        assertThat(MetadataFilters.toFilter(Map.of("tenant", "acme"))).isEqualTo(metadataKey("tenant").isEqualTo("acme"));
+        assertThat(MetadataFilters.toFilter(Map.of("year", Map.of("in", List.of(2019, 2020)))))
+            .isEqualTo(metadataKey("year").isIn(List.of(2019, 2020)));
+    }
+
+    @Test
+    void conditions() {
+        Filter filter = MetadataFilters.toFilter(Map.of(
+            "tenant", "acme",
+            "year", Map.of("gte", 2020, "lt", 2025)
+        ));
+        assertThat(matching(filter)).containsExactly(NEWS);
+
+        filter = MetadataFilters.toFilter(Map.of(
+            "tenant", Map.of("ne", "globex"),
+            "category", Map.of("nin", List.of("news"))
+        ));
+        assertThat(matching(filter)).containsExactly(BLOG);
+    }
+
+    @Test
+    void numericStrings() {
+        // metadata saved as strings are compared as strings, even if they look like numbers
+        assertThat(matching(MetadataFilters.toFilter(Map.of("code", Map.of("in", List.of("007", "100")))))).containsExactly(NEWS, OTHER_TENANT);
+        assertThat(matching(MetadataFilters.toFilter(Map.of("code", Map.of("lt", "010"))))).containsExactly(NEWS);
+        assertThat(matching(MetadataFilters.toFilter(Map.of("code", Map.of("eq", "007"))))).containsExactly(NEWS);
+        assertThat(MetadataFilters.toFilter(Map.of("code", Map.of("gte", "10"))))
+            .isEqualTo(metadataKey("code").isGreaterThanOrEqualTo("10"));
+    }
+
+    @Test
+    void renderedNumbers() {
+        // a value rendered from an expression is a string, $number compares it as a number
+        Filter filter = MetadataFilters.toFilter(Map.of("year", Map.of("gte", Map.of("$number", "2020"), "lt", Map.of("$number", "10000"))));
+        assertThat(matching(filter)).containsExactly(NEWS, OTHER_TENANT);
+
+        filter = MetadataFilters.toFilter(Map.of("year", Map.of("in", Map.of("$number", List.of("2019", "2020.0")))));
+        assertThat(matching(filter)).containsExactly(BLOG);
+
+        filter = MetadataFilters.toFilter(Map.of("year", Map.of("$number", " 2019 ")));
+        assertThat(matching(filter)).containsExactly(BLOG);
+
+        assertThat(MetadataFilters.toFilter(Map.of("year", Map.of("lt", Map.of("$number", "2020.5")))))
+            .isEqualTo(metadataKey("year").isLessThan(2020.5));
+        assertThatThrownBy(() -> MetadataFilters.toFilter(Map.of("year", Map.of("gt", Map.of("$number", "99999999999999999999")))))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MetadataFilters.toFilter(Map.of("year", Map.of("gt", Map.of("$number", "twenty")))))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void logical() {
+        Filter filter = MetadataFilters.toFilter(Map.of(
+            "$or", List.of(
+                Map.of("category", "blog"),
+                Map.of("tenant", "globex")
+            )
+        ));
+        assertThat(matching(filter)).containsExactly(BLOG, OTHER_TENANT);
+
+        filter = MetadataFilters.toFilter(Map.of(
+            "$and", List.of(Map.of("category", "news"), Map.of("year", Map.of("lte", 2022))),
+            "$not", Map.of("tenant", "globex")
+        ));
+        assertThat(matching(filter)).containsExactly(NEWS);
+    }
+
+    @Test
+    void invalid() {
+        assertThatThrownBy(() -> MetadataFilters.toFilter(Map.of("year", Map.of("between", List.of(2019, 2020)))))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("between");
+        assertThatThrownBy(() -> MetadataFilters.toFilter(Map.of("year", Map.of("in", 2019))))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MetadataFilters.toFilter(Map.of("$or", List.of())))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MetadataFilters.toFilter(Map.of("$not", "acme")))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MetadataFilters.toFilter(Map.of("tenant", Map.of())))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static List<Metadata> matching(Filter filter) {
+        return List.of(NEWS, BLOG, OTHER_TENANT).stream().filter(filter::test).toList();
+    }
+}
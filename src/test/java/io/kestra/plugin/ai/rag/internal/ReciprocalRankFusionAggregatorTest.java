@@ -0,0 +1,37 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReciprocalRankFusionAggregatorTest {
+    @Test
+    void fuse() {
+        var keywords = List.of(Content.from("Kestra"), Content.from("Apple"), Content.from("Banana"));
+        var vectors = List.of(Content.from("Cherry"), Content.from("Banana"), Content.from("Kestra"));
+
+        var fused = new ReciprocalRankFusionAggregator(60, 3).aggregate(Map.of(Query.from("query"), List.of(keywords, vectors)));
+
+        // contents found by both retrievers first, then the best ranked contents
+        assertThat(fused).extracting(content -> content.textSegment().text()).containsExactly("Kestra", "Banana", "Cherry");
+    }
+
+    @Test
+    void cutoff() {
+        var contents = List.of(Content.from("Apple"), Content.from("Banana"), Content.from("Cherry"));
+
+        assertThat(new ReciprocalRankFusionAggregator(60, 2).aggregate(Map.of(Query.from("query"), List.of(contents))))
+            .extracting(content -> content.textSegment().text()).containsExactly("Apple", "Banana");
+        assertThat(new ReciprocalRankFusionAggregator(60, 10).aggregate(Map.of())).isEmpty();
+        assertThatThrownBy(() -> new ReciprocalRankFusionAggregator(60, 0)).isInstanceOf(IllegalArgumentException.class);
+        // ranks start at 1, so k can be 0
+        assertThat(new ReciprocalRankFusionAggregator(0, 10).aggregate(Map.of())).isEmpty();
+        assertThatThrownBy(() -> new ReciprocalRankFusionAggregator(-1, 10)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("not be negative");
+    }
+}
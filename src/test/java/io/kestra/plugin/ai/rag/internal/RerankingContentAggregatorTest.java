@@ -0,0 +1,59 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.scoring.ScoringModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RerankingContentAggregatorTest {
+    // scores the segments by the ratio of their characters found in the query, ignoring case
+    private static final ScoringModel SCORING_MODEL = new ScoringModel() {
+        @Override
+        public Response<List<Double>> scoreAll(List<TextSegment> segments, String query) {
+            return Response.from(segments.stream()
+                .map(segment -> segment.text().toLowerCase().chars().filter(c -> query.toLowerCase().indexOf(c) >= 0).count() / (double) segment.text().length())
+                .toList()
+            );
+        }
+    };
+
+    @Test
+    void rerank() {
+        var contents = List.of(
+            Content.from(TextSegment.from("Apple"), Map.of(ContentMetadata.SCORE, 0.9)),
+            Content.from("Banana"),
+            Content.from("Cherry")
+        );
+
+        var reranked = new RerankingContentAggregator(new DefaultContentAggregator(), SCORING_MODEL, 2, 0.1)
+            .aggregate(Map.of(Query.from("banana"), List.of(contents)));
+
+        assertThat(reranked).extracting(content -> content.textSegment().text()).containsExactly("Banana", "Apple");
+        assertThat(reranked.get(0).metadata()).containsEntry(ContentMetadata.RERANKED_SCORE, 1.0);
+        // the metadata of the retrieved content is kept
+        assertThat(reranked.get(1).metadata()).containsEntry(ContentMetadata.SCORE, 0.9).containsKey(ContentMetadata.RERANKED_SCORE);
+
+        // below the minimum score
+        assertThat(new RerankingContentAggregator(new DefaultContentAggregator(), SCORING_MODEL, 2, 0.1).aggregate(Map.of(Query.from("qvw"), List.of(contents))))
+            .isEmpty();
+    }
+
+    @Test
+    void singleQuery() {
+        var aggregator = new RerankingContentAggregator(new DefaultContentAggregator(), SCORING_MODEL, 2, 0.0);
+
+        assertThat(aggregator.aggregate(Map.of(Query.from("query"), List.of(List.of())))).isEmpty();
+        assertThatThrownBy(() -> aggregator.aggregate(Map.of(Query.from("first"), List.of(List.of()), Query.from("second"), List.of(List.of()))))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
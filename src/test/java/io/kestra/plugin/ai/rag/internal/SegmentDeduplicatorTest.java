@@ -0,0 +1,35 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentDeduplicatorTest {
+    private static final String LICENSE = """
+        Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+        You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+        Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+        WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.""";
+
+    @Test
+    void exactDuplicates() {
+        SegmentDeduplicator deduplicator = new SegmentDeduplicator(null);
+
+        assertThat(deduplicator.isDuplicate("I'm Loïc")).isFalse();
+        assertThat(deduplicator.isDuplicate("  I'm   Loïc\n")).isTrue();
+        assertThat(deduplicator.isDuplicate("I live in Lille")).isFalse();
+        // near-duplicates are kept
+        assertThat(deduplicator.isDuplicate(LICENSE)).isFalse();
+        assertThat(deduplicator.isDuplicate(LICENSE.replace("2.0", "2.1"))).isFalse();
+    }
+
+    @Test
+    void nearDuplicates() {
+        SegmentDeduplicator deduplicator = new SegmentDeduplicator(0.8);
+
+        assertThat(deduplicator.isDuplicate(LICENSE)).isFalse();
+        assertThat(deduplicator.isDuplicate(LICENSE)).isTrue();
+        assertThat(deduplicator.isDuplicate(LICENSE.replace("2.0", "2.1"))).isTrue();
+        assertThat(deduplicator.isDuplicate("Kestra is an open-source orchestration platform, it lets you build workflows as code.")).isFalse();
+    }
+}
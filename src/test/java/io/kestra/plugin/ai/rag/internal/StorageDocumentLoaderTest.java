@@ -0,0 +1,59 @@
+package io.kestra.plugin.ai.rag.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageDocumentLoaderTest {
+    private static final String URI = "kestra:///documents/file.txt";
+
+    @Test
+    void multipleChunks() {
+        List<SourceDocument> documents = text("first line\nsecond line\nthird\n", StandardCharsets.UTF_8, 16);
+
+        // chunks are cut after the last line break
+        assertThat(documents).extracting(document -> document.document().text())
+            .containsExactly("first line\n", "second line\n", "third\n");
+        assertThat(documents).extracting(SourceDocument::source)
+            .containsExactly(URI, URI + "#1", URI + "#2");
+    }
+
+    @Test
+    void longLine() {
+        List<SourceDocument> documents = text("abcdefghij", StandardCharsets.UTF_8, 4);
+
+        assertThat(documents).extracting(document -> document.document().text())
+            .containsExactly("abcd", "efgh", "ij");
+    }
+
+    @Test
+    void surrogatePairs() {
+        // each emoji is a surrogate pair, a chunk of 3 characters would cut the second one
+        String text = "😀😀😀";
+        List<SourceDocument> documents = text(text, StandardCharsets.UTF_8, 3);
+
+        assertThat(documents).extracting(document -> document.document().text())
+            .containsExactly("😀", "😀", "😀");
+    }
+
+    @Test
+    void nonUtf8Charset() {
+        Charset charset = StandardCharsets.ISO_8859_1;
+        List<SourceDocument> documents = text("Café crème\nDéjà vu\n", charset, 12);
+
+        assertThat(documents).extracting(document -> document.document().text())
+            .containsExactly("Café crème\n", "Déjà vu\n");
+    }
+
+    private static List<SourceDocument> text(String content, Charset charset, int maxDocumentSize) {
+        try (Stream<SourceDocument> documents = StorageDocumentLoader.text(URI, new ByteArrayInputStream(content.getBytes(charset)), charset, maxDocumentSize)) {
+            return documents.toList();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.kestra.plugin.ai.embeddings.internal;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A dot product kernel using the JDK Vector API, only loaded by {@link VectorMath} when the <code>jdk.incubator.vector</code> module is available.
+ * <p>
+ * It's the only class using the incubator module, so it's inside its own source set: only this source set is compiled with the module, and it's loaded by name.
+ */
+final class VectorApiKernel implements VectorMath.Kernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public float dot(float[] first, float[] second) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(first.length);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector a = FloatVector.fromArray(SPECIES, first, i);
+            FloatVector b = FloatVector.fromArray(SPECIES, second, i);
+            sum = a.fma(b, sum);
+        }
+
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < first.length; i++) {
+            result += first[i] * second[i];
+        }
+        return result;
+    }
+}